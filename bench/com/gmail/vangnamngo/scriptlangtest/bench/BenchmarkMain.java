@@ -0,0 +1,27 @@
+package com.gmail.vangnamngo.scriptlangtest.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this package with the GC profiler attached, so that each result also reports its allocation
+ * rate. Throughput and the latency percentiles come from the modes set on each benchmark. An optional argument
+ * narrows the run down to the benchmarks matching a regular expression, and a second one names a JSON file to write
+ * the results to, to be kept as a baseline.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        options.include(args.length > 0 ? args[0] : BenchmarkMain.class.getPackage().getName() + ".*");
+        options.addProfiler(GCProfiler.class);
+        if (args.length > 1) {
+            options.resultFormat(ResultFormatType.JSON);
+            options.result(args[1]);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,46 @@
+package com.gmail.vangnamngo.scriptlangtest.bench;
+
+import com.gmail.vangnamngo.scriptlangtest.corrections.Corrector;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifying the context at the end of a long parent chain.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CorrectorBenchmark {
+
+    @Param({ "16", "256", "4096" })
+    public int length;
+
+    private Corrector corrector;
+    private ScriptContext leaf;
+
+    @Setup
+    public void setup() {
+        ScriptRuntime runtime = new ScriptRuntime();
+        ScriptGroup group = new ScriptGroup("bench", runtime.getGlobalGroup());
+        ScriptContext c = new ScriptContext(group);
+        for (int i = 1; i < length; i++) {
+            c = new ScriptContext(group, c);
+        }
+        c.addVariable("a");
+        c.addVariable("b");
+        leaf = c;
+        corrector = runtime.getCorrector();
+    }
+
+    @Benchmark
+    public boolean verifyScriptContext() {
+        return corrector.verifyScriptContext(leaf);
+    }
+}
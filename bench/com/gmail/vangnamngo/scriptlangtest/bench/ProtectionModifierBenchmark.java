@@ -0,0 +1,50 @@
+package com.gmail.vangnamngo.scriptlangtest.bench;
+
+import com.gmail.vangnamngo.scriptlangtest.script.ProtectionModifier;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access checks for each protection modifier, between scripts in a group and a subgroup several levels below it.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ProtectionModifierBenchmark {
+
+    @Param({ "PUBLIC", "GROUP", "DIRECTORY", "PRIVATE" })
+    public ProtectionModifier modifier;
+
+    @Param({ "1", "8" })
+    public int groupDepth;
+
+    private ScriptContext accessFrom;
+    private ScriptContext accessed;
+
+    @Setup
+    public void setup() {
+        ScriptRuntime runtime = new ScriptRuntime();
+        ScriptGroup top = new ScriptGroup("top", runtime.getGlobalGroup());
+        ScriptGroup bottom = top;
+        for (int i = 0; i < groupDepth; i++) {
+            bottom = new ScriptGroup("sub" + i, bottom);
+        }
+        Script accessedScript = new Script("accessed", "scripts/", new String[0], new Script.ExtendedData[0], top);
+        Script fromScript = new Script("from", "scripts/nested/", new String[0], new Script.ExtendedData[0], bottom);
+        accessed = new ScriptContext(accessedScript);
+        accessFrom = new ScriptContext(fromScript);
+    }
+
+    @Benchmark
+    public boolean canAccessFrom() {
+        return ProtectionModifier.canAccessFrom(accessFrom, accessed, modifier);
+    }
+}
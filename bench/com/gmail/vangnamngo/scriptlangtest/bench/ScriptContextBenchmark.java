@@ -0,0 +1,89 @@
+package com.gmail.vangnamngo.scriptlangtest.bench;
+
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Variable lookups and assignments through parent chains of increasing depth, and listing the variables of wide
+ * scopes.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ScriptContextBenchmark {
+
+    /**
+     * A chain of contexts where the variable being looked up lives in the context furthest from the leaf.
+     */
+    @State(Scope.Thread)
+    public static class Chain {
+        @Param({ "1", "2", "4", "8", "16", "32", "64" })
+        public int depth;
+
+        public ScriptContext leaf;
+        public AbstractObject value;
+
+        @Setup
+        public void setup() {
+            ScriptRuntime runtime = new ScriptRuntime();
+            ScriptGroup group = new ScriptGroup("bench", runtime.getGlobalGroup());
+            ScriptContext root = new ScriptContext(group);
+            root.addVariable("target");
+            // Every context on the way has a few variables of its own, so the lookup has to miss in each of them.
+            ScriptContext c = root;
+            for (int i = 1; i < depth; i++) {
+                c = new ScriptContext(group, c);
+                for (int v = 0; v < 4; v++) {
+                    c.addVariable("local" + v);
+                }
+            }
+            leaf = c;
+            value = new StringObject("value");
+        }
+    }
+
+    /**
+     * A single context with many variables of its own.
+     */
+    @State(Scope.Thread)
+    public static class Wide {
+        @Param({ "16", "256", "4096" })
+        public int width;
+
+        public ScriptContext context;
+
+        @Setup
+        public void setup() {
+            ScriptRuntime runtime = new ScriptRuntime();
+            ScriptGroup group = new ScriptGroup("bench", runtime.getGlobalGroup());
+            context = new ScriptContext(group);
+            for (int i = 0; i < width; i++) {
+                context.addVariable("var" + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public AbstractObject getVariable(Chain chain) {
+        return chain.leaf.getVariable("target");
+    }
+
+    @Benchmark
+    public boolean setVariable(Chain chain) {
+        return chain.leaf.setVariable("target", chain.value);
+    }
+
+    @Benchmark
+    public List<String> getVariableList(Wide wide) {
+        return wide.context.getVariableList();
+    }
+}
@@ -0,0 +1,52 @@
+package com.gmail.vangnamngo.scriptlangtest.bench;
+
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the scripts of large groups.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ScriptGroupBenchmark {
+
+    @Param({ "100", "10000", "100000" })
+    public int size;
+
+    private ScriptGroup group;
+    private List<Script> half;
+
+    @Setup
+    public void setup() {
+        ScriptRuntime runtime = new ScriptRuntime();
+        List<Script> scripts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            scripts.add(new Script("script" + i, "scripts/", new String[0], new Script.ExtendedData[0]));
+        }
+        group = new ScriptGroup("bench", scripts, runtime.getGlobalGroup());
+        half = new ArrayList<>(scripts.subList(0, size / 2));
+    }
+
+    @Benchmark
+    public void iterateScripts(Blackhole bh) {
+        for (Script s : group.scripts()) {
+            bh.consume(s);
+        }
+    }
+
+    @Benchmark
+    public boolean hasAllScripts() {
+        return group.hasAllScripts(half);
+    }
+}
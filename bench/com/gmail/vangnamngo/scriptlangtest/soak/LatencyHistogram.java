@@ -0,0 +1,77 @@
+package com.gmail.vangnamngo.scriptlangtest.soak;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Records latencies into log-linear buckets, so that percentiles can be read with a relative error of under 2%
+ * without keeping every sample. Safe to record into from any number of threads.
+ */
+public final class LatencyHistogram {
+
+    // Values below LINEAR are counted exactly. Above that, each power of two is split into HALF buckets.
+    private final static int SUB_BITS = 7;
+    private final static int LINEAR = 1 << SUB_BITS;
+    private final static int HALF = LINEAR / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (64 - SUB_BITS) * HALF);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value The latency to record, in nanoseconds.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(Math.max(0, value)));
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The smallest recorded latency that at least the given percentage of samples are at or below, rounded
+     *         up to the top of its bucket.
+     */
+    public long getPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return LINEAR + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR) / HALF + 1;
+        long top = (bucket - LINEAR) % HALF + HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,273 @@
+package com.gmail.vangnamngo.scriptlangtest.soak;
+
+import com.gmail.vangnamngo.scriptlangtest.execution.ScriptExecutor;
+import com.gmail.vangnamngo.scriptlangtest.execution.ScriptInterpreter;
+import com.gmail.vangnamngo.scriptlangtest.metrics.ScriptMetrics;
+import com.gmail.vangnamngo.scriptlangtest.output.OutputSink;
+import com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Drives the whole pipeline, lexing, compiling and executing, over a corpus of scripts for a set amount of time, and
+ * reports throughput, latency percentiles, garbage collection pauses and the heap high-water mark.
+ *
+ * <p>Each driver thread repeatedly picks a random script, compiles it from its file and waits for it to finish
+ * executing, so the number of drivers is the number of scripts in flight. A script's latency covers all three
+ * phases. Everything runs in-process.</p>
+ *
+ * <p>Usage: {@code SoakHarness <corpus directory> [concurrency] [seconds] [executor threads]}. If the directory does
+ * not exist, a corpus is generated into it with {@link WorkloadGenerator}'s defaults.</p>
+ */
+public class SoakHarness {
+
+    private final Path corpus;
+    private final int concurrency;
+    private final long durationMillis;
+    private final int executorThreads;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicLong firstFailure = new AtomicLong(-1);
+    private volatile String firstFailureMessage;
+
+    private final LongAdder gcPauses = new LongAdder();
+    private final LongAdder gcPauseMillis = new LongAdder();
+    private final LongAccumulator gcMaxPauseMillis = new LongAccumulator(Math::max, 0);
+
+    public SoakHarness(Path corpus, int concurrency, long durationMillis, int executorThreads) {
+        this.corpus = corpus;
+        this.concurrency = concurrency;
+        this.durationMillis = durationMillis;
+        this.executorThreads = executorThreads;
+    }
+
+    /**
+     * Runs the soak test and prints a report to the standard output stream.
+     * @throws IOException If the corpus cannot be read.
+     * @throws InterruptedException If interrupted while waiting for the drivers.
+     */
+    public void run() throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(corpus)) {
+            files = walk.filter(p -> p.toString().endsWith(".slt")).collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No scripts found in " + corpus);
+        }
+
+        ScriptRuntime runtime = new ScriptRuntime();
+        runtime.setOutput(new DiscardingSink());
+        runtime.getMetrics().setEnabled(true);
+        Map<Path, ScriptGroup> groups = new HashMap<>();
+        for (Path file : files) {
+            groupOf(runtime, file.getParent(), groups);
+        }
+
+        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        listenForPauses(gcBeans);
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long gcCountBefore = totalCollections(gcBeans);
+        long gcTimeBefore = totalCollectionTime(gcBeans);
+
+        System.out.println("Soaking " + files.size() + " scripts with " + concurrency + " in flight on "
+                + executorThreads + " executor threads for " + durationMillis / 1000 + "s");
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        try (ScriptExecutor executor = new ScriptExecutor(new ScriptInterpreter(), executorThreads,
+                ScriptExecutor.DEFAULT_BUDGET)) {
+            Thread[] drivers = new Thread[concurrency];
+            for (int i = 0; i < concurrency; i++) {
+                drivers[i] = new Thread(() -> drive(runtime, executor, files, groups, deadline), "SoakDriver-" + i);
+                drivers[i].start();
+            }
+            long nextProgress = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            for (Thread driver : drivers) {
+                while (driver.isAlive()) {
+                    driver.join(1000);
+                    if (System.nanoTime() >= nextProgress) {
+                        nextProgress += TimeUnit.SECONDS.toNanos(10);
+                        System.out.println("  " + completed.sum() + " scripts, p99 "
+                                + micros(latencies.getPercentile(99)) + ", heap " + heapUsedMiB() + " MiB");
+                    }
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+
+        System.out.println();
+        System.out.printf("throughput    %.1f scripts/s (%d completed, %d failed)%n", completed.sum() / seconds,
+                completed.sum(), failed.sum());
+        System.out.println("latency p50   " + micros(latencies.getPercentile(50)));
+        System.out.println("latency p99   " + micros(latencies.getPercentile(99)));
+        System.out.println("latency p999  " + micros(latencies.getPercentile(99.9)));
+        System.out.println("latency max   " + micros(latencies.getMax()));
+        System.out.println("gc            " + (totalCollections(gcBeans) - gcCountBefore) + " collections, "
+                + (totalCollectionTime(gcBeans) - gcTimeBefore) + " ms total");
+        if (gcPauses.sum() > 0) {
+            System.out.println("gc pauses     " + gcPauses.sum() + " pauses, " + gcPauseMillis.sum() + " ms total, "
+                    + gcMaxPauseMillis.get() + " ms max");
+        }
+        System.out.println("heap peak     " + peak / (1024 * 1024) + " MiB");
+        if (firstFailureMessage != null) {
+            System.out.println("first failure " + firstFailureMessage);
+        }
+        ScriptMetrics metrics = runtime.getMetrics();
+        System.out.println("lex mean      " + micros((long) metrics.getLexTime().getMean()));
+        System.out.println("compile mean  " + micros((long) metrics.getCompileTime().getMean()));
+        System.out.println("execute mean  " + micros((long) metrics.getExecuteTime().getMean()) + " per slice");
+    }
+
+    private void drive(ScriptRuntime runtime, ScriptExecutor executor, List<Path> files, Map<Path, ScriptGroup> groups,
+                       long deadline) {
+        ScriptCompiler compiler = runtime.newCompiler();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            Path file = files.get(random.nextInt(files.size()));
+            long begin = System.nanoTime();
+            try {
+                Script script = compiler.compile(file.toFile(), groups.get(file.getParent()));
+                executor.submit(script, new ScriptContext(script)).completion().join();
+                latencies.record(System.nanoTime() - begin);
+                completed.increment();
+            }
+            catch (Exception e) {
+                failed.increment();
+                if (firstFailure.compareAndSet(-1, begin)) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    firstFailureMessage = file + ": " + cause;
+                }
+            }
+        }
+    }
+
+    // Mirrors the directory tree of the corpus as groups, so that every directory gets its own group.
+    private ScriptGroup groupOf(ScriptRuntime runtime, Path dir, Map<Path, ScriptGroup> groups) {
+        ScriptGroup group = groups.get(dir);
+        if (group == null) {
+            ScriptGroup parent = dir.equals(corpus) || dir.getParent() == null ? runtime.getGlobalGroup()
+                    : groupOf(runtime, dir.getParent(), groups);
+            group = new ScriptGroup(dir.getFileName().toString(), parent);
+            groups.put(dir, group);
+        }
+        return group;
+    }
+
+    // Pause notifications are specific to HotSpot. Other JVMs only get the collection counts and times.
+    private void listenForPauses(List<GarbageCollectorMXBean> beans) {
+        NotificationListener listener = (Notification n, Object handback) -> {
+            if (!"com.sun.management.gc.notification".equals(n.getType())) {
+                return;
+            }
+            CompositeData info = (CompositeData) ((CompositeData) n.getUserData()).get("gcInfo");
+            long duration = (Long) info.get("duration");
+            gcPauses.increment();
+            gcPauseMillis.add(duration);
+            gcMaxPauseMillis.accumulate(duration);
+        };
+        for (GarbageCollectorMXBean bean : beans) {
+            if (bean instanceof NotificationEmitter) {
+                ((NotificationEmitter) bean).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+    private static long totalCollections(List<GarbageCollectorMXBean> beans) {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : beans) {
+            total += Math.max(0, bean.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long totalCollectionTime(List<GarbageCollectorMXBean> beans) {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : beans) {
+            total += Math.max(0, bean.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long heapUsedMiB() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f us", nanos / 1000.0);
+    }
+
+    // Script output is not what is being measured, so it is thrown away.
+    private final static class DiscardingSink implements OutputSink {
+        @Override
+        public void write(String str) {
+        }
+
+        @Override
+        public void writeLine(String str) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: SoakHarness <corpus directory> [concurrency] [seconds] [executor threads]");
+            return;
+        }
+        Path corpus = Paths.get(args[0]);
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 60;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        if (!Files.exists(corpus)) {
+            System.out.println("Generating a corpus in " + corpus);
+            new WorkloadGenerator().generate(corpus);
+        }
+        new SoakHarness(corpus, concurrency, seconds * 1000, threads).run();
+    }
+}
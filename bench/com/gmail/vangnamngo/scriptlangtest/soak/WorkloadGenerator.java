@@ -0,0 +1,339 @@
+package com.gmail.vangnamngo.scriptlangtest.soak;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a corpus of random {@code .slt} scripts, laid out as a tree of group directories. The scripts follow the
+ * style of {@code example scripts/basic example.slt}: a header, typed declarations with protection modifiers,
+ * left-to-right arithmetic, string building, nested {@code if} blocks and bounded {@code while} loops.
+ *
+ * <p>Every setting has a default, and the same seed always produces the same corpus.</p>
+ */
+public class WorkloadGenerator {
+
+    private final static String[] TYPES = { "bool", "int", "dec", "string", "char" };
+
+    private int scripts = 1000;
+    private int statements = 40;
+    private int nestingDepth = 3;
+    private int loopIterations = 20;
+    private int groupFanOut = 4;
+    private int groupDepth = 2;
+    private String[] headerTypes = { "code", "code", "code", "dataholder" };
+    private String[] modifiers = { "public", "public", "group", "directory", "private" };
+    private long seed = 42;
+
+    public WorkloadGenerator scripts(int scripts) {
+        this.scripts = scripts;
+        return this;
+    }
+
+    /**
+     * @param statements The number of top-level statements in each script.
+     */
+    public WorkloadGenerator statements(int statements) {
+        this.statements = statements;
+        return this;
+    }
+
+    /**
+     * @param depth The deepest that blocks may be nested.
+     */
+    public WorkloadGenerator nestingDepth(int depth) {
+        this.nestingDepth = depth;
+        return this;
+    }
+
+    /**
+     * @param iterations The number of times each generated loop runs.
+     */
+    public WorkloadGenerator loopIterations(int iterations) {
+        this.loopIterations = iterations;
+        return this;
+    }
+
+    /**
+     * @param fanOut The number of subgroups of each group.
+     * @param depth The number of levels of groups below the root directory.
+     */
+    public WorkloadGenerator groups(int fanOut, int depth) {
+        this.groupFanOut = fanOut;
+        this.groupDepth = depth;
+        return this;
+    }
+
+    /**
+     * @param types The values of the {@code #type} header to choose from. Repeating a value makes it more likely.
+     */
+    public WorkloadGenerator headerTypes(String... types) {
+        this.headerTypes = types;
+        return this;
+    }
+
+    /**
+     * @param modifiers The protection modifiers to choose from. Repeating a value makes it more likely.
+     */
+    public WorkloadGenerator modifiers(String... modifiers) {
+        this.modifiers = modifiers;
+        return this;
+    }
+
+    public WorkloadGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes the corpus. Scripts are spread evenly over every group directory, including the root.
+     * @param root The directory to write to. It is created if it does not exist.
+     * @return Every script file written.
+     * @throws IOException If a file cannot be written.
+     */
+    public List<Path> generate(Path root) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        addGroups(root, 0, directories);
+
+        Random random = new Random(seed);
+        List<Path> files = new ArrayList<>(scripts);
+        for (int i = 0; i < scripts; i++) {
+            Path dir = directories.get(i % directories.size());
+            Files.createDirectories(dir);
+            Path file = dir.resolve("script" + i + ".slt");
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write(new ScriptWriter(random).write());
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private void addGroups(Path dir, int depth, List<Path> out) {
+        out.add(dir);
+        if (depth < groupDepth) {
+            for (int i = 0; i < groupFanOut; i++) {
+                addGroups(dir.resolve("group" + depth + "_" + i), depth + 1, out);
+            }
+        }
+    }
+
+    // Writes a single script. Keeps track of the declared variables so that expressions only use variables that
+    // exist and have the right type.
+    private final class ScriptWriter {
+        private final Random random;
+        private final StringBuilder sb = new StringBuilder();
+        private final List<String> ints = new ArrayList<>();
+        private final List<String> decs = new ArrayList<>();
+        private final List<String> bools = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+        private int nextVar = 0;
+        private int nextLoop = 0;
+
+        private ScriptWriter(Random random) {
+            this.random = random;
+        }
+
+        private String write() {
+            String type = pick(headerTypes);
+            sb.append("#type ").append(type).append("\n\n");
+            boolean dataOnly = type.equals("dataholder");
+            for (int i = 0; i < statements; i++) {
+                if (dataOnly || i < 4) {
+                    declaration(0);
+                }
+                else {
+                    statement(0);
+                }
+            }
+            return sb.toString();
+        }
+
+        private void statement(int depth) {
+            int roll = random.nextInt(10);
+            if (depth < nestingDepth && roll == 0) {
+                loop(depth);
+            }
+            else if (depth < nestingDepth && roll < 3) {
+                branch(depth);
+            }
+            else if (roll < 6) {
+                declaration(depth);
+            }
+            else if (roll < 8) {
+                assignment(depth);
+            }
+            else {
+                echo(depth);
+            }
+        }
+
+        private void declaration(int depth) {
+            indent(depth);
+            String modifier = pick(modifiers);
+            if (!modifier.equals("public") || random.nextBoolean()) {
+                sb.append(modifier).append(' ');
+            }
+            String type = pick(TYPES);
+            String name = "v" + nextVar++;
+            sb.append(type).append(' ').append(name).append(" = ");
+            List<String> declared = null;
+            switch (type) {
+                case "bool":
+                    sb.append(boolExpression());
+                    declared = bools;
+                    break;
+                case "int":
+                    sb.append(intExpression());
+                    declared = ints;
+                    break;
+                case "dec":
+                    sb.append(decExpression());
+                    declared = decs;
+                    break;
+                case "string":
+                    sb.append(stringExpression());
+                    declared = strings;
+                    break;
+                default:
+                    sb.append('\'').append((char) ('a' + random.nextInt(26))).append('\'');
+            }
+            sb.append('\n');
+            // Blocks may never run, so only variables declared at the top level can be used later on.
+            if (declared != null && depth == 0) {
+                declared.add(name);
+            }
+        }
+
+        private void assignment(int depth) {
+            if (ints.isEmpty()) {
+                declaration(depth);
+                return;
+            }
+            indent(depth);
+            sb.append(pick(ints)).append(random.nextBoolean() ? " += " : " = ").append(intExpression()).append('\n');
+        }
+
+        private void echo(int depth) {
+            indent(depth);
+            sb.append(random.nextBoolean() ? "echoln(" : "echo(").append(stringExpression()).append(")\n");
+        }
+
+        private void branch(int depth) {
+            indent(depth);
+            sb.append("if (").append(boolExpression()).append("):\n");
+            block(depth + 1);
+            if (random.nextInt(3) == 0) {
+                indent(depth);
+                sb.append("elif (").append(boolExpression()).append("):\n");
+                block(depth + 1);
+            }
+            if (random.nextBoolean()) {
+                indent(depth);
+                sb.append("else:\n");
+                block(depth + 1);
+            }
+        }
+
+        private void loop(int depth) {
+            String counter = "n" + nextLoop++;
+            indent(depth);
+            sb.append("int ").append(counter).append(" = 0\n");
+            indent(depth);
+            sb.append("while (").append(counter).append(" != ").append(loopIterations).append("):\n");
+            indent(depth + 1);
+            sb.append(counter).append(" += 1\n");
+            block(depth + 1);
+        }
+
+        private void block(int depth) {
+            int count = 1 + random.nextInt(4);
+            for (int i = 0; i < count; i++) {
+                statement(depth);
+            }
+        }
+
+        private String intExpression() {
+            String e = intOperand();
+            for (int i = random.nextInt(3); i > 0; i--) {
+                e += " " + pick(new String[] { "+", "-", "*" }) + " " + intOperand();
+            }
+            if (random.nextInt(4) == 0) {
+                e = "(" + e + ") % " + (2 + random.nextInt(9));
+            }
+            return e;
+        }
+
+        private String intOperand() {
+            return !ints.isEmpty() && random.nextBoolean() ? pick(ints) : Integer.toString(random.nextInt(100));
+        }
+
+        private String decExpression() {
+            String lit = random.nextInt(100) + "." + random.nextInt(1000);
+            return !decs.isEmpty() && random.nextBoolean() ? pick(decs) + " * " + lit : "1 + (" + lit + " / 2)";
+        }
+
+        private String boolExpression() {
+            switch (random.nextInt(3)) {
+                case 0:
+                    return !bools.isEmpty() ? pick(bools) : "true";
+                case 1:
+                    return "(" + intExpression() + ") % 2 == 0";
+                default:
+                    // Operators are applied from left to right, so the comparison needs its own parentheses.
+                    return "!" + (!bools.isEmpty() ? pick(bools) : "false") + " || (" + intOperand() + " != 0)";
+            }
+        }
+
+        private String stringExpression() {
+            String e = "\"message " + random.nextInt(1000) + "\"";
+            if (!ints.isEmpty() && random.nextBoolean()) {
+                e += " + " + pick(ints);
+            }
+            if (!strings.isEmpty() && random.nextInt(3) == 0) {
+                e += " + " + pick(strings);
+            }
+            return e;
+        }
+
+        private void indent(int depth) {
+            for (int i = 0; i < depth; i++) {
+                sb.append("    ");
+            }
+        }
+
+        private String pick(String[] values) {
+            return values[random.nextInt(values.length)];
+        }
+
+        private String pick(List<String> values) {
+            return values.get(random.nextInt(values.size()));
+        }
+    }
+
+    /**
+     * Writes a corpus from the command line.
+     * @param args The directory to write to, then optionally the number of scripts and the seed.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: WorkloadGenerator <directory> [scripts] [seed]");
+            return;
+        }
+        WorkloadGenerator generator = new WorkloadGenerator();
+        if (args.length > 1) {
+            generator.scripts(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.seed(Long.parseLong(args[2]));
+        }
+        List<Path> files = generator.generate(Paths.get(args[0]));
+        System.out.println("Wrote " + files.size() + " scripts to " + args[0]);
+    }
+}
@@ -1,14 +1,9 @@
 package com.gmail.vangnamngo.scriptlangtest;
 
-import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
-
 import java.io.File;
 
 public class Main {
 
-    public final static AbstractObject NULL_OBJ = new AbstractObject() {
-    };
-
     public static void main(String args[]) {
         File thisDir = new File(".");
     }
@@ -3,9 +3,24 @@ package com.gmail.vangnamngo.scriptlangtest.command;
 import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
 import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public abstract class AbstractCommand {
+public abstract class AbstractCommand implements Cloneable {
+
+    // Whether each kind of command overrides executeAsync, looked up once per class.
+    private final static ClassValue<Boolean> ASYNC = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("executeAsync", ScriptContext.class).getDeclaringClass() != AbstractCommand.class;
+            }
+            catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
 
     protected Map<String, AbstractObject> processedArgs;
 
@@ -16,4 +31,126 @@ public abstract class AbstractCommand {
     public abstract boolean processArguments(ScriptContext context, Map<String, AbstractObject> args);
 
     public abstract void execute(ScriptContext context);
+
+    /**
+     * Returns the arguments this command accepts. Arguments can only be passed by name to commands with a signature.
+     * Commands without one accept any number of arguments by position, which are named "0", "1" and so on when they
+     * are processed.
+     * @return The signature of this command, or null if it has none.
+     */
+    public CommandSignature getSignature() {
+        return null;
+    }
+
+    /**
+     * Executes this command with arguments that have already been placed into their slots. Commands that override
+     * this method should not keep any state in the command object itself, so that a single instance can be shared
+     * by every call site and every thread.
+     *
+     * <p>By default, this copies the frame into a map and falls back to {@link #processArguments(ScriptContext, Map)}
+     * and {@link #execute(ScriptContext)}. A frame with more slots than the signature has arguments is not
+     * accepted.</p>
+     * @param context The context to execute this command in.
+     * @param args The arguments, ordered by {@link #getSignature()}.
+     * @return False if the arguments were not accepted, true otherwise.
+     */
+    public boolean invoke(ScriptContext context, ArgumentFrame args) {
+        Map<String, AbstractObject> map = toMap(args);
+        if (map == null || !processArguments(context, map)) {
+            return false;
+        }
+        execute(context);
+        return true;
+    }
+
+    /**
+     * Executes this command without blocking the calling thread, with arguments that have already been placed into
+     * their slots. The frame may be reused as soon as this method returns.
+     *
+     * <p>By default, this processes the arguments on a {@linkplain #newInvocation() copy} of this command, so that
+     * invocations on other threads cannot overwrite them, and then calls {@link #executeAsync(ScriptContext)} on the
+     * copy.</p>
+     * @param context The context to execute this command in.
+     * @param args The arguments, ordered by {@link #getSignature()}.
+     * @return A future which is completed with false if the arguments were not accepted, or with true once this
+     *         command has finished.
+     */
+    public CompletableFuture<Boolean> invokeAsync(ScriptContext context, ArgumentFrame args) {
+        AbstractCommand invocation = prepareInvocation(context, args);
+        if (invocation == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return invocation.executeAsync(context).thenApply(v -> true);
+    }
+
+    /**
+     * Whether calls to this command should go through {@link #invokeAsync(ScriptContext, ArgumentFrame)}, so that
+     * the script calling it is parked rather than blocking its thread. By default, this is true for commands which
+     * override {@link #executeAsync(ScriptContext)}.
+     * @return True if this command executes asynchronously.
+     */
+    public boolean isAsync() {
+        return ASYNC.get(getClass());
+    }
+
+    /**
+     * Creates the command object for a single asynchronous or batched invocation, which holds onto its own processed
+     * arguments until it has finished. By default, this is a shallow copy of this command.
+     * @return A command of the same class as this one.
+     */
+    protected AbstractCommand newInvocation() {
+        try {
+            return (AbstractCommand) clone();
+        }
+        catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // Copies this command and processes the arguments on the copy. Returns null if the arguments were not accepted.
+    AbstractCommand prepareInvocation(ScriptContext context, ArgumentFrame args) {
+        Map<String, AbstractObject> map = toMap(args);
+        if (map == null) {
+            return null;
+        }
+        AbstractCommand invocation = newInvocation();
+        invocation.processedArgs = null;
+        return invocation.processArguments(context, map) ? invocation : null;
+    }
+
+    // Names the arguments in a frame. Returns null if there are more of them than the signature allows.
+    private Map<String, AbstractObject> toMap(ArgumentFrame args) {
+        CommandSignature signature = getSignature();
+        if (signature != null && args.size() > signature.size()) {
+            return null;
+        }
+        Map<String, AbstractObject> map = new HashMap<>();
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i) != null) {
+                map.put(signature != null ? signature.nameOf(i) : String.valueOf(i), args.get(i));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Executes this command without blocking the calling thread. Commands that perform I/O should override this
+     * method, so that a script awaiting the returned future is parked instead of holding onto its thread.
+     *
+     * <p>By default, this runs {@link #execute(ScriptContext)} on the calling thread and returns a completed
+     * future.</p>
+     * @param context The context to execute this command in.
+     * @return A future which is completed once this command has finished.
+     */
+    public CompletableFuture<Void> executeAsync(ScriptContext context) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            execute(context);
+            future.complete(null);
+        }
+        catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 }
@@ -0,0 +1,52 @@
+package com.gmail.vangnamngo.scriptlangtest.command;
+
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+
+import java.util.Arrays;
+
+/**
+ * Holds the arguments of a single command invocation by slot. Frames are reused between invocations, so commands must
+ * never hold onto a frame, or the objects in it, after {@link AbstractCommand#invoke(
+ * com.gmail.vangnamngo.scriptlangtest.script.ScriptContext, ArgumentFrame)} returns, unless they keep their own
+ * references to those objects.
+ */
+public final class ArgumentFrame {
+
+    private AbstractObject[] slots;
+    private int size = 0;
+    boolean inUse = false;
+
+    public ArgumentFrame(int capacity) {
+        slots = new AbstractObject[capacity];
+    }
+
+    public AbstractObject get(int slot) {
+        return slots[slot];
+    }
+
+    public void set(int slot, AbstractObject obj) {
+        slots[slot] = obj;
+    }
+
+    /**
+     * @return The number of slots in use.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Clears the frame and prepares it for an invocation with the provided number of arguments. The frame only grows
+     * when it doesn't already have enough slots.
+     * @param size The number of slots to use.
+     */
+    public void reset(int size) {
+        if (slots.length < size) {
+            slots = new AbstractObject[size];
+        }
+        else {
+            Arrays.fill(slots, 0, Math.max(this.size, size), null);
+        }
+        this.size = size;
+    }
+}
@@ -0,0 +1,169 @@
+package com.gmail.vangnamngo.scriptlangtest.command;
+
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Collects command invocations from many scripts and executes the invocations of each kind of command together, once
+ * per tick. Only commands with a registered {@link BatchHandler} are batched; every other command is executed as soon
+ * as it is submitted.
+ *
+ * <p>A tick either happens on a fixed schedule or whenever {@link #flush()} is called.</p>
+ */
+public class CommandBatcher implements AutoCloseable {
+
+    /**
+     * Executes many invocations of a single kind of command in one bulk call.
+     * @param <C> The kind of command this handler executes.
+     */
+    public interface BatchHandler<C extends AbstractCommand> {
+        /**
+         * Executes a batch of invocations. The n-th command was submitted with the n-th context.
+         * @param commands The commands to execute.
+         * @param contexts The contexts to execute each command in.
+         * @return A future which is completed once every invocation has finished.
+         */
+        CompletableFuture<Void> executeAll(List<C> commands, List<ScriptContext> contexts);
+    }
+
+    private final Map<Class<?>, BatchHandler<?>> handlers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Batch> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * Creates a batcher which only ticks when {@link #flush()} is called.
+     */
+    public CommandBatcher() {
+        this.ticker = null;
+    }
+
+    /**
+     * Creates a batcher which ticks on a fixed schedule.
+     * @param tickMillis The time between ticks, in milliseconds.
+     */
+    public CommandBatcher(long tickMillis) {
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CommandBatcher-tick");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::flush, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers the handler which executes batches of a kind of command. Replaces any handler previously registered
+     * for it.
+     * @param type The class of the command.
+     * @param handler The handler to execute batches with.
+     */
+    public <C extends AbstractCommand> void register(Class<C> type, BatchHandler<? super C> handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * Submits a command invocation. If its kind of command has a handler, the invocation will be executed with the
+     * others of the same kind on the next tick. Otherwise, it is executed right away with
+     * {@link AbstractCommand#executeAsync(ScriptContext)}.
+     * @param command The command to execute.
+     * @param context The context to execute the command in.
+     * @return A future which is completed once the command has been executed.
+     */
+    public CompletableFuture<Void> submit(AbstractCommand command, ScriptContext context) {
+        if (!handles(command)) {
+            return command.executeAsync(context);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pending.compute(command.getClass(), (k, batch) -> {
+            Batch b = batch != null ? batch : new Batch();
+            b.commands.add(command);
+            b.contexts.add(context);
+            b.futures.add(future);
+            return b;
+        });
+        return future;
+    }
+
+    /**
+     * Submits an invocation made through a compiled call site. The arguments are processed on a
+     * {@linkplain AbstractCommand#newInvocation() copy} of the command, which is then submitted as with
+     * {@link #submit(AbstractCommand, ScriptContext)}. Commands without a handler are executed right away with
+     * {@link AbstractCommand#invokeAsync(ScriptContext, ArgumentFrame)}. The frame may be reused as soon as this
+     * method returns.
+     * @param command The command to execute.
+     * @param context The context to execute the command in.
+     * @param args The arguments, ordered by the signature of the command.
+     * @return A future which is completed with false if the arguments were not accepted, or with true once the
+     *         command has been executed.
+     */
+    public CompletableFuture<Boolean> submit(AbstractCommand command, ScriptContext context, ArgumentFrame args) {
+        if (!handles(command)) {
+            return command.invokeAsync(context, args);
+        }
+        AbstractCommand invocation = command.prepareInvocation(context, args);
+        if (invocation == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return submit(invocation, context).thenApply(v -> true);
+    }
+
+    /**
+     * @param command The command to check.
+     * @return True if the command is executed in batches, false if it is executed as soon as it is submitted.
+     */
+    public boolean handles(AbstractCommand command) {
+        return handlers.containsKey(command.getClass());
+    }
+
+    /**
+     * Ends the current tick, executing every pending batch.
+     */
+    @SuppressWarnings("unchecked")
+    public void flush() {
+        for (Class<?> type : pending.keySet()) {
+            Batch batch = pending.remove(type);
+            if (batch == null) {
+                continue;
+            }
+            BatchHandler<AbstractCommand> handler = (BatchHandler<AbstractCommand>) handlers.get(type);
+            CompletableFuture<Void> result;
+            try {
+                result = handler.executeAll(batch.commands, batch.contexts);
+            }
+            catch (Throwable e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+            result.whenComplete((v, e) -> {
+                for (CompletableFuture<Void> f : batch.futures) {
+                    if (e != null) {
+                        f.completeExceptionally(e);
+                    }
+                    else {
+                        f.complete(null);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Flushes any pending batches and stops ticking.
+     */
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdown();
+        }
+        flush();
+    }
+
+    private final static class Batch {
+        private final List<AbstractCommand> commands = new ArrayList<>();
+        private final List<ScriptContext> contexts = new ArrayList<>();
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    }
+}
@@ -2,24 +2,56 @@ package com.gmail.vangnamngo.scriptlangtest.command;
 
 import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
 
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Controls extra data for commands.
- * <p>Objects created from this class shouldn't persist for any longer than is required to execute a command.</p>
+ * <p>Objects created from this class shouldn't persist for any longer than is required to execute a command, though
+ * they can be reused for another execution after {@link #clear()}.</p>
+ *
+ * <p>Flags and extra data are addressed by the indices of a {@link CommandDataLayout}. The methods that take names
+ * look the index up first, so the index-based methods should be preferred wherever speed matters.</p>
  */
 public class CommandData {
 
-    private Map<String, Boolean> flags;
-    private Map<String, AbstractObject> data;
+    public final CommandDataLayout layout;
+
+    // A flag is set if its bit is set in flagsSet, and its value is the same bit in flags.
+    private long flagsSet = 0L;
+    private long flags = 0L;
+    private final AbstractObject[] data;
+
+    public CommandData(CommandDataLayout layout) {
+        this.layout = layout;
+        this.data = new AbstractObject[layout.dataCount()];
+    }
 
     /**
      * Fetches a boolean flag.
      * @param flag The name of the flag.
-     * @return The boolean value of the flag.
+     * @return The boolean value of the flag, or null if the flag is not set.
      */
     public Boolean getFlag(String flag) {
-        return flags.get(flag);
+        int i = layout.flagIndex(flag);
+        return hasFlag(i) ? getFlag(i) : null;
+    }
+
+    /**
+     * Fetches a boolean flag.
+     * @param flag The index of the flag.
+     * @return The boolean value of the flag, or false if the flag is not set.
+     */
+    public boolean getFlag(int flag) {
+        return (flags & (1L << flag)) != 0;
+    }
+
+    /**
+     * Checks if a boolean flag is set.
+     * @param flag The index of the flag.
+     * @return True if the flag has been set to either value, false otherwise.
+     */
+    public boolean hasFlag(int flag) {
+        return (flagsSet & (1L << flag)) != 0;
     }
 
     /**
@@ -28,7 +60,18 @@ public class CommandData {
      * @param state The boolean value to assign to the flag.
      */
     public void setFlag(String flag, boolean state) {
-        flags.put(flag, state);
+        setFlag(layout.flagIndex(flag), state);
+    }
+
+    /**
+     * Sets a boolean flag.
+     * @param flag The index of the flag.
+     * @param state The boolean value to assign to the flag.
+     */
+    public void setFlag(int flag, boolean state) {
+        long bit = 1L << flag;
+        flagsSet |= bit;
+        flags = state ? (flags | bit) : (flags & ~bit);
     }
 
     /**
@@ -36,7 +79,17 @@ public class CommandData {
      * @param flag The name of the flag.
      */
     public void removeFlag(String flag) {
-        flags.remove(flag);
+        removeFlag(layout.flagIndex(flag));
+    }
+
+    /**
+     * Removes a boolean flag.
+     * @param flag The index of the flag.
+     */
+    public void removeFlag(int flag) {
+        long mask = ~(1L << flag);
+        flagsSet &= mask;
+        flags &= mask;
     }
 
     /**
@@ -45,7 +98,16 @@ public class CommandData {
      * @return The {@link AbstractObject} assigned to this flag.
      */
     public AbstractObject getExtraData(String name) {
-        return data.get(name);
+        return data[layout.dataIndex(name)];
+    }
+
+    /**
+     * Fetches any extra data assign to a flag.
+     * @param index The index of the flag.
+     * @return The {@link AbstractObject} assigned to this flag.
+     */
+    public AbstractObject getExtraData(int index) {
+        return data[index];
     }
 
     /**
@@ -54,7 +116,16 @@ public class CommandData {
      * @param obj The {@link AbstractObject} to assign to this flag.
      */
     public void setExtraData(String name, AbstractObject obj) {
-        data.put(name, obj);
+        data[layout.dataIndex(name)] = obj;
+    }
+
+    /**
+     * Sets extra data to a flag.
+     * @param index The index of the flag.
+     * @param obj The {@link AbstractObject} to assign to this flag.
+     */
+    public void setExtraData(int index, AbstractObject obj) {
+        data[index] = obj;
     }
 
     /**
@@ -62,6 +133,23 @@ public class CommandData {
      * @param name The name of the flag.
      */
     public void deleteExtraData(String name) {
-        data.remove(name);
+        data[layout.dataIndex(name)] = null;
+    }
+
+    /**
+     * Deletes a flag with extra data.
+     * @param index The index of the flag.
+     */
+    public void deleteExtraData(int index) {
+        data[index] = null;
+    }
+
+    /**
+     * Removes every flag and all extra data, so that this object can be reused.
+     */
+    public void clear() {
+        flagsSet = 0L;
+        flags = 0L;
+        Arrays.fill(data, null);
     }
 }
@@ -0,0 +1,86 @@
+package com.gmail.vangnamngo.scriptlangtest.command;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The flags and extra data a kind of command may use, each given a fixed index. A layout should be created once per
+ * command type, and its indices looked up once and kept in constants, so that {@link CommandData} never has to hash
+ * a name while a command is executing.
+ */
+public final class CommandDataLayout {
+
+    /**
+     * The maximum number of flags a layout can have.
+     */
+    public final static int MAX_FLAGS = 64;
+
+    private final String[] flagNames;
+    private final String[] dataNames;
+    private final Map<String, Integer> flagIndices = new HashMap<>();
+    private final Map<String, Integer> dataIndices = new HashMap<>();
+
+    /**
+     * @param flagNames The names of the boolean flags. At most {@link #MAX_FLAGS} are allowed.
+     * @param dataNames The names of the extra data entries.
+     */
+    public CommandDataLayout(String[] flagNames, String[] dataNames) {
+        if (flagNames.length > MAX_FLAGS) {
+            throw new IllegalArgumentException("A command can have at most " + MAX_FLAGS + " flags");
+        }
+        this.flagNames = flagNames.clone();
+        this.dataNames = dataNames.clone();
+        for (int i = 0; i < flagNames.length; i++) {
+            if (flagIndices.put(flagNames[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate flag \"" + flagNames[i] + "\"");
+            }
+        }
+        for (int i = 0; i < dataNames.length; i++) {
+            if (dataIndices.put(dataNames[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate extra data \"" + dataNames[i] + "\"");
+            }
+        }
+    }
+
+    /**
+     * @param flag The name of a flag.
+     * @return The index of the flag.
+     * @throws IllegalArgumentException If the flag is not part of this layout.
+     */
+    public int flagIndex(String flag) {
+        Integer i = flagIndices.get(flag);
+        if (i == null) {
+            throw new IllegalArgumentException("Unknown flag \"" + flag + "\"");
+        }
+        return i;
+    }
+
+    /**
+     * @param name The name of an extra data entry.
+     * @return The index of the entry.
+     * @throws IllegalArgumentException If the entry is not part of this layout.
+     */
+    public int dataIndex(String name) {
+        Integer i = dataIndices.get(name);
+        if (i == null) {
+            throw new IllegalArgumentException("Unknown extra data \"" + name + "\"");
+        }
+        return i;
+    }
+
+    public String flagName(int index) {
+        return flagNames[index];
+    }
+
+    public String dataName(int index) {
+        return dataNames[index];
+    }
+
+    public int flagCount() {
+        return flagNames.length;
+    }
+
+    public int dataCount() {
+        return dataNames.length;
+    }
+}
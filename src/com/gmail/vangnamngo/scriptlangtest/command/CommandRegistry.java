@@ -0,0 +1,179 @@
+package com.gmail.vangnamngo.scriptlangtest.command;
+
+import com.gmail.vangnamngo.scriptlangtest.command.builtin.EchoCommand;
+import com.gmail.vangnamngo.scriptlangtest.command.builtin.EchoLineCommand;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+
+import java.lang.invoke.SwitchPoint;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps command identifiers to their {@link AbstractCommand} implementations.
+ *
+ * <p>Each identifier is given a symbol ID the first time it is seen. Compiled scripts should resolve identifiers to
+ * {@link CommandCallSite}s once, using {@link #bind(String)}. A call site keeps calling the command it last saw until
+ * the command is registered or replaced, at which point every call site bound to that identifier fetches the new
+ * command on its next call.</p>
+ */
+public class CommandRegistry {
+
+    private final Map<String, Integer> symbols = new ConcurrentHashMap<>();
+    private volatile Entry[] entries = new Entry[16];
+    private int symbolCount = 0;
+
+    /**
+     * Creates a registry with the built-in commands already registered.
+     * @return A new registry.
+     */
+    public static CommandRegistry withBuiltins() {
+        CommandRegistry registry = new CommandRegistry();
+        registry.register("echo", new EchoCommand());
+        registry.register("echoln", new EchoLineCommand());
+        return registry;
+    }
+
+    /**
+     * Registers a command, replacing any command already registered under the same identifier. Call sites bound to
+     * the identifier will use the new command from their next call onwards. A replacement should accept the same
+     * {@link CommandSignature} as the command it replaces.
+     * @param name The identifier scripts use to call the command.
+     * @param command The command.
+     * @return The command that was replaced, or null if there was none.
+     */
+    public synchronized AbstractCommand register(String name, AbstractCommand command) {
+        Entry entry = entries[symbolOf(name)];
+        AbstractCommand old;
+        SwitchPoint oldSwitch;
+        synchronized (entry) {
+            old = entry.command;
+            oldSwitch = entry.switchPoint;
+            entry.command = command;
+            entry.switchPoint = new SwitchPoint();
+        }
+        SwitchPoint.invalidateAll(new SwitchPoint[] { oldSwitch });
+        return old;
+    }
+
+    /**
+     * Fetches the command registered under an identifier.
+     * @param name The identifier of the command.
+     * @return The command, or null if there is none.
+     */
+    public AbstractCommand get(String name) {
+        Integer symbol = symbols.get(name);
+        return symbol == null ? null : entries[symbol].command;
+    }
+
+    /**
+     * Fetches the symbol ID of an identifier, creating one if it hasn't been seen before.
+     * @param name The identifier.
+     * @return The symbol ID.
+     */
+    public int symbolOf(String name) {
+        Integer symbol = symbols.get(name);
+        if (symbol != null) {
+            return symbol;
+        }
+        synchronized (this) {
+            symbol = symbols.get(name);
+            if (symbol != null) {
+                return symbol;
+            }
+            if (symbolCount == entries.length) {
+                entries = Arrays.copyOf(entries, symbolCount * 2);
+            }
+            entries[symbolCount] = new Entry(name);
+            symbols.put(name, symbolCount);
+            return symbolCount++;
+        }
+    }
+
+    /**
+     * Binds a call site to an identifier. The identifier doesn't need to have a command registered yet, but calling
+     * the call site before one is registered will fail.
+     * @param name The identifier of the command.
+     * @return The bound call site.
+     */
+    public CommandCallSite bind(String name) {
+        return new CommandCallSite(entries[symbolOf(name)]);
+    }
+
+    private final static class Entry {
+        private final String name;
+        private volatile AbstractCommand command = null;
+        private volatile SwitchPoint switchPoint = new SwitchPoint();
+
+        private Entry(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A compiled call to a command. The call site holds onto the command it last fetched from the registry, along with
+     * the {@link SwitchPoint} that is invalidated when the command is replaced, so each call costs a single volatile
+     * read and a virtual call to {@link AbstractCommand#invoke(ScriptContext, ArgumentFrame)}.
+     */
+    public final static class CommandCallSite {
+        private final Entry entry;
+        private volatile Link link;
+
+        private CommandCallSite(Entry entry) {
+            this.entry = entry;
+            this.link = Link.of(entry);
+        }
+
+        /**
+         * @return The identifier this call site is bound to.
+         */
+        public String getName() {
+            return entry.name;
+        }
+
+        /**
+         * Fetches the command to call, which is only looked up again once the registered command has changed.
+         * @return The command this call site currently calls, or null if none is registered.
+         */
+        public AbstractCommand getCommand() {
+            Link l = link;
+            if (l.switchPoint.hasBeenInvalidated()) {
+                l = Link.of(entry);
+                link = l;
+            }
+            return l.command;
+        }
+
+        /**
+         * Calls the command.
+         * @param context The context to execute the command in.
+         * @param args The arguments, ordered by the signature of the command.
+         * @return False if the command did not accept the arguments, true otherwise.
+         * @throws IllegalStateException If no command is registered.
+         */
+        public boolean invoke(ScriptContext context, ArgumentFrame args) {
+            AbstractCommand command = getCommand();
+            if (command == null) {
+                throw new IllegalStateException("Unknown command \"" + entry.name + "\"");
+            }
+            return command.invoke(context, args);
+        }
+    }
+
+    // A command together with the switch point that guards it, so that both can be replaced at once.
+    private final static class Link {
+        private final AbstractCommand command;
+        private final SwitchPoint switchPoint;
+
+        private Link(AbstractCommand command, SwitchPoint switchPoint) {
+            this.command = command;
+            this.switchPoint = switchPoint;
+        }
+
+        private static Link of(Entry entry) {
+            synchronized (entry) {
+                return new Link(entry.command, entry.switchPoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.gmail.vangnamngo.scriptlangtest.command;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ordered list of arguments a command accepts. Each argument name is given a positional slot, which is used to
+ * resolve named arguments once when a call is compiled rather than every time it is executed.
+ */
+public final class CommandSignature {
+
+    private final String[] names;
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * @param names The names of the arguments, in positional order.
+     */
+    public CommandSignature(String... names) {
+        this.names = Arrays.copyOf(names, names.length);
+        for (int i = 0; i < names.length; i++) {
+            if (slots.put(names[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate argument name \"" + names[i] + "\"");
+            }
+        }
+    }
+
+    /**
+     * Fetches the slot of an argument.
+     * @param name The name of the argument.
+     * @return The slot of the argument, or -1 if there is no argument with that name.
+     */
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @param slot The slot of an argument.
+     * @return The name of the argument in that slot.
+     */
+    public String nameOf(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return The number of arguments.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return The names of the arguments, in positional order.
+     */
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,182 @@
+package com.gmail.vangnamngo.scriptlangtest.command;
+
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+
+/**
+ * A call site which has been bound to a command ahead of time. Argument names are resolved to slots, and the number of
+ * arguments is checked against the command's signature, when the call site is created, so invoking it does not need to
+ * look anything up or allocate a map. The command is called through a {@link CommandRegistry.CommandCallSite}, so a
+ * call site keeps working when its command is replaced by one with the same signature.
+ */
+public final class CompiledInvocation {
+
+    // Each thread reuses a single frame, since a command may never hold onto its frame once it returns.
+    private final static ThreadLocal<ArgumentFrame> FRAMES = ThreadLocal.withInitial(() -> new ArgumentFrame(8));
+
+    private final CommandRegistry.CommandCallSite site;
+    private final int[] slots;
+    private final int frameSize;
+
+    private CompiledInvocation(CommandRegistry.CommandCallSite site, int[] slots, int frameSize) {
+        this.site = site;
+        this.slots = slots;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Binds a call site whose arguments are passed in positional order. Commands without a signature accept any
+     * number of arguments.
+     * @param site The call site of the command to call.
+     * @param argCount The number of arguments passed at the call site.
+     * @return The bound call site.
+     * @throws IllegalArgumentException If no command is registered, or it doesn't accept that many arguments.
+     */
+    public static CompiledInvocation bindPositional(CommandRegistry.CommandCallSite site, int argCount) {
+        CommandSignature signature = requireCommand(site).getSignature();
+        if (signature != null && argCount > signature.size()) {
+            throw new IllegalArgumentException("Too many arguments for \"" + site.getName() + "\": expected at most "
+                    + signature.size() + ", got " + argCount);
+        }
+        int[] slots = new int[argCount];
+        for (int i = 0; i < argCount; i++) {
+            slots[i] = i;
+        }
+        return new CompiledInvocation(site, slots, signature != null ? signature.size() : argCount);
+    }
+
+    /**
+     * Binds a call site whose arguments are passed by name.
+     * @param site The call site of the command to call.
+     * @param argNames The names of the arguments, in the order they are passed at the call site.
+     * @return The bound call site.
+     * @throws IllegalArgumentException If no command is registered, or it has no signature or doesn't accept one of
+     *                                  the names.
+     */
+    public static CompiledInvocation bindNamed(CommandRegistry.CommandCallSite site, String... argNames) {
+        CommandSignature signature = requireCommand(site).getSignature();
+        if (signature == null) {
+            throw new IllegalArgumentException("\"" + site.getName() + "\" has no signature");
+        }
+        int[] slots = new int[argNames.length];
+        for (int i = 0; i < argNames.length; i++) {
+            slots[i] = signature.slotOf(argNames[i]);
+            if (slots[i] < 0) {
+                throw new IllegalArgumentException("Unknown argument \"" + argNames[i] + "\" for \"" + site.getName()
+                        + "\"");
+            }
+        }
+        return new CompiledInvocation(site, slots, signature.size());
+    }
+
+    /**
+     * @return The identifier of the command this call site is bound to.
+     */
+    public String getName() {
+        return site.getName();
+    }
+
+    /**
+     * @return The command this call site currently calls, or null if none is registered.
+     */
+    public AbstractCommand getCommand() {
+        return site.getCommand();
+    }
+
+    /**
+     * @return The number of arguments passed at this call site.
+     */
+    public int getArgumentCount() {
+        return slots.length;
+    }
+
+    /**
+     * Invokes the command with a single argument.
+     * @throws IllegalArgumentException If this call site was not bound with exactly one argument.
+     * @see #invoke(ScriptContext, AbstractObject...)
+     */
+    public boolean invoke(ScriptContext context, AbstractObject arg) {
+        checkArgumentCount(1);
+        ArgumentFrame frame = acquireFrame();
+        try {
+            setArgument(frame, 0, arg);
+            return site.invoke(context, frame);
+        }
+        finally {
+            releaseFrame(frame);
+        }
+    }
+
+    /**
+     * Invokes the command.
+     * @param context The context to invoke the command in.
+     * @param args The arguments, in the order they were bound.
+     * @return False if the command did not accept the arguments, true otherwise.
+     * @throws IllegalArgumentException If the number of arguments differs from the number this call site was bound
+     *                                  with.
+     */
+    public boolean invoke(ScriptContext context, AbstractObject... args) {
+        checkArgumentCount(args.length);
+        ArgumentFrame frame = acquireFrame();
+        try {
+            for (int i = 0; i < slots.length; i++) {
+                setArgument(frame, i, args[i]);
+            }
+            return site.invoke(context, frame);
+        }
+        finally {
+            releaseFrame(frame);
+        }
+    }
+
+    /**
+     * Fetches an empty frame for a single invocation through this call site, for callers that need to call the
+     * command in some other way, such as asynchronously. The frame must be passed to {@link #releaseFrame(
+     * ArgumentFrame)} once the command has been called.
+     * @return A frame with a slot for every argument of the command.
+     */
+    public ArgumentFrame acquireFrame() {
+        ArgumentFrame frame = FRAMES.get();
+        // A command which invokes another command would otherwise overwrite its own frame.
+        if (frame.inUse) {
+            frame = new ArgumentFrame(frameSize);
+        }
+        frame.reset(frameSize);
+        frame.inUse = true;
+        return frame;
+    }
+
+    /**
+     * Places an argument into the slot it was bound to.
+     * @param frame A frame from {@link #acquireFrame()}.
+     * @param index The index of the argument at the call site.
+     * @param arg The argument.
+     */
+    public void setArgument(ArgumentFrame frame, int index, AbstractObject arg) {
+        frame.set(slots[index], arg);
+    }
+
+    /**
+     * Clears a frame from {@link #acquireFrame()}, so that it can be reused by the next invocation.
+     * @param frame The frame.
+     */
+    public void releaseFrame(ArgumentFrame frame) {
+        frame.reset(0);
+        frame.inUse = false;
+    }
+
+    private void checkArgumentCount(int count) {
+        if (count != slots.length) {
+            throw new IllegalArgumentException("Wrong number of arguments: expected " + slots.length + ", got "
+                    + count);
+        }
+    }
+
+    private static AbstractCommand requireCommand(CommandRegistry.CommandCallSite site) {
+        AbstractCommand command = site.getCommand();
+        if (command == null) {
+            throw new IllegalArgumentException("Unknown command \"" + site.getName() + "\"");
+        }
+        return command;
+    }
+}
@@ -0,0 +1,55 @@
+package com.gmail.vangnamngo.scriptlangtest.command.builtin;
+
+import com.gmail.vangnamngo.scriptlangtest.command.AbstractCommand;
+import com.gmail.vangnamngo.scriptlangtest.command.ArgumentFrame;
+import com.gmail.vangnamngo.scriptlangtest.command.CommandSignature;
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+
+import java.util.Map;
+
+/**
+ * The built-in {@code echo} command, which prints a message as-is.
+ */
+public class EchoCommand extends AbstractCommand {
+
+    private final static CommandSignature SIGNATURE = new CommandSignature("message");
+
+    @Override
+    public CommandSignature getSignature() {
+        return SIGNATURE;
+    }
+
+    @Override
+    public boolean processArguments(ScriptContext context, Map<String, AbstractObject> args) {
+        if (!args.containsKey("message")) {
+            return false;
+        }
+        processedArgs = args;
+        return true;
+    }
+
+    @Override
+    public void execute(ScriptContext context) {
+        print(context, processedArgs.get("message"));
+    }
+
+    @Override
+    public boolean invoke(ScriptContext context, ArgumentFrame args) {
+        AbstractObject message = args.get(0);
+        if (message == null) {
+            return false;
+        }
+        print(context, message);
+        return true;
+    }
+
+    /**
+     * Prints a message.
+     * @param context The context the command is executed in.
+     * @param message The message to print.
+     */
+    protected void print(ScriptContext context, AbstractObject message) {
+        context.runtime.getOutput().write(message.toString());
+    }
+}
@@ -0,0 +1,15 @@
+package com.gmail.vangnamngo.scriptlangtest.command.builtin;
+
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+
+/**
+ * The built-in {@code echoln} command, which prints a message followed by a new line.
+ */
+public class EchoLineCommand extends EchoCommand {
+
+    @Override
+    protected void print(ScriptContext context, AbstractObject message) {
+        context.runtime.getOutput().writeLine(message.toString());
+    }
+}
@@ -1,17 +1,31 @@
 package com.gmail.vangnamngo.scriptlangtest.corrections;
 
 import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import com.gmail.vangnamngo.scriptlangtest.utility.WeakIdentityMap;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * An all-in-one class meant to be able to repair any ScriptLangTest object that may require repairs.
  */
 public class Corrector {
 
-    private final static HashMap<ScriptContext, InvalidScriptContext> INVALID_SCRIPT_CONTEXTS = new HashMap<>();
+    private final ScriptRuntime runtime;
+
+    // Weakly held so that invalid contexts which are never repaired can still be garbage collected.
+    private final WeakIdentityMap<ScriptContext, InvalidScriptContext> invalidScriptContexts = new WeakIdentityMap<>();
+
+    /**
+     * Creates a corrector for a runtime. Every {@link ScriptRuntime} already owns one, which can be fetched with
+     * {@link ScriptRuntime#getCorrector()}.
+     * @param runtime The runtime whose objects will be verified.
+     */
+    public Corrector(ScriptRuntime runtime) {
+        this.runtime = runtime;
+    }
 
     /**
      * Returns whether the provided {@link ScriptContext} object was seen as invalid by a lone execution of
@@ -20,8 +34,8 @@ public class Corrector {
      * @param context The ScriptContext object to check.
      * @return Whether the provided ScriptContext object is registered as invalid.
      */
-    public static boolean wasScriptContextSeenAsInvalid(ScriptContext context) {
-        return INVALID_SCRIPT_CONTEXTS.containsKey(context);
+    public boolean wasScriptContextSeenAsInvalid(ScriptContext context) {
+        return invalidScriptContexts.containsKey(context);
     }
 
     /**
@@ -32,8 +46,8 @@ public class Corrector {
      * @return A {@link InvalidScriptContext} object detailing why the provided ScriptContext object was seen as
      *         invalid, or null if the ScriptContext object isn't registered as invalid.
      */
-    public static InvalidScriptContext getInvalidityDataOnScriptContext(ScriptContext context) {
-        return INVALID_SCRIPT_CONTEXTS.get(context);
+    public InvalidScriptContext getInvalidityDataOnScriptContext(ScriptContext context) {
+        return invalidScriptContexts.get(context);
     }
 
     /**
@@ -42,119 +56,177 @@ public class Corrector {
      *     <li>no variable name is set to null;</li>
      *     <li>no variable value is set to null;</li>
      *     <li>there is no circular parent chain; and</li>
-     *     <li>the final parent context is {@link ScriptContext#GLOBAL}.</li>
+     *     <li>the final parent context is the global context of the runtime.</li>
      * </ul>
      * This method does not test the parents of the provided {@link ScriptContext} object.
      *
      * <p>This method also caches which {@link ScriptContext} objects are invalid.</p>
+     * @see #verifyAllScriptContexts()
      * @see #repairScriptContext(ScriptContext)
      * @see #repairAllInvalidScriptContexts()
      * @param context The ScriptContext to verify.
      * @return True if the ScriptContext object is valid, false otherwise.
      */
-    public static boolean verifyScriptContext(ScriptContext context) {
-        Set<String> varSet = context.getLocalVariables();
-
-        // Test to see if there are any null variable names
-        boolean hasNullVarName = false;
-        HashSet<String> nullVarNames = null;
-        if (varSet.contains(null)) {
-            hasNullVarName = true;
-        }
-
-        // Test to see if there are any null variable values
-        boolean hasNullVarVal = false;
-        HashSet<String> nullVars = null;
-        for (String varName : varSet) {
-            if (context.getVariable(varName) == null) {
-                hasNullVarVal = true;
-                if (nullVars == null) {
-                    nullVars = new HashSet<>();
-                }
-                nullVars.add(varName);
-            }
-        }
-
-        // Test to see if there are any circular parents.
+    public boolean verifyScriptContext(ScriptContext context) {
+        // Test to see if there are any circular parents. The hare moves two parents at a time so that a loop further
+        // up the chain which doesn't include this context will still end the search.
         boolean hasCircParent = false;
         ScriptContext cc = context;
+        ScriptContext hare = context;
         while (cc.getParent() != null) {
             if (cc.getParent() == context) {
                 hasCircParent = true;
                 break;
             }
             cc = cc.getParent();
+            if (hare != null && hare.getParent() != null) {
+                hare = hare.getParent().getParent();
+                if (hare == cc) {
+                    break;
+                }
+            }
         }
 
         // See if the last context in the previous loop is the global script context
-        boolean finalParentIsBad = (cc != ScriptContext.GLOBAL);
-
-        if (hasNullVarName || hasNullVarVal || hasCircParent || finalParentIsBad) {
-            boolean fHCP = hasCircParent;
-            boolean fHNVN = hasNullVarName;
-            boolean fHNVV = hasNullVarVal;
-            HashSet<String> fNVSet = nullVars;
-            boolean fFPIV = finalParentIsBad;
-            ScriptContext fCC = cc;
-            INVALID_SCRIPT_CONTEXTS.put(context, new InvalidScriptContext() {
-                @Override
-                public boolean hasCircularParentChain() {
-                    return fHCP;
-                }
+        return record(context, hasCircParent, cc);
+    }
 
-                @Override
-                public boolean hasNullVariableNames() {
-                    return fHNVN;
-                }
+    /**
+     * Verifies every live {@link ScriptContext} object at once.
+     * @see #verifyScriptContexts(Collection)
+     * @return The number of invalid ScriptContext objects found.
+     */
+    public int verifyAllScriptContexts() {
+        return verifyScriptContexts(runtime.getLiveContexts());
+    }
 
-                @Override
-                public boolean hasNullVariableValues() {
-                    return fHNVV;
-                }
+    /**
+     * Verifies the provided {@link ScriptContext} objects and all of their parents, using the same terms of validity
+     * as {@link #verifyScriptContext(ScriptContext)}. Unlike calling that method on each ScriptContext object, each
+     * parent chain is only walked once, so the whole set is verified in time proportional to its size. The subtrees
+     * under the global context of the runtime are verified in parallel.
+     *
+     * <p>ScriptContext objects that are found to be valid are removed from the cache of invalid objects.</p>
+     * @param contexts The ScriptContext objects to verify.
+     * @return The number of invalid ScriptContext objects found.
+     */
+    public int verifyScriptContexts(Collection<ScriptContext> contexts) {
+        ScriptContext global = runtime.getGlobalContext();
 
-                @Override
-                public HashSet<String> nullVariableValues() {
-                    return fNVSet;
+        // Build the child lists of the whole forest, including any parents that weren't provided.
+        Map<ScriptContext, List<ScriptContext>> children = new IdentityHashMap<>();
+        Set<ScriptContext> seen = Collections.newSetFromMap(new IdentityHashMap<ScriptContext, Boolean>());
+        for (ScriptContext c : contexts) {
+            ScriptContext cc = c;
+            while (cc != null && cc != global && seen.add(cc)) {
+                ScriptContext parent = cc.getParent();
+                if (parent != null) {
+                    children.computeIfAbsent(parent, k -> new ArrayList<>()).add(cc);
                 }
+                cc = parent;
+            }
+        }
 
-                @Override
-                public boolean finalParentIsBad() {
-                    return fFPIV;
+        // Every context reachable from the global context has a valid parent chain. Its subtrees share no contexts, so they can be
+        // walked independently of each other.
+        List<ScriptContext> roots = children.getOrDefault(global, Collections.<ScriptContext>emptyList());
+        AtomicInteger invalidCount = new AtomicInteger();
+        List<List<ScriptContext>> reached = roots.parallelStream().map(root -> {
+            List<ScriptContext> subtree = new ArrayList<>();
+            subtree.add(root);
+            for (int i = 0; i < subtree.size(); i++) {
+                ScriptContext c = subtree.get(i);
+                if (!record(c, false, global)) {
+                    invalidCount.incrementAndGet();
+                }
+                List<ScriptContext> next = children.get(c);
+                if (next != null) {
+                    subtree.addAll(next);
                 }
+            }
+            return subtree;
+        }).collect(Collectors.toList());
+        int invalid = invalidCount.get();
 
-                @Override
-                public ScriptContext finalParent() {
-                    return fCC;
+        // Anything left over either ends in a loop or doesn't end with the global context.
+        Map<ScriptContext, ScriptContext> finalParents = new IdentityHashMap<>();
+        for (List<ScriptContext> subtree : reached) {
+            for (ScriptContext c : subtree) {
+                finalParents.put(c, global);
+            }
+        }
+        List<ScriptContext> path = new ArrayList<>();
+        Map<ScriptContext, Integer> onPath = new IdentityHashMap<>();
+        for (ScriptContext c : seen) {
+            if (finalParents.containsKey(c)) {
+                continue;
+            }
+            path.clear();
+            ScriptContext cc = c;
+            ScriptContext end;
+            while (true) {
+                ScriptContext known = finalParents.get(cc);
+                if (known != null) {
+                    end = known;
+                    break;
                 }
-            });
-            return false;
+                Integer loopStart = onPath.get(cc);
+                if (loopStart != null) {
+                    // Every context in the loop is circular. Its final parent is the one which points back to it.
+                    for (int i = loopStart; i < path.size(); i++) {
+                        ScriptContext member = path.get(i);
+                        ScriptContext last = path.get(i == loopStart ? path.size() - 1 : i - 1);
+                        finalParents.put(member, last);
+                        record(member, true, last);
+                        onPath.remove(member);
+                        invalid++;
+                    }
+                    end = cc;
+                    path.subList(loopStart, path.size()).clear();
+                    break;
+                }
+                onPath.put(cc, path.size());
+                path.add(cc);
+                if (cc.getParent() == null) {
+                    end = cc;
+                    break;
+                }
+                cc = cc.getParent();
+            }
+            for (ScriptContext p : path) {
+                onPath.remove(p);
+                finalParents.put(p, end);
+                if (!record(p, false, end)) {
+                    invalid++;
+                }
+            }
         }
-        return true;
+        return invalid;
     }
 
     /**
      * Attempts to repair a ScriptContext object by performing the following actions:
      * <ul>
      *     <li>delete any variable with a null name;</li>
-     *     <li>replace any null variable value with {@link com.gmail.vangnamngo.scriptlangtest.Main#NULL_OBJ};</li>
+     *     <li>replace any null variable value with the null object of the runtime;</li>
      *     <li>if a circular parent chain exists, arbitrarily use {@link ScriptContext#orphan()}; and</li>
-     *     <li>if the final parent is not {@link ScriptContext#GLOBAL}, set the final parent to
-     *         {@link ScriptContext#GLOBAL}.</li>
+     *     <li>if the final parent is not the global context of the runtime, set the final parent to that global
+     *         context.</li>
      * </ul>
      * If {@link #verifyScriptContext(ScriptContext)} has not been used yet, it will be run first to determine if the
      * provided {@link ScriptContext} object requires repairs. This method will not attempt to fix the parents of this
      * ScriptContext.
      * @param context The ScriptContext object to repair.
      */
-    public static void repairScriptContext(ScriptContext context) {
-        InvalidScriptContext isc = INVALID_SCRIPT_CONTEXTS.get(context);
+    public void repairScriptContext(ScriptContext context) {
+        InvalidScriptContext isc = invalidScriptContexts.get(context);
 
         // If a verification hasn't been done beforehand, do so now.
         if (isc == null) {
             if (verifyScriptContext(context)) {
                 return;
             }
-            isc = INVALID_SCRIPT_CONTEXTS.get(context);
+            isc = invalidScriptContexts.get(context);
         }
 
         // Begin attempts at repairs.
@@ -173,18 +245,105 @@ public class Corrector {
             }
         }
 
-        INVALID_SCRIPT_CONTEXTS.remove(context);
+        invalidScriptContexts.remove(context);
+        if (runtime.getMetrics().isEnabled()) {
+            runtime.getMetrics().recordRepair();
+        }
     }
 
     /**
      * Repairs all invalid {@link ScriptContext} objects cached by {@link #verifyScriptContext(ScriptContext)}.
      */
-    public static void repairAllInvalidScriptContexts() {
-        for (ScriptContext c : INVALID_SCRIPT_CONTEXTS.keySet()) {
+    public void repairAllInvalidScriptContexts() {
+        for (ScriptContext c : invalidScriptContexts.keys()) {
             repairScriptContext(c);
         }
     }
 
+    /**
+     * Forgets every cached invalid {@link ScriptContext} object without repairing it.
+     */
+    public void clear() {
+        invalidScriptContexts.clear();
+    }
+
+    // Checks the variables of a context and caches the context if it turns out to be invalid. The parent chain must
+    // already have been walked by the caller.
+    private boolean record(ScriptContext context, boolean hasCircParent, ScriptContext finalParent) {
+        Set<String> varSet = context.getLocalVariables();
+
+        // Test to see if there are any null variable names
+        boolean hasNullVarName = varSet.contains(null);
+
+        // Test to see if there are any null variable values
+        HashSet<String> nullVars = null;
+        for (String varName : varSet) {
+            if (context.getVariable(varName) == null) {
+                if (nullVars == null) {
+                    nullVars = new HashSet<>();
+                }
+                nullVars.add(varName);
+            }
+        }
+
+        boolean finalParentIsBad = (finalParent != runtime.getGlobalContext());
+
+        if (hasNullVarName || nullVars != null || hasCircParent || finalParentIsBad) {
+            invalidScriptContexts.put(context, new InvalidityData(hasCircParent, hasNullVarName, nullVars,
+                    finalParentIsBad, finalParent));
+            return false;
+        }
+        invalidScriptContexts.remove(context);
+        return true;
+    }
+
+    private final static class InvalidityData implements InvalidScriptContext {
+        private final boolean hasCircParent;
+        private final boolean hasNullVarName;
+        private final HashSet<String> nullVars;
+        private final boolean finalParentIsBad;
+        private final ScriptContext finalParent;
+
+        InvalidityData(boolean hasCircParent, boolean hasNullVarName, HashSet<String> nullVars,
+                       boolean finalParentIsBad, ScriptContext finalParent) {
+            this.hasCircParent = hasCircParent;
+            this.hasNullVarName = hasNullVarName;
+            this.nullVars = nullVars;
+            this.finalParentIsBad = finalParentIsBad;
+            this.finalParent = finalParent;
+        }
+
+        @Override
+        public boolean hasCircularParentChain() {
+            return hasCircParent;
+        }
+
+        @Override
+        public boolean hasNullVariableNames() {
+            return hasNullVarName;
+        }
+
+        @Override
+        public boolean hasNullVariableValues() {
+            return nullVars != null;
+        }
+
+        @Override
+        public HashSet<String> nullVariableValues() {
+            return nullVars;
+        }
+
+        @Override
+        public boolean finalParentIsBad() {
+            return finalParentIsBad;
+        }
+
+        @Override
+        public ScriptContext finalParent() {
+            return finalParent;
+        }
+    }
+
     /**
      * Extra data for use with this class's cache of invalid {@link ScriptContext} objects.
      */
@@ -208,7 +367,7 @@ public class Corrector {
         HashSet<String> nullVariableValues();
         /**
          * Returns whether the {@link ScriptContext} object is invalid because its final parent isn't
-         * {@link ScriptContext#GLOBAL}.
+         * the global context of the runtime.
          */
         boolean finalParentIsBad();
         /**
@@ -0,0 +1,12 @@
+package com.gmail.vangnamngo.scriptlangtest.exception;
+
+public class CompileException extends Exception {
+
+    public CompileException() {
+        super();
+    }
+
+    public CompileException(String message) {
+        super(message);
+    }
+}
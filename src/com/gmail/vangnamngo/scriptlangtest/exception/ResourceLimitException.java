@@ -0,0 +1,36 @@
+package com.gmail.vangnamngo.scriptlangtest.exception;
+
+/**
+ * Thrown when a script, or the group it belongs to, has used more of a resource than it is allowed to. The script is
+ * terminated at the point where the limit was checked, before the line, jump or allocation that triggered the check
+ * takes effect.
+ */
+public class ResourceLimitException extends RuntimeException {
+
+    /**
+     * The resources that can be limited.
+     */
+    public enum Resource {
+        INSTRUCTIONS,
+        WALL_TIME,
+        ALLOCATED_BYTES
+    }
+
+    public final Resource resource;
+    public final long limit;
+    public final long used;
+
+    /**
+     * @param resource The resource that ran out.
+     * @param owner A description of whose limit was exceeded, such as "script foo" or "group bar".
+     * @param limit The limit that was exceeded.
+     * @param used How much of the resource had been used.
+     */
+    public ResourceLimitException(Resource resource, String owner, long limit, long used) {
+        super("The " + resource.name().toLowerCase().replace('_', ' ') + " limit of " + owner + " was exceeded ("
+                + used + " > " + limit + ")");
+        this.resource = resource;
+        this.limit = limit;
+        this.used = used;
+    }
+}
@@ -0,0 +1,12 @@
+package com.gmail.vangnamngo.scriptlangtest.exception;
+
+/**
+ * Thrown when a compiled line cannot be executed, such as when it uses an unknown variable or applies an operator to
+ * values it doesn't support.
+ */
+public class ScriptExecutionException extends RuntimeException {
+
+    public ScriptExecutionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,361 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.ScriptExecutionException;
+import com.gmail.vangnamngo.scriptlangtest.object.*;
+import com.gmail.vangnamngo.scriptlangtest.script.ConstantPool;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A node in the tree form of a compiled expression. Trees are built once per compiled line from the postfix form
+ * written by {@link com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler}, then evaluated any number of times.
+ * Operators whose operands are all constants are folded into a single constant as the tree is built, so that they are
+ * never evaluated inside a loop.
+ */
+abstract class ExpressionNode {
+
+    /**
+     * Evaluates this node.
+     * @param task The task evaluating the expression.
+     * @return The value of this node.
+     */
+    abstract AbstractObject evaluate(ScriptTask task);
+
+    /**
+     * Evaluates this node as a condition. Nodes that can tell whether they hold without building a bool override
+     * this, so that a comparison and the branch on its result run as one step.
+     * @param task The task evaluating the expression.
+     * @return Whether the condition holds.
+     * @throws com.gmail.vangnamngo.scriptlangtest.exception.ScriptExecutionException If the value is not a bool.
+     */
+    boolean test(ScriptTask task) {
+        return Operators.isTrue(evaluate(task));
+    }
+
+    /**
+     * Builds a tree from a postfix expression.
+     * @param task The task preparing the expression, which is charged for any string folded from constants.
+     * @param data The compiled line holding the expression.
+     * @param constants The pool to intern literals in.
+     * @param from The index of the first element of the expression.
+     * @param to The index after the last element of the expression.
+     * @return The roots of every complete expression in the range, in order.
+     */
+    static ExpressionNode[] parse(ScriptTask task, Script.ExtendedData data, ConstantPool constants, int from, int to) {
+        Deque<ExpressionNode> stack = new ArrayDeque<>();
+        for (int i = from; i < to; i++) {
+            String e = data.get(i);
+            String value = e.substring(1);
+            switch (e.charAt(0)) {
+                case 'i':
+                    stack.push(new Constant(constants.intern(new IntegerObject(Integer.parseInt(value)))));
+                    break;
+                case 'd':
+                    stack.push(new Constant(constants.intern(new DecimalObject(Double.parseDouble(value)))));
+                    break;
+                case 's':
+                    stack.push(new Constant(constants.intern(new StringObject(constants.intern(value)))));
+                    break;
+                case 'c':
+                    stack.push(new Constant(constants.intern(new CharObject(value.charAt(0)))));
+                    break;
+                case 'b':
+                    stack.push(new Constant(BooleanObject.valueOf(Boolean.parseBoolean(value))));
+                    break;
+                case 'v':
+                    stack.push(new Variable(value));
+                    break;
+                case 'u':
+                    stack.push(foldUnary(value, stack.pop()));
+                    break;
+                case 'o':
+                    ExpressionNode right = stack.pop();
+                    ExpressionNode left = stack.pop();
+                    stack.push(foldBinary(task, value, left, right));
+                    break;
+                default:
+                    throw new ScriptExecutionException("Malformed expression element \"" + e + "\"");
+            }
+        }
+        ExpressionNode[] roots = new ExpressionNode[stack.size()];
+        for (int i = roots.length - 1; i >= 0; i--) {
+            roots[i] = stack.pop();
+        }
+        return roots;
+    }
+
+    private static ExpressionNode foldUnary(String op, ExpressionNode operand) {
+        if (operand instanceof Constant) {
+            try {
+                return new Constant(Operators.unary(op, ((Constant) operand).value));
+            }
+            catch (ScriptExecutionException e) {
+                // Left for the line to fail on when it is executed.
+            }
+        }
+        return new Unary(op, operand);
+    }
+
+    // Folded strings are charged to the task preparing the line, as it is the one building them.
+    private static ExpressionNode foldBinary(ScriptTask task, String op, ExpressionNode left, ExpressionNode right) {
+        if (left instanceof Constant && right instanceof Constant) {
+            AbstractObject a = ((Constant) left).value;
+            AbstractObject b = ((Constant) right).value;
+            try {
+                return new Constant(Operators.binary(task, op, a, b));
+            }
+            catch (ScriptExecutionException e) {
+                // Left for the line to fail on when it is executed.
+            }
+        }
+        return new Binary(op, left, right);
+    }
+
+    final static class Constant extends ExpressionNode {
+        final AbstractObject value;
+
+        Constant(AbstractObject value) {
+            this.value = value;
+        }
+
+        @Override
+        AbstractObject evaluate(ScriptTask task) {
+            return value;
+        }
+    }
+
+    final static class Variable extends ExpressionNode {
+        final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        AbstractObject evaluate(ScriptTask task) {
+            ScriptContext.VariableData data = task.lookup(name);
+            if (data == null) {
+                throw new ScriptExecutionException("Unknown variable \"" + name + "\"");
+            }
+            return data.value;
+        }
+    }
+
+    final static class Unary extends ExpressionNode {
+        final String op;
+        final ExpressionNode operand;
+
+        Unary(String op, ExpressionNode operand) {
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        AbstractObject evaluate(ScriptTask task) {
+            return Operators.unary(op, operand.evaluate(task));
+        }
+    }
+
+    /**
+     * A binary operator that specializes itself on the types of the operands it sees. The first evaluation picks the
+     * narrowest state that fits its operands, such as {@link #INT} when both are ints, and later evaluations take
+     * that state's path after only checking that the operands still have the expected types. If they don't, the node
+     * falls back to {@link #GENERIC} for good, rather than flipping between states.
+     *
+     * <p>The state is a plain field. Threads that race to change it may briefly see different states, which is
+     * harmless since every state checks its operands before relying on them.</p>
+     */
+    final static class Binary extends ExpressionNode {
+
+        // States
+        final static int UNINITIALIZED = 0;
+        final static int INT = 1;
+        final static int DEC = 2;
+        final static int CONCAT = 3;
+        final static int GENERIC = 4;
+
+        // Operators, resolved once so that evaluation never compares strings.
+        private final static int ADD = 0;
+        private final static int SUB = 1;
+        private final static int MUL = 2;
+        private final static int DIV = 3;
+        private final static int MOD = 4;
+        private final static int BIT_AND = 5;
+        private final static int BIT_OR = 6;
+        private final static int AND = 7;
+        private final static int OR = 8;
+        private final static int EQ = 9;
+        private final static int NE = 10;
+        private final static int OTHER = 11;
+
+        final String op;
+        final ExpressionNode left;
+        final ExpressionNode right;
+        private final int code;
+        private int state = UNINITIALIZED;
+
+        Binary(String op, ExpressionNode left, ExpressionNode right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.code = codeOf(op);
+        }
+
+        /**
+         * @return The state this node has specialized to so far.
+         */
+        int getState() {
+            return state;
+        }
+
+        @Override
+        AbstractObject evaluate(ScriptTask task) {
+            AbstractObject a = left.evaluate(task);
+            // Logical operators only evaluate their right side when they have to.
+            if (code == AND && !Operators.isTrue(a)) {
+                return BooleanObject.FALSE;
+            }
+            if (code == OR && Operators.isTrue(a)) {
+                return BooleanObject.TRUE;
+            }
+            AbstractObject b = right.evaluate(task);
+            switch (state) {
+                case INT:
+                    if (a instanceof IntegerObject && b instanceof IntegerObject) {
+                        return applyInt(((IntegerObject) a).value, ((IntegerObject) b).value);
+                    }
+                    break;
+                case DEC:
+                    if (a instanceof DecimalObject && b instanceof DecimalObject) {
+                        return applyDec(((DecimalObject) a).value, ((DecimalObject) b).value);
+                    }
+                    break;
+                case CONCAT:
+                    if (a instanceof StringObject && (b instanceof StringObject || b instanceof CharObject)) {
+                        return Operators.concat(task, ((StringObject) a).value, b.toString());
+                    }
+                    break;
+                case GENERIC:
+                    return applyGeneric(task, a, b);
+                default:
+                    state = specialize(a, b);
+                    return applySpecialized(task, a, b);
+            }
+            state = GENERIC;
+            return applyGeneric(task, a, b);
+        }
+
+        @Override
+        boolean test(ScriptTask task) {
+            switch (code) {
+                case AND:
+                    return left.test(task) && right.test(task);
+                case OR:
+                    return left.test(task) || right.test(task);
+                case EQ:
+                case NE:
+                    if (state != INT) {
+                        break;
+                    }
+                    AbstractObject a = left.evaluate(task);
+                    AbstractObject b = right.evaluate(task);
+                    if (a instanceof IntegerObject && b instanceof IntegerObject) {
+                        return (((IntegerObject) a).value == ((IntegerObject) b).value) == (code == EQ);
+                    }
+                    state = GENERIC;
+                    return Operators.isTrue(applyGeneric(task, a, b));
+            }
+            return Operators.isTrue(evaluate(task));
+        }
+
+        // Evaluates with operands that are already known, right after specializing.
+        private AbstractObject applySpecialized(ScriptTask task, AbstractObject a, AbstractObject b) {
+            switch (state) {
+                case INT:
+                    return applyInt(((IntegerObject) a).value, ((IntegerObject) b).value);
+                case DEC:
+                    return applyDec(((DecimalObject) a).value, ((DecimalObject) b).value);
+                case CONCAT:
+                    return Operators.concat(task, ((StringObject) a).value, b.toString());
+                default:
+                    return applyGeneric(task, a, b);
+            }
+        }
+
+        private int specialize(AbstractObject a, AbstractObject b) {
+            boolean ints = a instanceof IntegerObject && b instanceof IntegerObject;
+            if (ints && (code <= BIT_OR || code == EQ || code == NE)) {
+                return INT;
+            }
+            if (a instanceof DecimalObject && b instanceof DecimalObject && code <= MOD) {
+                return DEC;
+            }
+            if (code == ADD && a instanceof StringObject && (b instanceof StringObject || b instanceof CharObject)) {
+                return CONCAT;
+            }
+            return GENERIC;
+        }
+
+        private AbstractObject applyInt(int x, int y) {
+            switch (code) {
+                case ADD:
+                    return new IntegerObject(x + y);
+                case SUB:
+                    return new IntegerObject(x - y);
+                case MUL:
+                    return new IntegerObject(x * y);
+                case DIV:
+                case MOD:
+                    return new IntegerObject(Operators.arithmetic(op.charAt(0), x, y));
+                case BIT_AND:
+                    return new IntegerObject(x & y);
+                case BIT_OR:
+                    return new IntegerObject(x | y);
+                case EQ:
+                    return BooleanObject.valueOf(x == y);
+                default:
+                    return BooleanObject.valueOf(x != y);
+            }
+        }
+
+        private AbstractObject applyDec(double x, double y) {
+            return new DecimalObject(code == ADD ? x + y : Operators.arithmetic(op.charAt(0), x, y));
+        }
+
+        private AbstractObject applyGeneric(ScriptTask task, AbstractObject a, AbstractObject b) {
+            return Operators.binary(task, op, a, b);
+        }
+
+            private static int codeOf(String op) {
+            switch (op) {
+                case "+":
+                    return ADD;
+                case "-":
+                    return SUB;
+                case "*":
+                    return MUL;
+                case "/":
+                    return DIV;
+                case "%":
+                    return MOD;
+                case "&":
+                    return BIT_AND;
+                case "|":
+                    return BIT_OR;
+                case "&&":
+                    return AND;
+                case "||":
+                    return OR;
+                case "==":
+                    return EQ;
+                case "!=":
+                    return NE;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import java.util.Arrays;
+
+/**
+ * Finds the line a {@code switch} jumps to for a given value, in constant or logarithmic time rather than by testing
+ * each case in turn. Tables are built once, when a switch line is prepared, and never change afterwards.
+ */
+abstract class JumpTable {
+
+    final int defaultTarget;
+
+    JumpTable(int defaultTarget) {
+        this.defaultTarget = defaultTarget;
+    }
+
+    /**
+     * @param key The value being switched on.
+     * @return The line to jump to.
+     */
+    int target(int key) {
+        return defaultTarget;
+    }
+
+    /**
+     * @param key The value being switched on.
+     * @return The line to jump to.
+     */
+    int target(String key) {
+        return defaultTarget;
+    }
+
+    /**
+     * Builds a table for int or char cases. The cases are looked up directly in an array when they are close enough
+     * together, and by binary search otherwise, using the same size and time trade-off that javac uses to choose
+     * between {@code tableswitch} and {@code lookupswitch}.
+     * @param keys The value of each case. Must not contain duplicates.
+     * @param targets The line to jump to for each case.
+     * @param defaultTarget The line to jump to when no case matches.
+     */
+    static JumpTable ofInts(int[] keys, int[] targets, int defaultTarget) {
+        if (keys.length == 0) {
+            return new Sparse(new int[0], new int[0], defaultTarget);
+        }
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int key : keys) {
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+        long range = (long) max - min + 1;
+        long tableCost = 4 + range + 3 * 3;
+        long lookupCost = 3 + 2L * keys.length + 3L * keys.length;
+        if (tableCost <= lookupCost) {
+            return new Dense(keys, targets, min, (int) range, defaultTarget);
+        }
+        return new Sparse(keys, targets, defaultTarget);
+    }
+
+    /**
+     * Builds a hash table for string cases.
+     * @param keys The value of each case. Must not contain duplicates.
+     * @param targets The line to jump to for each case.
+     * @param defaultTarget The line to jump to when no case matches.
+     */
+    static JumpTable ofStrings(String[] keys, int[] targets, int defaultTarget) {
+        return new Hashed(keys, targets, defaultTarget);
+    }
+
+    // Indexed directly by the key, less the smallest key. Gaps between cases hold the default target.
+    private final static class Dense extends JumpTable {
+        private final int min;
+        private final int[] table;
+
+        private Dense(int[] keys, int[] targets, int min, int range, int defaultTarget) {
+            super(defaultTarget);
+            this.min = min;
+            this.table = new int[range];
+            Arrays.fill(table, defaultTarget);
+            for (int i = 0; i < keys.length; i++) {
+                table[keys[i] - min] = targets[i];
+            }
+        }
+
+        @Override
+        int target(int key) {
+            // Keys below the minimum wrap around to large indices, so a single comparison covers both ends.
+            int index = key - min;
+            return Integer.compareUnsigned(index, table.length) < 0 ? table[index] : defaultTarget;
+        }
+    }
+
+    private final static class Sparse extends JumpTable {
+        private final int[] keys;
+        private final int[] targets;
+
+        private Sparse(int[] keys, int[] targets, int defaultTarget) {
+            super(defaultTarget);
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(keys[a], keys[b]));
+            this.keys = new int[keys.length];
+            this.targets = new int[keys.length];
+            for (int i = 0; i < order.length; i++) {
+                this.keys[i] = keys[order[i]];
+                this.targets[i] = targets[order[i]];
+            }
+        }
+
+        @Override
+        int target(int key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? targets[index] : defaultTarget;
+        }
+    }
+
+    // Open addressing with linear probing. The full hash is stored next to each key so that most mismatches are
+    // rejected without comparing strings, and equals settles any collisions.
+    private final static class Hashed extends JumpTable {
+        private final String[] keys;
+        private final int[] hashes;
+        private final int[] targets;
+        private final int mask;
+
+        private Hashed(String[] keys, int[] targets, int defaultTarget) {
+            super(defaultTarget);
+            int size = Integer.highestOneBit(Math.max(1, keys.length) * 2 - 1) << 1;
+            this.keys = new String[size];
+            this.hashes = new int[size];
+            this.targets = new int[size];
+            this.mask = size - 1;
+            for (int i = 0; i < keys.length; i++) {
+                int hash = keys[i].hashCode();
+                int slot = spread(hash) & mask;
+                while (this.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = keys[i];
+                this.hashes[slot] = hash;
+                this.targets[slot] = targets[i];
+            }
+        }
+
+        @Override
+        int target(String key) {
+            int hash = key.hashCode();
+            for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && keys[slot].equals(key)) {
+                    return targets[slot];
+                }
+            }
+            return defaultTarget;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
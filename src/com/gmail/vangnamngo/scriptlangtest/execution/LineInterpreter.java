@@ -0,0 +1,28 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+
+/**
+ * Executes the compiled lines of a {@link Script} on behalf of a {@link ScriptExecutor}.
+ *
+ * <p>Implementations must never block. Instead, they should use {@link ScriptTask#sleep(long)},
+ * {@link ScriptTask#waitOn(ScriptSignal)} or {@link ScriptTask#await(java.util.concurrent.CompletableFuture)} and
+ * return, which suspends the task until it is resumed. Unless {@link ScriptTask#jumpTo(int)} is used, the task
+ * continues with the next line.</p>
+ *
+ * <p>Implementations should report large allocations, such as building a string, through
+ * {@link ScriptTask#allocate(long)} before assigning the result. Either that or a backward jump may throw a
+ * {@link com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException}, which may be caught to clean up, but
+ * should be rethrown so that the task ends.</p>
+ */
+public interface LineInterpreter {
+
+    /**
+     * Executes a single compiled line.
+     * @param task The task that is executing the line. Its context is available through {@link ScriptTask#context}.
+     * @param line The compiled line to execute.
+     * @throws Exception If the line fails to execute. The task is stopped and the exception is passed on to
+     *                   {@link ScriptTask#completion()}.
+     */
+    void execute(ScriptTask task, Script.ExtendedData line) throws Exception;
+}
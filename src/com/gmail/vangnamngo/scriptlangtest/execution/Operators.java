@@ -0,0 +1,256 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.ScriptExecutionException;
+import com.gmail.vangnamngo.scriptlangtest.object.*;
+
+/**
+ * The operators of the language, applied to objects of any type.
+ */
+public final class Operators {
+
+    private Operators() {
+    }
+
+    /**
+     * Applies a binary operator. {@code &&} and {@code ||} are only evaluated here once both sides are known, so
+     * callers that want them to short-circuit must handle them on their own. Strings built by concatenation are not
+     * charged to any task.
+     * @param op The operator.
+     * @param a The left operand.
+     * @param b The right operand.
+     * @return The result.
+     * @throws ScriptExecutionException If the operator does not support the operands.
+     */
+    public static AbstractObject binary(String op, AbstractObject a, AbstractObject b) {
+        return binary(null, op, a, b);
+    }
+
+    /**
+     * Applies a binary operator on behalf of a task, which is charged for any string it builds as with
+     * {@link #concat(ScriptTask, String, String)}.
+     * @param task The task applying the operator, or null to not charge anyone.
+     * @see #binary(String, AbstractObject, AbstractObject)
+     */
+    static AbstractObject binary(ScriptTask task, String op, AbstractObject a, AbstractObject b) {
+        switch (op) {
+            case "+":
+                if (a instanceof IntegerObject && b instanceof IntegerObject) {
+                    return new IntegerObject(((IntegerObject) a).value + ((IntegerObject) b).value);
+                }
+                if (isNumber(a) && isNumber(b)) {
+                    return new DecimalObject(toDouble(a) + toDouble(b));
+                }
+                if (isText(a) || isText(b)) {
+                    return concat(task, a.toString(), b.toString());
+                }
+                break;
+            case "-":
+            case "*":
+            case "/":
+            case "%":
+                if (a instanceof IntegerObject && b instanceof IntegerObject) {
+                    return new IntegerObject(arithmetic(op.charAt(0), ((IntegerObject) a).value,
+                            ((IntegerObject) b).value));
+                }
+                if (isNumber(a) && isNumber(b)) {
+                    return new DecimalObject(arithmetic(op.charAt(0), toDouble(a), toDouble(b)));
+                }
+                break;
+            case "&":
+            case "|":
+                if (a instanceof BooleanObject && b instanceof BooleanObject) {
+                    boolean x = ((BooleanObject) a).value;
+                    boolean y = ((BooleanObject) b).value;
+                    return BooleanObject.valueOf(op.equals("&") ? x & y : x | y);
+                }
+                if (a instanceof IntegerObject && b instanceof IntegerObject) {
+                    int x = ((IntegerObject) a).value;
+                    int y = ((IntegerObject) b).value;
+                    return new IntegerObject(op.equals("&") ? x & y : x | y);
+                }
+                break;
+            case "&&":
+            case "||":
+                if (a instanceof BooleanObject && b instanceof BooleanObject) {
+                    boolean x = ((BooleanObject) a).value;
+                    boolean y = ((BooleanObject) b).value;
+                    return BooleanObject.valueOf(op.equals("&&") ? x && y : x || y);
+                }
+                break;
+            case "==":
+                return BooleanObject.valueOf(equal(a, b));
+            case "!=":
+                return BooleanObject.valueOf(!equal(a, b));
+        }
+        throw new ScriptExecutionException("Cannot apply \"" + op + "\" to " + typeName(a) + " and " + typeName(b));
+    }
+
+    /**
+     * Concatenates two strings. Every string a script builds goes through here, so that it is charged to the task's
+     * {@linkplain ScriptTask#allocate(long) allocation quota} before it exists.
+     * @param task The task building the string, or null to not charge anyone.
+     * @param a The left string.
+     * @param b The right string.
+     * @return The concatenated string.
+     * @throws com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException If the string would exceed one of
+     *                                                                              the task's limits.
+     */
+    static StringObject concat(ScriptTask task, String a, String b) {
+        if (task != null) {
+            task.allocate(2L * (a.length() + b.length()) + 24);
+        }
+        return new StringObject(a + b);
+    }
+
+    /**
+     * Applies a unary operator.
+     * @param op The operator, either {@code !} or {@code -}.
+     * @param a The operand.
+     * @return The result.
+     * @throws ScriptExecutionException If the operator does not support the operand.
+     */
+    public static AbstractObject unary(String op, AbstractObject a) {
+        if (op.equals("!") && a instanceof BooleanObject) {
+            return BooleanObject.valueOf(!((BooleanObject) a).value);
+        }
+        if (op.equals("-")) {
+            if (a instanceof IntegerObject) {
+                return new IntegerObject(-((IntegerObject) a).value);
+            }
+            if (a instanceof DecimalObject) {
+                return new DecimalObject(-((DecimalObject) a).value);
+            }
+        }
+        throw new ScriptExecutionException("Cannot apply \"" + op + "\" to " + typeName(a));
+    }
+
+    /**
+     * @param condition The value of a condition.
+     * @return Whether the condition holds.
+     * @throws ScriptExecutionException If the value is not a bool.
+     */
+    public static boolean isTrue(AbstractObject condition) {
+        if (condition instanceof BooleanObject) {
+            return ((BooleanObject) condition).value;
+        }
+        throw new ScriptExecutionException("Expected a bool, but got " + typeName(condition));
+    }
+
+    /**
+     * Converts a value to a declared type. Only an int may be converted, to a dec. Every type also accepts null.
+     * @param type The declared type.
+     * @param value The value.
+     * @return The converted value.
+     * @throws ScriptExecutionException If the value does not fit the type.
+     */
+    public static AbstractObject coerce(String type, AbstractObject value) {
+        if (value instanceof NullObject) {
+            return value;
+        }
+        switch (type) {
+            case "bool":
+                if (value instanceof BooleanObject) {
+                    return value;
+                }
+                break;
+            case "char":
+                if (value instanceof CharObject) {
+                    return value;
+                }
+                break;
+            case "int":
+                if (value instanceof IntegerObject) {
+                    return value;
+                }
+                break;
+            case "dec":
+                if (value instanceof DecimalObject) {
+                    return value;
+                }
+                if (value instanceof IntegerObject) {
+                    return new DecimalObject(((IntegerObject) value).value);
+                }
+                break;
+            case "string":
+                if (value instanceof StringObject) {
+                    return value;
+                }
+                break;
+        }
+        throw new ScriptExecutionException("Cannot assign " + typeName(value) + " to " + type);
+    }
+
+    /**
+     * @param obj An object.
+     * @return The name of the type of the object, as written in scripts.
+     */
+    public static String typeName(AbstractObject obj) {
+        if (obj instanceof IntegerObject) {
+            return "int";
+        }
+        if (obj instanceof DecimalObject) {
+            return "dec";
+        }
+        if (obj instanceof BooleanObject) {
+            return "bool";
+        }
+        if (obj instanceof CharObject) {
+            return "char";
+        }
+        if (obj instanceof StringObject) {
+            return "string";
+        }
+        return obj == null || obj instanceof NullObject ? "null" : obj.getClass().getSimpleName();
+    }
+
+    static boolean isNumber(AbstractObject obj) {
+        return obj instanceof IntegerObject || obj instanceof DecimalObject;
+    }
+
+    static boolean isText(AbstractObject obj) {
+        return obj instanceof StringObject || obj instanceof CharObject;
+    }
+
+    static double toDouble(AbstractObject obj) {
+        return obj instanceof IntegerObject ? ((IntegerObject) obj).value : ((DecimalObject) obj).value;
+    }
+
+    static int arithmetic(char op, int x, int y) {
+        switch (op) {
+            case '-':
+                return x - y;
+            case '*':
+                return x * y;
+            case '/':
+                if (y == 0) {
+                    throw new ScriptExecutionException("Division by zero");
+                }
+                return x / y;
+            default:
+                if (y == 0) {
+                    throw new ScriptExecutionException("Division by zero");
+                }
+                return x % y;
+        }
+    }
+
+    static double arithmetic(char op, double x, double y) {
+        switch (op) {
+            case '-':
+                return x - y;
+            case '*':
+                return x * y;
+            case '/':
+                return x / y;
+            default:
+                return x % y;
+        }
+    }
+
+    private static boolean equal(AbstractObject a, AbstractObject b) {
+        if (isNumber(a) && isNumber(b) && (a instanceof DecimalObject || b instanceof DecimalObject)) {
+            return toDouble(a) == toDouble(b);
+        }
+        return a.equals(b) || (a instanceof NullObject && b instanceof NullObject);
+    }
+}
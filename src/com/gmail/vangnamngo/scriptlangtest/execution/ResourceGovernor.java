@@ -0,0 +1,166 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException;
+import com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException.Resource;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.utility.WeakIdentityMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the {@link ResourceLimits} of the scripts and groups of a runtime, and the resources each limited group has
+ * used so far.
+ *
+ * <p>Limits are not enforced by interrupting threads. Instead, a {@link ScriptTask} counts the lines it executes and
+ * the bytes its interpreter reports through {@link ScriptTask#allocate(long)}, and compares them against its limits
+ * whenever it jumps backwards, allocates, or ends a time slice. A script's own instruction limit is also checked
+ * before every line. A script that has finished is never terminated, although what it used is still charged to its
+ * groups. A group's limits apply to all of its scripts together, including the scripts of its subgroups.</p>
+ *
+ * <p>Limits are looked up when a task is submitted, so changing them does not affect tasks which are already
+ * running.</p>
+ */
+public class ResourceGovernor {
+
+    private final WeakIdentityMap<Script, ResourceLimits> scriptLimits = new WeakIdentityMap<>();
+    private final WeakIdentityMap<ScriptGroup, GroupAccount> groupAccounts = new WeakIdentityMap<>();
+
+    /**
+     * Limits every future execution of a script on its own.
+     * @param script The script to limit.
+     * @param limits The limits to apply, or {@link ResourceLimits#UNLIMITED} to remove them.
+     */
+    public void setLimits(Script script, ResourceLimits limits) {
+        if (limits.isUnlimited()) {
+            scriptLimits.remove(script);
+        }
+        else {
+            scriptLimits.put(script, limits);
+        }
+    }
+
+    /**
+     * Limits every script of a group and its subgroups together. The resources the group has used so far are kept.
+     * @param group The group to limit.
+     * @param limits The limits to apply, or {@link ResourceLimits#UNLIMITED} to remove them.
+     */
+    public void setLimits(ScriptGroup group, ResourceLimits limits) {
+        if (limits.isUnlimited()) {
+            groupAccounts.remove(group);
+            return;
+        }
+        GroupAccount account = groupAccounts.get(group);
+        if (account == null) {
+            account = groupAccounts.putIfAbsent(group, new GroupAccount(group, limits));
+        }
+        if (account != null) {
+            account.limits = limits;
+        }
+    }
+
+    /**
+     * @param script The script to fetch the limits of.
+     * @return The limits of the script on its own.
+     */
+    public ResourceLimits getLimits(Script script) {
+        ResourceLimits limits = scriptLimits.get(script);
+        return limits != null ? limits : ResourceLimits.UNLIMITED;
+    }
+
+    /**
+     * @param group The group to fetch the limits of.
+     * @return The limits shared by every script of the group.
+     */
+    public ResourceLimits getLimits(ScriptGroup group) {
+        GroupAccount account = groupAccounts.get(group);
+        return account != null ? account.limits : ResourceLimits.UNLIMITED;
+    }
+
+    /**
+     * Fetches how much of a resource a limited group has used. Usage is only tracked for groups with limits.
+     * @param group The group to check.
+     * @param resource The resource to check. Wall time is given in nanoseconds.
+     * @return The amount used, or 0 if the group has no limits.
+     */
+    public long getUsage(ScriptGroup group, Resource resource) {
+        GroupAccount account = groupAccounts.get(group);
+        if (account == null) {
+            return 0;
+        }
+        switch (resource) {
+            case INSTRUCTIONS:
+                return account.instructions.get();
+            case WALL_TIME:
+                return account.nanos.get();
+            default:
+                return account.bytes.get();
+        }
+    }
+
+    /**
+     * Forgets the resources a group has used, so that its scripts may use its full limits again.
+     * @param group The group to reset.
+     */
+    public void resetUsage(ScriptGroup group) {
+        GroupAccount account = groupAccounts.get(group);
+        if (account != null) {
+            account.instructions.set(0);
+            account.nanos.set(0);
+            account.bytes.set(0);
+        }
+    }
+
+    // Collects the accounts of the group and every ancestor that has limits, nearest first.
+    GroupAccount[] accountsFor(ScriptGroup group) {
+        if (groupAccounts.size() == 0) {
+            return GroupAccount.NONE;
+        }
+        List<GroupAccount> accounts = new ArrayList<>();
+        for (ScriptGroup g = group; g != null; g = g.parent) {
+            GroupAccount account = groupAccounts.get(g);
+            if (account != null) {
+                accounts.add(account);
+            }
+        }
+        return accounts.toArray(GroupAccount.NONE);
+    }
+
+    final static class GroupAccount {
+        private final static GroupAccount[] NONE = new GroupAccount[0];
+
+        private final String owner;
+        private volatile ResourceLimits limits;
+        private final AtomicLong instructions = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private GroupAccount(ScriptGroup group, ResourceLimits limits) {
+            this.owner = "group " + group.name;
+            this.limits = limits;
+        }
+
+        // Adds the resources used since the last charge, then fails if any limit has been passed and enforce is set.
+        void charge(long instructions, long nanos, long bytes, boolean enforce) {
+            long i = this.instructions.addAndGet(instructions);
+            long n = this.nanos.addAndGet(nanos);
+            long b = this.bytes.addAndGet(bytes);
+            if (!enforce) {
+                return;
+            }
+            ResourceLimits l = limits;
+            if (l.maxInstructions > 0 && i > l.maxInstructions) {
+                throw new ResourceLimitException(Resource.INSTRUCTIONS, owner, l.maxInstructions, i);
+            }
+            if (l.maxWallMillis > 0 && n > l.maxWallMillis * 1_000_000) {
+                throw new ResourceLimitException(Resource.WALL_TIME, owner, l.maxWallMillis,
+                        (n + 999_999) / 1_000_000);
+            }
+            if (l.maxAllocatedBytes > 0 && b > l.maxAllocatedBytes) {
+                throw new ResourceLimitException(Resource.ALLOCATED_BYTES, owner, l.maxAllocatedBytes, b);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+/**
+ * The resources a script, or every script of a group together, may use before it is terminated. A limit of 0 means
+ * there is no limit. Resource limits are immutable.
+ * @see ResourceGovernor
+ */
+public final class ResourceLimits {
+
+    /**
+     * Places no limits at all.
+     */
+    public final static ResourceLimits UNLIMITED = new ResourceLimits(0, 0, 0);
+
+    /**
+     * The most lines that may be executed.
+     */
+    public final long maxInstructions;
+
+    /**
+     * The longest time that may be spent, in milliseconds. For a single script, this is the time since it started,
+     * including any time spent sleeping or waiting. For a group, this is the total time its scripts spent executing.
+     */
+    public final long maxWallMillis;
+
+    /**
+     * The most bytes that may be allocated, as estimated by the interpreter.
+     */
+    public final long maxAllocatedBytes;
+
+    private ResourceLimits(long maxInstructions, long maxWallMillis, long maxAllocatedBytes) {
+        this.maxInstructions = maxInstructions;
+        this.maxWallMillis = maxWallMillis;
+        this.maxAllocatedBytes = maxAllocatedBytes;
+    }
+
+    /**
+     * @param instructions The most lines that may be executed.
+     * @return A copy of these limits which also limits the number of executed lines.
+     */
+    public ResourceLimits limitInstructions(long instructions) {
+        return new ResourceLimits(instructions, maxWallMillis, maxAllocatedBytes);
+    }
+
+    /**
+     * @param millis The longest time that may be spent.
+     * @return A copy of these limits which also limits the time spent.
+     */
+    public ResourceLimits limitWallTime(long millis) {
+        return new ResourceLimits(maxInstructions, millis, maxAllocatedBytes);
+    }
+
+    /**
+     * @param bytes The most bytes that may be allocated.
+     * @return A copy of these limits which also limits the number of allocated bytes.
+     */
+    public ResourceLimits limitAllocatedBytes(long bytes) {
+        return new ResourceLimits(maxInstructions, maxWallMillis, bytes);
+    }
+
+    /**
+     * @return Whether these limits place no limit at all.
+     */
+    public boolean isUnlimited() {
+        return maxInstructions <= 0 && maxWallMillis <= 0 && maxAllocatedBytes <= 0;
+    }
+}
@@ -0,0 +1,174 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.profiler.ScriptProfiler;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs {@link ScriptTask}s on a small, fixed number of threads. Each task runs for a limited number of lines at a time
+ * before the thread moves on, and tasks that sleep or wait are parked without holding onto a thread, so far more
+ * scripts can run at once than there are threads.
+ *
+ * <p>Time slices are handed out fairly between {@link ScriptGroup}s rather than between tasks: a group with thousands
+ * of tasks gets the same share as a group with one, and tasks within a group take turns.</p>
+ */
+public class ScriptExecutor implements AutoCloseable {
+
+    /**
+     * The default number of lines a task may execute before it has to give up its thread.
+     */
+    public final static int DEFAULT_BUDGET = 1000;
+
+    private final LineInterpreter interpreter;
+    private final int budget;
+
+    private final ConcurrentHashMap<ScriptGroup, GroupQueue> groupQueues = new ConcurrentHashMap<>();
+    // Every task that has not finished yet, including parked ones, so that closing can cancel them.
+    private final Set<ScriptTask> unfinished = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<GroupQueue> readyGroups = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService timer;
+    private final Thread[] carriers;
+    private volatile boolean closed = false;
+    private volatile ScriptProfiler profiler = null;
+
+    /**
+     * Creates an executor with one thread per available processor.
+     * @param interpreter The interpreter to execute lines with.
+     */
+    public ScriptExecutor(LineInterpreter interpreter) {
+        this(interpreter, Runtime.getRuntime().availableProcessors(), DEFAULT_BUDGET);
+    }
+
+    /**
+     * Creates an executor.
+     * @param interpreter The interpreter to execute lines with.
+     * @param threads The number of threads to run tasks on.
+     * @param budget The number of lines a task may execute before it has to give up its thread.
+     */
+    public ScriptExecutor(LineInterpreter interpreter, int threads, int budget) {
+        if (threads < 1 || budget < 1) {
+            throw new IllegalArgumentException("An executor needs at least one thread and a budget of at least one line");
+        }
+        this.interpreter = interpreter;
+        this.budget = budget;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ScriptExecutor-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.carriers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            carriers[i] = new Thread(this::runCarrier, "ScriptExecutor-" + i);
+            carriers[i].setDaemon(true);
+            carriers[i].start();
+        }
+    }
+
+    /**
+     * Starts executing a script.
+     * @param script The script to execute.
+     * @param context The context to execute the script in.
+     * @return The task executing the script.
+     */
+    public ScriptTask submit(Script script, ScriptContext context) {
+        if (closed) {
+            throw new RejectedExecutionException("This executor has been closed");
+        }
+        ScriptTask task = new ScriptTask(this, script, context);
+        unfinished.add(task);
+        enqueue(task);
+        if (closed) {
+            // Closed while submitting, possibly after the unfinished tasks were cancelled.
+            task.cancel();
+        }
+        return task;
+    }
+
+    /**
+     * Attaches a profiler to this executor. Time slices that have already started are not profiled.
+     * @param profiler The profiler to attach, or null to stop profiling.
+     */
+    public void setProfiler(ScriptProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * @return The profiler attached to this executor, or null if there is none.
+     */
+    public ScriptProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Stops every thread of this executor. Tasks that have not finished are stopped after their current line, and
+     * their {@link ScriptTask#completion()} futures fail with a {@link CancellationException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        timer.shutdownNow();
+        for (Thread t : carriers) {
+            t.interrupt();
+        }
+        for (ScriptTask task : unfinished) {
+            task.cancel();
+        }
+    }
+
+    void enqueue(ScriptTask task) {
+        GroupQueue queue = groupQueues.computeIfAbsent(task.group, g -> new GroupQueue());
+        queue.tasks.add(task);
+        queue.schedule(readyGroups);
+    }
+
+    void forget(ScriptTask task) {
+        unfinished.remove(task);
+    }
+
+    void wakeLater(ScriptTask task, long millis) {
+        if (closed) {
+            return;
+        }
+        timer.schedule(task::resume, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runCarrier() {
+        while (!closed) {
+            GroupQueue queue;
+            try {
+                queue = readyGroups.take();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            ScriptTask task = queue.tasks.poll();
+
+            // Put the group back at the end of the line before running, so other threads can run its other tasks.
+            queue.scheduled.set(false);
+            if (!queue.tasks.isEmpty()) {
+                queue.schedule(readyGroups);
+            }
+
+            if (task != null) {
+                task.runSlice(interpreter, budget);
+            }
+        }
+    }
+
+    private final static class GroupQueue {
+        private final ConcurrentLinkedQueue<ScriptTask> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private void schedule(BlockingQueue<GroupQueue> ready) {
+            if (scheduled.compareAndSet(false, true)) {
+                ready.add(this);
+            }
+        }
+    }
+}
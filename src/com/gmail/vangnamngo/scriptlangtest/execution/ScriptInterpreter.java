@@ -0,0 +1,358 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.command.AbstractCommand;
+import com.gmail.vangnamngo.scriptlangtest.command.ArgumentFrame;
+import com.gmail.vangnamngo.scriptlangtest.command.CommandBatcher;
+import com.gmail.vangnamngo.scriptlangtest.command.CompiledInvocation;
+import com.gmail.vangnamngo.scriptlangtest.exception.ScriptExecutionException;
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.object.CharObject;
+import com.gmail.vangnamngo.scriptlangtest.object.IntegerObject;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+import com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler;
+import com.gmail.vangnamngo.scriptlangtest.script.ConstantPool;
+import com.gmail.vangnamngo.scriptlangtest.script.ProtectionModifier;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Executes lines compiled by {@link ScriptCompiler}. The first time a line is executed, it is turned into a
+ * {@link PreparedLine} and cached on the line itself, so that its data only has to be read once.
+ *
+ * <p>Common sequences are prepared as a single superinstruction, to cut down on dispatch in loops:</p>
+ * <ul>
+ *     <li>adding or subtracting an int constant to a variable reads, adds and stores in one step;</li>
+ *     <li>a conditional jump on a comparison branches on the comparison directly; and</li>
+ *     <li>a jump back to the condition of a loop evaluates that condition itself, and goes straight to either the loop
+ *         body or its exit, so each iteration of a {@code while} loop skips a line.</li>
+ * </ul>
+ *
+ * <p>Each call is bound to its command through a {@link CompiledInvocation} when the line is prepared, so a call to an
+ * unknown command, or with more arguments than the command accepts, fails before any argument is evaluated. Commands
+ * that {@linkplain AbstractCommand#isAsync() execute asynchronously}, or that are executed in batches by the
+ * interpreter's {@link CommandBatcher}, are called without blocking: the task awaits the command's future and is parked
+ * until it completes. Every other command is called directly.</p>
+ *
+ * <p>A single interpreter can be shared by every thread of a {@link ScriptExecutor}.</p>
+ */
+public class ScriptInterpreter implements LineInterpreter {
+
+    private final CommandBatcher batcher;
+
+    /**
+     * Creates an interpreter which executes asynchronous commands as soon as they are called.
+     */
+    public ScriptInterpreter() {
+        this(null);
+    }
+
+    /**
+     * Creates an interpreter which submits command calls to a batcher.
+     * @param batcher The batcher to submit calls to commands it has a handler for, or null to not batch any.
+     */
+    public ScriptInterpreter(CommandBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    @Override
+    public void execute(ScriptTask task, Script.ExtendedData line) throws Exception {
+        preparedOf(task, line).execute(task);
+    }
+
+    private PreparedLine preparedOf(ScriptTask task, Script.ExtendedData line) {
+        PreparedLine prepared = (PreparedLine) line.getPrepared();
+        if (prepared == null) {
+            prepared = prepare(task, line);
+            line.setPrepared(prepared);
+        }
+        return prepared;
+    }
+
+    private PreparedLine prepare(ScriptTask task, Script.ExtendedData line) {
+        int target = line.lineToJumpTo();
+        ConstantPool constants = task.context.runtime.getConstants();
+        switch (line.get(0)) {
+            case ScriptCompiler.DECLARE:
+                return new Declare(ProtectionModifier.valueOf(line.get(1).toUpperCase()), line.get(2), line.get(3),
+                        line.size() > 4 ? ExpressionNode.parse(task, line, constants, 4, line.size())[0] : null);
+            case ScriptCompiler.SET:
+                ExpressionNode value = ExpressionNode.parse(task, line, constants, 3, line.size())[0];
+                String op = line.get(2);
+                if ((op.equals("+") || op.equals("-")) && value instanceof ExpressionNode.Constant
+                        && ((ExpressionNode.Constant) value).value instanceof IntegerObject) {
+                    return new Increment(line.get(1), op, (IntegerObject) ((ExpressionNode.Constant) value).value);
+                }
+                return new Assign(line.get(1), op, value);
+            case ScriptCompiler.CALL:
+                ExpressionNode[] args = ExpressionNode.parse(task, line, constants, 3, line.size());
+                return new Call(bindCall(task, line.get(1), args.length), args);
+            case ScriptCompiler.JUMP_IF_FALSE:
+                return new JumpIfFalse(ExpressionNode.parse(task, line, constants, 1, line.size())[0], target);
+            case ScriptCompiler.JUMP:
+                // Loops jump back to their condition, which is always a conditional jump.
+                Script.ExtendedData condition = task.script.getCompiledLine(target);
+                if (condition != null && condition.get(0).equals(ScriptCompiler.JUMP_IF_FALSE)) {
+                    JumpIfFalse loop = (JumpIfFalse) preparedOf(task, condition);
+                    return new LoopJump(loop.condition, target + 1, loop.target);
+                }
+                return new Jump(target);
+            case ScriptCompiler.SWITCH:
+                return prepareSwitch(task, line, constants, target);
+            case ScriptCompiler.END:
+                return ScriptTask::finish;
+            default:
+                throw new ScriptExecutionException("Unknown operation \"" + line.get(0) + "\"");
+        }
+    }
+
+    // Checks the arguments against the command's signature once, rather than every time the line is executed.
+    private static CompiledInvocation bindCall(ScriptTask task, String name, int argCount) {
+        try {
+            return CompiledInvocation.bindPositional(task.context.runtime.getCommands().bind(name), argCount);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ScriptExecutionException(e.getMessage());
+        }
+    }
+
+    private PreparedLine prepareSwitch(ScriptTask task, Script.ExtendedData line, ConstantPool constants,
+                                       int defaultTarget) {
+        String kind = line.get(1);
+        int count = Integer.parseInt(line.get(2));
+        int[] targets = line.getJumpTable();
+        ExpressionNode value = ExpressionNode.parse(task, line, constants, 3 + count, line.size())[0];
+        if (kind.equals("string")) {
+            String[] keys = new String[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = line.get(3 + i);
+            }
+            return new Switch(kind, value, JumpTable.ofStrings(keys, targets, defaultTarget));
+        }
+        int[] keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = Integer.parseInt(line.get(3 + i));
+        }
+        return new Switch(kind, value, JumpTable.ofInts(keys, targets, defaultTarget));
+    }
+
+    /**
+     * A compiled line that is ready to be executed.
+     */
+    interface PreparedLine {
+        void execute(ScriptTask task);
+    }
+
+    private final static class Declare implements PreparedLine {
+        private final ProtectionModifier modifier;
+        private final String type;
+        private final String name;
+        private final ExpressionNode value;
+
+        private Declare(ProtectionModifier modifier, String type, String name, ExpressionNode value) {
+            this.modifier = modifier;
+            this.type = type;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            ScriptContext context = task.context;
+            AbstractObject obj = value != null ? Operators.coerce(type, value.evaluate(task))
+                    : context.runtime.getNullObject();
+            // Declarations inside loops are executed more than once, and simply assign from then on.
+            if (context.addVariable(name, modifier, type, obj)) {
+                task.invalidateLookups();
+            }
+            else {
+                context.setVariable(name, obj);
+            }
+        }
+    }
+
+    private final static class Assign implements PreparedLine {
+        private final String name;
+        private final String op;
+        private final ExpressionNode value;
+
+        private Assign(String name, String op, ExpressionNode value) {
+            this.name = name;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            AbstractObject obj = value.evaluate(task);
+            ScriptContext.VariableData data = task.lookup(name);
+            if (data == null) {
+                throw new ScriptExecutionException("Unknown variable \"" + name + "\"");
+            }
+            data.value = coerce(data, op.equals("=") ? obj : Operators.binary(task, op, data.value, obj));
+        }
+    }
+
+    private final static class Increment implements PreparedLine {
+        private final String name;
+        private final String op;
+        private final IntegerObject amount;
+        private final int delta;
+
+        private Increment(String name, String op, IntegerObject amount) {
+            this.name = name;
+            this.op = op;
+            this.amount = amount;
+            this.delta = op.equals("+") ? amount.value : -amount.value;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            ScriptContext.VariableData data = task.lookup(name);
+            if (data == null) {
+                throw new ScriptExecutionException("Unknown variable \"" + name + "\"");
+            }
+            AbstractObject current = data.value;
+            data.value = coerce(data, current instanceof IntegerObject
+                    ? new IntegerObject(((IntegerObject) current).value + delta)
+                    : Operators.binary(task, op, current, amount));
+        }
+    }
+
+    // Variables keep the type they were declared with, whatever is assigned to them later.
+    private static AbstractObject coerce(ScriptContext.VariableData data, AbstractObject value) {
+        return data.type == null ? value : Operators.coerce(data.type, value);
+    }
+
+    private final class Call implements PreparedLine {
+        private final CompiledInvocation invocation;
+        private final ExpressionNode[] args;
+
+        private Call(CompiledInvocation invocation, ExpressionNode[] args) {
+            this.invocation = invocation;
+            this.args = args;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            ArgumentFrame frame = invocation.acquireFrame();
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    invocation.setArgument(frame, i, args[i].evaluate(task));
+                }
+                // Fetched once, so that every kind of call goes to the same command.
+                AbstractCommand command = invocation.getCommand();
+                if (command == null) {
+                    throw new ScriptExecutionException("Unknown command \"" + invocation.getName() + "\"");
+                }
+                boolean batched = batcher != null && batcher.handles(command);
+                if (batched || command.isAsync()) {
+                    CompletableFuture<Boolean> future = batched ? batcher.submit(command, task.context, frame)
+                            : command.invokeAsync(task.context, frame);
+                    // Commands often finish without having to wait for anything, so the task only parks if it must.
+                    if (future.isDone() && !future.isCompletedExceptionally()) {
+                        accepted(future.join());
+                    }
+                    else {
+                        task.await(future.thenApply(this::accepted));
+                    }
+                }
+                else {
+                    accepted(command.invoke(task.context, frame));
+                }
+            }
+            finally {
+                invocation.releaseFrame(frame);
+                // Commands are handed the context, and may add or remove variables in it.
+                task.invalidateLookups();
+            }
+        }
+
+        private Void accepted(boolean accepted) {
+            if (!accepted) {
+                throw new ScriptExecutionException("Invalid arguments for \"" + invocation.getName() + "\"");
+            }
+            return null;
+        }
+    }
+
+    private final static class JumpIfFalse implements PreparedLine {
+        private final ExpressionNode condition;
+        private final int target;
+
+        private JumpIfFalse(ExpressionNode condition, int target) {
+            this.condition = condition;
+            this.target = target;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            if (!condition.test(task)) {
+                task.jumpTo(target);
+            }
+        }
+    }
+
+    private final static class LoopJump implements PreparedLine {
+        private final ExpressionNode condition;
+        private final int body;
+        private final int exit;
+
+        private LoopJump(ExpressionNode condition, int body, int exit) {
+            this.condition = condition;
+            this.body = body;
+            this.exit = exit;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            task.jumpTo(condition.test(task) ? body : exit);
+        }
+    }
+
+    private final static class Switch implements PreparedLine {
+        private final String kind;
+        private final ExpressionNode value;
+        private final JumpTable table;
+
+        private Switch(String kind, ExpressionNode value, JumpTable table) {
+            this.kind = kind;
+            this.value = value;
+            this.table = table;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            AbstractObject obj = value.evaluate(task);
+            int target;
+            if (obj instanceof IntegerObject && kind.equals("int")) {
+                target = table.target(((IntegerObject) obj).value);
+            }
+            else if (obj instanceof CharObject && kind.equals("char")) {
+                target = table.target(((CharObject) obj).value);
+            }
+            else if (obj instanceof StringObject && kind.equals("string")) {
+                target = table.target(((StringObject) obj).value);
+            }
+            else {
+                throw new ScriptExecutionException("Cannot switch on " + Operators.typeName(obj) + " with " + kind
+                        + " cases");
+            }
+            task.jumpTo(target);
+        }
+    }
+
+    private final static class Jump implements PreparedLine {
+        private final int target;
+
+        private Jump(int target) {
+            this.target = target;
+        }
+
+        @Override
+        public void execute(ScriptTask task) {
+            task.jumpTo(target);
+        }
+    }
+}
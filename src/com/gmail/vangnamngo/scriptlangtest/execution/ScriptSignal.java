@@ -0,0 +1,66 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import java.util.ArrayDeque;
+
+/**
+ * A condition which {@link ScriptTask}s can wait on. Waiting tasks are parked and do not hold onto a thread until they
+ * are signalled.
+ *
+ * <p>A task is registered with its signal as soon as it calls {@link ScriptTask#waitOn(ScriptSignal)}, while its time
+ * slice is still running, so a signal sent before the slice ends still resumes it.</p>
+ */
+public class ScriptSignal {
+
+    // Guarded by this signal.
+    private final ArrayDeque<ScriptTask> waiting = new ArrayDeque<>();
+
+    /**
+     * Resumes the task that has been waiting the longest, if any.
+     * @return True if a task was resumed, false otherwise.
+     */
+    public boolean signal() {
+        while (true) {
+            ScriptTask task;
+            synchronized (this) {
+                task = waiting.poll();
+            }
+            if (task == null) {
+                return false;
+            }
+            // Tasks that were stopped while waiting are skipped.
+            if (task.resume()) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Resumes every task that is waiting.
+     * @return The number of tasks that were resumed.
+     */
+    public int signalAll() {
+        ScriptTask[] tasks;
+        synchronized (this) {
+            tasks = waiting.toArray(new ScriptTask[0]);
+            waiting.clear();
+        }
+        int count = 0;
+        for (ScriptTask task : tasks) {
+            if (task.resume()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of tasks that are waiting on this signal.
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    synchronized void park(ScriptTask task) {
+        waiting.add(task);
+    }
+}
@@ -0,0 +1,499 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException;
+import com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException.Resource;
+import com.gmail.vangnamngo.scriptlangtest.metrics.ScriptMetrics;
+import com.gmail.vangnamngo.scriptlangtest.profiler.ScriptProfiler;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A single execution of a {@link Script}, run by a {@link ScriptExecutor} in short time slices. Between slices, a task
+ * only holds onto its current line, so any number of idle tasks can exist at once.
+ */
+public class ScriptTask {
+
+    /**
+     * The states a task can be in.
+     */
+    public enum State {
+        /**
+         * Waiting for its next time slice.
+         */
+        RUNNABLE,
+        /**
+         * Currently executing on a thread.
+         */
+        RUNNING,
+        /**
+         * Parked until a set time has passed.
+         */
+        SLEEPING,
+        /**
+         * Parked until a {@link ScriptSignal} resumes it, or until an awaited future completes.
+         */
+        WAITING,
+        /**
+         * Finished executing, either normally or because of an error.
+         */
+        DONE
+    }
+
+    public final Script script;
+    public final ScriptContext context;
+    public final ScriptGroup group;
+
+    private final ScriptExecutor executor;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private volatile State state = State.RUNNABLE;
+    // Whether a slice is running. Guarded by this task, along with every change of state made outside of a slice.
+    private boolean inSlice = false;
+    private int line = 1;
+    private int nextLine;
+
+    // Set while a slice is running, and acted on by the executor once the slice has ended.
+    private long sleepMillis;
+    private CompletableFuture<?> awaited;
+
+    // The outcome of the last awaited future.
+    private Object awaitedValue;
+    private Throwable awaitedFailure;
+
+    // Resource accounting. Only checked when the task is governed at all.
+    private final ResourceLimits limits;
+    private final ResourceGovernor.GroupAccount[] accounts;
+    private final boolean governed;
+    // The script's own instruction limit, checked before every line so that the line past the limit never runs.
+    private final long instructionLimit;
+    private long instructions;
+    private long allocated;
+    private long startNanos;
+    private long chargedInstructions;
+    private long chargedAllocated;
+    private long chargedNanos;
+
+    /*
+     Variables this task has looked up, in a small direct-mapped cache keyed by the hash of their names. Where a name
+     resolves to can only change when a variable is added to or removed from a context, so the cache is cleared
+     whenever this task declares a variable or calls a command, and at the start of every slice in case the host
+     changed anything in between. Inside a loop that does neither, every lookup after the first is a cache hit.
+     */
+    private final static int LOOKUP_CACHE_SIZE = 32;
+    private String[] cachedNames;
+    private ScriptContext.VariableData[] cachedVariables;
+
+    ScriptTask(ScriptExecutor executor, Script script, ScriptContext context) {
+        this.executor = executor;
+        this.script = script;
+        this.context = context;
+        this.group = script.group != null ? script.group : context.runtime.getGlobalGroup();
+
+        ResourceGovernor governor = context.runtime.getGovernor();
+        this.limits = governor.getLimits(script);
+        this.accounts = governor.accountsFor(group);
+        this.governed = !limits.isUnlimited() || accounts.length > 0;
+        this.instructionLimit = limits.maxInstructions > 0 ? limits.maxInstructions : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The current state of this task.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return The line which is currently being executed, or which will be executed when this task is resumed.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return The number of lines this task has executed so far.
+     */
+    public long getInstructionCount() {
+        return instructions;
+    }
+
+    /**
+     * @return The number of bytes this task has reported through {@link #allocate(long)} so far.
+     */
+    public long getAllocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * @return A future which is completed once this task is done.
+     */
+    public CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    // ------------------------------------------------------------------------
+    // Interpreter controls
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the line to continue with once the current line has been executed. Jumping backwards checks the resource
+     * limits of this task first, since every loop has to jump backwards.
+     * @param line The line number, starting from 1.
+     * @throws ResourceLimitException If a limit has been exceeded. The jump does not take place.
+     */
+    public void jumpTo(int line) {
+        if (governed && line <= this.line) {
+            checkLimits();
+        }
+        nextLine = line;
+    }
+
+    /**
+     * Reports that the interpreter is about to allocate memory on behalf of this task, such as when building a string.
+     * This must be called before the allocation is made visible to the script, so that a terminated script never
+     * sees a partially assigned value.
+     * @param bytes The approximate number of bytes about to be allocated.
+     * @throws ResourceLimitException If the allocation would exceed a limit.
+     */
+    public void allocate(long bytes) {
+        allocated += bytes;
+        if (governed) {
+            checkLimits();
+        }
+    }
+
+    /**
+     * Ends the time slice of this task after the current line. The task will be resumed after every other group has
+     * had a turn.
+     */
+    public void yieldSlice() {
+        if (state == State.RUNNING) {
+            state = State.RUNNABLE;
+        }
+    }
+
+    /**
+     * Parks this task after the current line for at least the provided amount of time.
+     * @param millis The time to sleep for, in milliseconds.
+     */
+    public void sleep(long millis) {
+        sleepMillis = Math.max(0, millis);
+        state = State.SLEEPING;
+    }
+
+    /**
+     * Parks this task after the current line until the provided signal is signalled. The task is waiting on the
+     * signal from this call on, so a signal sent before the current slice has ended resumes it as well.
+     * @param signal The signal to wait on.
+     */
+    public void waitOn(ScriptSignal signal) {
+        state = State.WAITING;
+        signal.park(this);
+    }
+
+    /**
+     * Parks this task after the current line until the provided future completes. Once resumed, the result of the
+     * future is available through {@link #getAwaitedValue()}. If the future fails, the task fails with the same
+     * exception instead of executing any more lines.
+     * @param future The future to wait for.
+     */
+    public void await(CompletableFuture<?> future) {
+        this.awaited = future;
+        state = State.WAITING;
+    }
+
+    /**
+     * @return The result of the future this task last awaited, or null if it has never awaited one.
+     */
+    public Object getAwaitedValue() {
+        return awaitedValue;
+    }
+
+    /**
+     * Stops this task after the current line.
+     */
+    public void finish() {
+        state = State.DONE;
+    }
+
+    // ------------------------------------------------------------------------
+    // Variable lookups
+    // ------------------------------------------------------------------------
+
+    /**
+     * Finds where a variable visible to this task is stored.
+     * @param name The name of the variable.
+     * @return The data of the variable, or null if there is no such variable.
+     */
+    ScriptContext.VariableData lookup(String name) {
+        if (cachedNames == null) {
+            cachedNames = new String[LOOKUP_CACHE_SIZE];
+            cachedVariables = new ScriptContext.VariableData[LOOKUP_CACHE_SIZE];
+        }
+        int slot = name.hashCode() & (LOOKUP_CACHE_SIZE - 1);
+        String cached = cachedNames[slot];
+        if (cached == name || name.equals(cached)) {
+            return cachedVariables[slot];
+        }
+        ScriptContext.VariableData data = context.getVariableData(name);
+        if (data != null) {
+            cachedNames[slot] = name;
+            cachedVariables[slot] = data;
+        }
+        return data;
+    }
+
+    /**
+     * Forgets every variable lookup, since the variables visible to this task may have changed.
+     */
+    void invalidateLookups() {
+        if (cachedNames != null) {
+            Arrays.fill(cachedNames, null);
+            Arrays.fill(cachedVariables, null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Scheduling
+    // ------------------------------------------------------------------------
+
+    // Runs up to budget lines. Must only be called by one thread at a time.
+    void runSlice(LineInterpreter interpreter, int budget) {
+        synchronized (this) {
+            // Cancelled while it was queued.
+            if (state == State.DONE) {
+                return;
+            }
+            state = State.RUNNING;
+            inSlice = true;
+        }
+        invalidateLookups();
+        ScriptMetrics metrics = context.runtime.getMetrics();
+        boolean measure = metrics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
+        int executed = 0;
+        if (governed) {
+            // Time spent parked between slices counts towards the script's own limit, but not its groups'.
+            chargedNanos = System.nanoTime();
+            if (startNanos == 0) {
+                startNanos = chargedNanos;
+            }
+        }
+        try {
+            if (awaitedFailure != null) {
+                Throwable e = awaitedFailure;
+                awaitedFailure = null;
+                throw e;
+            }
+            ScriptProfiler profiler = executor.getProfiler();
+            if (profiler == null) {
+                executed = runLines(interpreter, budget);
+            }
+            else {
+                profiler.sliceStarted(this);
+                try {
+                    executed = runProfiledLines(interpreter, budget, profiler);
+                }
+                finally {
+                    profiler.sliceEnded(this);
+                }
+            }
+            if (governed) {
+                // A task that has finished has already had every effect it will have, so it can no longer fail.
+                if (state == State.DONE) {
+                    chargeGroups(System.nanoTime(), false);
+                }
+                else {
+                    checkLimits();
+                }
+            }
+        }
+        catch (Throwable e) {
+            if (measure) {
+                metrics.recordExecution(script, group, executed, System.nanoTime() - start);
+            }
+            synchronized (this) {
+                state = State.DONE;
+                inSlice = false;
+            }
+            finished();
+            completion.completeExceptionally(e);
+            return;
+        }
+
+        if (measure) {
+            metrics.recordExecution(script, group, executed, System.nanoTime() - start);
+        }
+
+        // A signal may have resumed this task before the slice ended, in which case it is already runnable again.
+        State ended;
+        synchronized (this) {
+            if (completion.isDone()) {
+                // Cancelled during the slice, whatever the script did afterwards.
+                state = State.DONE;
+            }
+            else if (state == State.RUNNING) {
+                state = State.RUNNABLE;
+            }
+            ended = state;
+            inSlice = false;
+        }
+        switch (ended) {
+            case RUNNABLE:
+                executor.enqueue(this);
+                break;
+            case SLEEPING:
+                executor.wakeLater(this, sleepMillis);
+                break;
+            case WAITING:
+                if (awaited != null) {
+                    CompletableFuture<?> f = awaited;
+                    awaited = null;
+                    f.whenComplete((value, e) -> {
+                        awaitedValue = value;
+                        awaitedFailure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        resume();
+                    });
+                }
+                // Otherwise it is already parked on its signal.
+                break;
+            case DONE:
+                finished();
+                completion.complete(null);
+                break;
+        }
+    }
+
+    private void finished() {
+        context.runtime.getOutput().scriptFinished();
+        executor.forget(this);
+    }
+
+    private int runLines(LineInterpreter interpreter, int budget) throws Exception {
+        int remaining = budget;
+        int count = script.getLineCount();
+        while (remaining > 0 && state == State.RUNNING) {
+            if (line > count) {
+                state = State.DONE;
+                break;
+            }
+            Script.ExtendedData data = script.getCompiledLine(line);
+            nextLine = line + 1;
+            if (data != null) {
+                if (instructions >= instructionLimit) {
+                    throw instructionLimitExceeded();
+                }
+                interpreter.execute(this, data);
+                instructions++;
+                remaining--;
+            }
+            line = nextLine;
+        }
+        return budget - remaining;
+    }
+
+    // The same as runLines, but reports each line to the profiler. Kept separate so that the unprofiled loop stays free
+    // of any profiling checks.
+    private int runProfiledLines(LineInterpreter interpreter, int budget, ScriptProfiler profiler) throws Exception {
+        if (profiler.mode != ScriptProfiler.Mode.EXACT) {
+            return runLines(interpreter, budget);
+        }
+        int remaining = budget;
+        int count = script.getLineCount();
+        while (remaining > 0 && state == State.RUNNING) {
+            if (line > count) {
+                state = State.DONE;
+                break;
+            }
+            Script.ExtendedData data = script.getCompiledLine(line);
+            nextLine = line + 1;
+            if (data != null) {
+                if (instructions >= instructionLimit) {
+                    throw instructionLimitExceeded();
+                }
+                long start = System.nanoTime();
+                try {
+                    interpreter.execute(this, data);
+                }
+                finally {
+                    profiler.lineExecuted(script, line, System.nanoTime() - start);
+                }
+                instructions++;
+                remaining--;
+            }
+            line = nextLine;
+        }
+        return budget - remaining;
+    }
+
+    // Compares the resources used so far against the limits of the script, then charges whatever was used since the
+    // last check to every limited group.
+    private void checkLimits() {
+        long now = System.nanoTime();
+        if (limits.maxWallMillis > 0 && now - startNanos > limits.maxWallMillis * 1_000_000) {
+            throw new ResourceLimitException(Resource.WALL_TIME, "script " + script.name, limits.maxWallMillis,
+                    (now - startNanos + 999_999) / 1_000_000);
+        }
+        if (limits.maxAllocatedBytes > 0 && allocated > limits.maxAllocatedBytes) {
+            throw new ResourceLimitException(Resource.ALLOCATED_BYTES, "script " + script.name,
+                    limits.maxAllocatedBytes, allocated);
+        }
+        chargeGroups(now, true);
+    }
+
+    // Charges whatever was used since the last check to every limited group, failing if one of them ran out unless
+    // only the usage is to be recorded.
+    private void chargeGroups(long now, boolean enforce) {
+        if (accounts.length > 0) {
+            long di = instructions - chargedInstructions;
+            long da = allocated - chargedAllocated;
+            long dn = now - chargedNanos;
+            chargedInstructions = instructions;
+            chargedAllocated = allocated;
+            chargedNanos = now;
+            for (ResourceGovernor.GroupAccount account : accounts) {
+                account.charge(di, dn, da, enforce);
+            }
+        }
+    }
+
+    private ResourceLimitException instructionLimitExceeded() {
+        return new ResourceLimitException(Resource.INSTRUCTIONS, "script " + script.name, limits.maxInstructions,
+                instructions + 1);
+    }
+
+    // Called by the executor and by signals to put a parked task back in line. A task resumed while its slice is still
+    // running is put back in line once the slice ends instead. Returns false if the task was not parked.
+    synchronized boolean resume() {
+        if (state != State.SLEEPING && state != State.WAITING) {
+            return false;
+        }
+        state = State.RUNNABLE;
+        if (!inSlice) {
+            executor.enqueue(this);
+        }
+        return true;
+    }
+
+    // Called by the executor when it is closed. A running slice stops after its current line, and finishes up itself.
+    void cancel() {
+        synchronized (this) {
+            if (state == State.DONE) {
+                return;
+            }
+            state = State.DONE;
+            if (inSlice) {
+                completion.completeExceptionally(new CancellationException("The executor was closed"));
+                return;
+            }
+        }
+        finished();
+        completion.completeExceptionally(new CancellationException("The executor was closed"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.gmail.vangnamngo.scriptlangtest.metrics;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A custom Java Flight Recorder event type. The project targets Java 8, where the {@code jdk.jfr} API is not always
+ * available, so event types are defined at runtime through {@code jdk.jfr.EventFactory}. When the API can't be found,
+ * every event type is inert and {@link #commit(Object...)} does nothing.
+ */
+public final class JfrEventType {
+
+    private final String name;
+    private final String label;
+    private final String[] fieldNames;
+    private final Class<?>[] fieldTypes;
+    private final boolean[] timespans;
+
+    // Defining an event type loads most of jdk.jfr, which takes long enough to matter at startup, so it is only done
+    // once the first event is committed.
+    private volatile boolean defined = false;
+    private Object factory;
+
+    /**
+     * Describes an event type. It is only defined with Java Flight Recorder once it is first used.
+     * @param name The unique name of the event type.
+     * @param label The human-readable name of the event type.
+     * @param fieldNames The names of the fields of the event.
+     * @param fieldTypes The types of the fields. Only primitive types and String are allowed.
+     * @param timespans Which of the fields are durations in nanoseconds.
+     */
+    public JfrEventType(String name, String label, String[] fieldNames, Class<?>[] fieldTypes, boolean[] timespans) {
+        this.name = name;
+        this.label = label;
+        this.fieldNames = fieldNames;
+        this.fieldTypes = fieldTypes;
+        this.timespans = timespans;
+    }
+
+    private Object factory() {
+        if (!defined) {
+            synchronized (this) {
+                if (!defined) {
+                    factory = define();
+                    defined = true;
+                }
+            }
+        }
+        return factory;
+    }
+
+    private Object define() {
+        if (!Api.AVAILABLE) {
+            return null;
+        }
+        try {
+            List<Object> annotations = Arrays.asList(
+                    Api.annotationElement.newInstance(Api.nameAnnotation, name),
+                    Api.annotationElement.newInstance(Api.labelAnnotation, label),
+                    Api.annotationElement.newInstance(Api.categoryAnnotation, new String[] { "ScriptLangTest" }));
+            List<Object> fields = new ArrayList<>();
+            for (int i = 0; i < fieldNames.length; i++) {
+                List<Object> fieldAnnotations = timespans[i]
+                        ? Collections.singletonList(Api.annotationElement.newInstance(Api.timespanAnnotation,
+                                "NANOSECONDS"))
+                        : Collections.emptyList();
+                fields.add(Api.valueDescriptor.newInstance(fieldTypes[i], fieldNames[i], fieldAnnotations));
+            }
+            return Api.createFactory.invoke(null, annotations, fields);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether Java Flight Recorder is available to record this event type.
+     */
+    public boolean isAvailable() {
+        return factory() != null;
+    }
+
+    /**
+     * Commits an event, if a recording is currently interested in this event type.
+     * @param values The values of the fields, in the order they were defined.
+     */
+    public void commit(Object... values) {
+        Object f = factory();
+        if (f == null) {
+            return;
+        }
+        try {
+            Object event = Api.newEvent.invoke(f);
+            if (!(Boolean) Api.shouldCommit.invoke(event)) {
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                Api.set.invoke(event, i, values[i]);
+            }
+            Api.commit.invoke(event);
+        }
+        catch (ReflectiveOperationException e) {
+            // Recording is best-effort, and must never break a script.
+        }
+    }
+
+    // The reflective handles into jdk.jfr, looked up when the first event type is defined.
+    private final static class Api {
+        private final static boolean AVAILABLE;
+        private static Constructor<?> annotationElement;
+        private static Constructor<?> valueDescriptor;
+        private static Method createFactory;
+        private static Method newEvent;
+        private static Method set;
+        private static Method shouldCommit;
+        private static Method commit;
+        private static Class<? extends Annotation> nameAnnotation;
+        private static Class<? extends Annotation> labelAnnotation;
+        private static Class<? extends Annotation> categoryAnnotation;
+        private static Class<? extends Annotation> timespanAnnotation;
+
+        static {
+            boolean available;
+            try {
+                Class<?> ae = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> vd = Class.forName("jdk.jfr.ValueDescriptor");
+                Class<?> ef = Class.forName("jdk.jfr.EventFactory");
+                Class<?> ev = Class.forName("jdk.jfr.Event");
+                annotationElement = ae.getConstructor(Class.class, Object.class);
+                valueDescriptor = vd.getConstructor(Class.class, String.class, List.class);
+                createFactory = ef.getMethod("create", List.class, List.class);
+                newEvent = ef.getMethod("newEvent");
+                set = ev.getMethod("set", int.class, Object.class);
+                shouldCommit = ev.getMethod("shouldCommit");
+                commit = ev.getMethod("commit");
+                nameAnnotation = annotation("jdk.jfr.Name");
+                labelAnnotation = annotation("jdk.jfr.Label");
+                categoryAnnotation = annotation("jdk.jfr.Category");
+                timespanAnnotation = annotation("jdk.jfr.Timespan");
+                available = true;
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+                available = false;
+            }
+            AVAILABLE = available;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+            return (Class<? extends Annotation>) Class.forName(name);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.gmail.vangnamngo.scriptlangtest.metrics;
+
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.utility.WeakIdentityMap;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gathers timings and counts for each phase of a {@link com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime}:
+ * lexing, compiling and executing scripts, variable lookups, denied accesses and repairs. Each measurement is also
+ * committed as a Java Flight Recorder event whenever a recording is running on a JVM that supports it.
+ *
+ * <p>Metrics are disabled by default. Every instrumented site checks {@link #isEnabled()} before it measures anything,
+ * so disabled metrics cost a single volatile read.</p>
+ */
+public final class ScriptMetrics {
+
+    private final static JfrEventType LEX_EVENT = new JfrEventType("scriptlangtest.Lex", "Script Lexed",
+            new String[] { "file", "tokens", "time" },
+            new Class<?>[] { String.class, int.class, long.class },
+            new boolean[] { false, false, true });
+    private final static JfrEventType COMPILE_EVENT = new JfrEventType("scriptlangtest.Compile", "Script Compiled",
+            new String[] { "script", "lines", "time" },
+            new Class<?>[] { String.class, int.class, long.class },
+            new boolean[] { false, false, true });
+    private final static JfrEventType EXECUTE_EVENT = new JfrEventType("scriptlangtest.Execute", "Script Executed",
+            new String[] { "script", "group", "lines", "time" },
+            new Class<?>[] { String.class, String.class, int.class, long.class },
+            new boolean[] { false, false, false, true });
+
+    private volatile boolean enabled = false;
+
+    private final Timer lexTime = new Timer();
+    private final Timer lexTokens = new Timer();
+    private final Timer compileTime = new Timer();
+    private final Timer executeTime = new Timer();
+    private final Timer lookupDepth = new Timer();
+    private final LongAdder accessDenials = new LongAdder();
+    private final LongAdder contextRepairs = new LongAdder();
+
+    // Weakly held so that unloaded scripts and groups don't stay in memory for the sake of their metrics.
+    private final WeakIdentityMap<Script, Timer> scriptTimes = new WeakIdentityMap<>();
+    private final WeakIdentityMap<ScriptGroup, Timer> groupTimes = new WeakIdentityMap<>();
+
+    /**
+     * @return Whether measurements are currently being gathered.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops gathering measurements. Measurements which have already been gathered are kept.
+     * @param enabled Whether to gather measurements.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // ========================================================================
+    // Recording
+    // ========================================================================
+
+    /**
+     * Records the tokenization of a file.
+     * @param file The name of the file.
+     * @param tokens The number of tokens produced.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void recordLex(String file, int tokens, long nanos) {
+        lexTime.record(nanos);
+        lexTokens.record(tokens);
+        LEX_EVENT.commit(file, tokens, nanos);
+    }
+
+    /**
+     * Records the compilation of a script.
+     * @param script The compiled script.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void recordCompile(Script script, long nanos) {
+        compileTime.record(nanos);
+        COMPILE_EVENT.commit(script.name, script.getLineCount(), nanos);
+    }
+
+    /**
+     * Records a stretch of execution of a script, such as a single time slice.
+     * @param script The script that was executed.
+     * @param group The group the script was executed under.
+     * @param lines The number of lines executed.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void recordExecution(Script script, ScriptGroup group, int lines, long nanos) {
+        executeTime.record(nanos);
+        timerOf(scriptTimes, script).record(nanos);
+        timerOf(groupTimes, group).record(nanos);
+        EXECUTE_EVENT.commit(script.name, group.name, lines, nanos);
+    }
+
+    /**
+     * Records how many parents a variable lookup had to walk through before the variable was found.
+     * @param depth The number of parents walked through.
+     */
+    public void recordLookup(int depth) {
+        lookupDepth.record(depth);
+    }
+
+    /**
+     * Records an access which was denied by a {@link com.gmail.vangnamngo.scriptlangtest.script.ProtectionModifier}.
+     */
+    public void recordAccessDenied() {
+        accessDenials.increment();
+    }
+
+    /**
+     * Records a context which was repaired by a {@link com.gmail.vangnamngo.scriptlangtest.corrections.Corrector}.
+     */
+    public void recordRepair() {
+        contextRepairs.increment();
+    }
+
+    // ========================================================================
+    // Reading
+    // ========================================================================
+
+    /**
+     * @return The time spent tokenizing files, in nanoseconds.
+     */
+    public Timer getLexTime() {
+        return lexTime;
+    }
+
+    /**
+     * @return The number of tokens produced per tokenized file.
+     */
+    public Timer getLexTokens() {
+        return lexTokens;
+    }
+
+    /**
+     * @return The time spent compiling scripts, in nanoseconds.
+     */
+    public Timer getCompileTime() {
+        return compileTime;
+    }
+
+    /**
+     * @return The time spent executing every script, in nanoseconds.
+     */
+    public Timer getExecuteTime() {
+        return executeTime;
+    }
+
+    /**
+     * @param script The script to fetch the execution time of.
+     * @return The time spent executing the script, in nanoseconds, or null if it has not been executed.
+     */
+    public Timer getExecuteTime(Script script) {
+        return scriptTimes.get(script);
+    }
+
+    /**
+     * @param group The group to fetch the execution time of.
+     * @return The time spent executing scripts directly under the group, in nanoseconds, or null if none have been
+     *         executed.
+     */
+    public Timer getExecuteTime(ScriptGroup group) {
+        return groupTimes.get(group);
+    }
+
+    /**
+     * @return The number of parents walked through by each variable lookup.
+     */
+    public Timer getLookupDepth() {
+        return lookupDepth;
+    }
+
+    public long getAccessDenials() {
+        return accessDenials.sum();
+    }
+
+    public long getContextRepairs() {
+        return contextRepairs.sum();
+    }
+
+    /**
+     * Forgets every measurement gathered so far.
+     */
+    public void reset() {
+        lexTime.reset();
+        lexTokens.reset();
+        compileTime.reset();
+        executeTime.reset();
+        lookupDepth.reset();
+        accessDenials.reset();
+        contextRepairs.reset();
+        scriptTimes.clear();
+        groupTimes.clear();
+    }
+
+    /**
+     * Writes a plain text summary of every measurement, including the execution time of each script and group.
+     * @param out The writer to write to.
+     * @throws IOException If the writer fails.
+     */
+    public void writeReport(Writer out) throws IOException {
+        out.write("lex.time " + lexTime + "\n");
+        out.write("lex.tokens " + lexTokens + "\n");
+        out.write("compile.time " + compileTime + "\n");
+        out.write("execute.time " + executeTime + "\n");
+        out.write("lookup.depth " + lookupDepth + "\n");
+        out.write("access.denials " + getAccessDenials() + "\n");
+        out.write("context.repairs " + getContextRepairs() + "\n");
+        for (ScriptGroup g : groupTimes.keys()) {
+            Timer t = groupTimes.get(g);
+            if (t != null) {
+                out.write("execute.group[" + g.name + "] " + t + "\n");
+            }
+        }
+        for (Script s : scriptTimes.keys()) {
+            Timer t = scriptTimes.get(s);
+            if (t != null) {
+                out.write("execute.script[" + s.name + "] " + t + "\n");
+            }
+        }
+        out.flush();
+    }
+
+    private static <K> Timer timerOf(WeakIdentityMap<K, Timer> map, K key) {
+        Timer t = map.get(key);
+        if (t == null) {
+            t = new Timer();
+            Timer prev = map.putIfAbsent(key, t);
+            if (prev != null) {
+                t = prev;
+            }
+        }
+        return t;
+    }
+}
@@ -0,0 +1,52 @@
+package com.gmail.vangnamngo.scriptlangtest.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the count, total and maximum of a measured value, usually a duration in nanoseconds. Safe to update from any
+ * number of threads at once.
+ */
+public final class Timer {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The average of every recorded value, or 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        long c = count.sum();
+        return c == 0 ? 0 : (double) total.sum() / c;
+    }
+
+    public void reset() {
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " total=" + getTotal() + " mean=" + String.format("%.1f", getMean()) + " max=" + getMax();
+    }
+}
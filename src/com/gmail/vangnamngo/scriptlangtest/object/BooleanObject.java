@@ -0,0 +1,32 @@
+package com.gmail.vangnamngo.scriptlangtest.object;
+
+public class BooleanObject extends AbstractObject {
+
+    public final static BooleanObject TRUE = new BooleanObject(true);
+    public final static BooleanObject FALSE = new BooleanObject(false);
+
+    public final boolean value;
+
+    public BooleanObject(boolean value) {
+        this.value = value;
+    }
+
+    public static BooleanObject valueOf(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BooleanObject && ((BooleanObject) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Boolean.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return Boolean.toString(value);
+    }
+}
@@ -0,0 +1,25 @@
+package com.gmail.vangnamngo.scriptlangtest.object;
+
+public class CharObject extends AbstractObject {
+
+    public final char value;
+
+    public CharObject(char value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharObject && ((CharObject) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Character.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,25 @@
+package com.gmail.vangnamngo.scriptlangtest.object;
+
+public class DecimalObject extends AbstractObject {
+
+    public final double value;
+
+    public DecimalObject(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DecimalObject && Double.compare(((DecimalObject) o).value, value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return Double.toString(value);
+    }
+}
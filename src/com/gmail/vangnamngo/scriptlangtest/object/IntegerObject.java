@@ -0,0 +1,25 @@
+package com.gmail.vangnamngo.scriptlangtest.object;
+
+public class IntegerObject extends AbstractObject {
+
+    public final int value;
+
+    public IntegerObject(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IntegerObject && ((IntegerObject) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(value);
+    }
+}
@@ -1,4 +1,9 @@
 package com.gmail.vangnamngo.scriptlangtest.object;
 
 public class NullObject extends AbstractObject {
+
+    @Override
+    public String toString() {
+        return "null";
+    }
 }
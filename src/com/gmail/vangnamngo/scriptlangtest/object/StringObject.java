@@ -0,0 +1,25 @@
+package com.gmail.vangnamngo.scriptlangtest.object;
+
+public class StringObject extends AbstractObject {
+
+    public final String value;
+
+    public StringObject(String value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StringObject && ((StringObject) o).value.equals(value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
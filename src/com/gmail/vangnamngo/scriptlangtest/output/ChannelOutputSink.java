@@ -0,0 +1,217 @@
+package com.gmail.vangnamngo.scriptlangtest.output;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link OutputSink} which encodes text into a set of reusable buffers and writes them to a channel in a single
+ * gathering write whenever its {@link FlushPolicy} says so. Nothing is allocated for each write once the sink has been
+ * created.
+ */
+public class ChannelOutputSink implements OutputSink {
+
+    /**
+     * The default size of each buffer, in bytes.
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * The default number of buffers.
+     */
+    public final static int DEFAULT_BUFFER_COUNT = 4;
+
+    private final WritableByteChannel channel;
+    private final FlushPolicy policy;
+    private final CharsetEncoder encoder;
+
+    private final ByteBuffer[] buffers;
+    private int current = 0;
+    private final char[] chars = new char[1024];
+    private final CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+    private final ScheduledExecutorService timer;
+    private long firstUnflushedWrite = -1;
+    private boolean closed = false;
+
+    /**
+     * Creates a sink which writes UTF-8 to the standard output stream, flushing once 8 KiB is buffered and at the end
+     * of every script.
+     * @return A new sink.
+     */
+    public static ChannelOutputSink forStandardOutput() {
+        return new ChannelOutputSink(Channels.newChannel(new FileOutputStream(FileDescriptor.out)),
+                FlushPolicy.EXPLICIT.onSize(DEFAULT_BUFFER_SIZE).onScriptEnd(),
+                Charset.forName("UTF-8"), DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * @param channel The channel to write to.
+     * @param policy When to flush.
+     * @param charset The charset to encode text with.
+     * @param bufferSize The size of each buffer, in bytes.
+     * @param bufferCount The number of buffers. Only when all of them are full does the sink have to flush.
+     */
+    public ChannelOutputSink(WritableByteChannel channel, FlushPolicy policy, Charset charset, int bufferSize,
+                             int bufferCount) {
+        this.channel = channel;
+        this.policy = policy;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        if (policy.maxDelayMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ChannelOutputSink-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            timer.scheduleWithFixedDelay(this::flushIfDue, policy.maxDelayMillis, policy.maxDelayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        else {
+            timer = null;
+        }
+    }
+
+    @Override
+    public synchronized void write(String str) {
+        encode(str);
+        afterWrite();
+    }
+
+    @Override
+    public synchronized void writeLine(String str) {
+        encode(str);
+        encode("\n");
+        afterWrite();
+    }
+
+    /**
+     * Writes out every buffer. A lone high surrogate at the very end of the output is held back until the next write,
+     * since it can't be encoded on its own.
+     */
+    @Override
+    public synchronized void flush() {
+        int used = current + 1;
+        for (int i = 0; i < used; i++) {
+            buffers[i].flip();
+        }
+        try {
+            if (channel instanceof GatheringByteChannel) {
+                GatheringByteChannel gathering = (GatheringByteChannel) channel;
+                while (buffers[current].hasRemaining()) {
+                    gathering.write(buffers, 0, used);
+                }
+            }
+            else {
+                for (int i = 0; i < used; i++) {
+                    while (buffers[i].hasRemaining()) {
+                        channel.write(buffers[i]);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            for (int i = 0; i < used; i++) {
+                buffers[i].clear();
+            }
+            current = 0;
+            firstUnflushedWrite = -1;
+        }
+    }
+
+    @Override
+    public void scriptFinished() {
+        if (policy.flushOnScriptEnd) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (timer != null) {
+            timer.shutdown();
+        }
+        flush();
+        channel.close();
+    }
+
+    /**
+     * @return The number of bytes currently buffered.
+     */
+    public synchronized int getBufferedBytes() {
+        int total = 0;
+        for (int i = 0; i <= current; i++) {
+            total += buffers[i].position();
+        }
+        return total;
+    }
+
+    private synchronized void flushIfDue() {
+        if (firstUnflushedWrite >= 0 && System.currentTimeMillis() - firstUnflushedWrite >= policy.maxDelayMillis) {
+            flush();
+        }
+    }
+
+    private void afterWrite() {
+        if (firstUnflushedWrite < 0 && policy.maxDelayMillis > 0) {
+            firstUnflushedWrite = System.currentTimeMillis();
+        }
+        if (policy.maxBufferedBytes > 0 && getBufferedBytes() >= policy.maxBufferedBytes) {
+            flush();
+        }
+    }
+
+    // Copies the string into the reusable char buffer a chunk at a time and encodes each chunk.
+    private void encode(String str) {
+        int pos = 0;
+        int length = str.length();
+        while (pos < length) {
+            int n = Math.min(charBuffer.remaining(), length - pos);
+            str.getChars(pos, pos + n, chars, charBuffer.position());
+            charBuffer.position(charBuffer.position() + n);
+            pos += n;
+
+            charBuffer.flip();
+            while (true) {
+                CoderResult result = encoder.encode(charBuffer, buffers[current], false);
+                if (!result.isOverflow()) {
+                    break;
+                }
+                if (current + 1 < buffers.length) {
+                    current++;
+                }
+                else {
+                    flush();
+                }
+            }
+            // Anything left over is part of a surrogate pair, and is kept for the next chunk.
+            charBuffer.compact();
+        }
+    }
+}
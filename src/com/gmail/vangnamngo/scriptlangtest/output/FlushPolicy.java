@@ -0,0 +1,57 @@
+package com.gmail.vangnamngo.scriptlangtest.output;
+
+/**
+ * Decides when a buffering {@link OutputSink} writes out its buffer. A sink always flushes when
+ * {@link OutputSink#flush()} is called, and when its buffer is full. Flush policies are immutable.
+ */
+public final class FlushPolicy {
+
+    /**
+     * Only flushes when explicitly asked to, or when the buffer is full.
+     */
+    public final static FlushPolicy EXPLICIT = new FlushPolicy(0, 0, false);
+
+    /**
+     * The size of the buffer, in bytes, at which to flush. 0 if only a full buffer should trigger a flush.
+     */
+    public final int maxBufferedBytes;
+
+    /**
+     * The longest time, in milliseconds, that output may stay buffered. 0 if output may stay buffered indefinitely.
+     */
+    public final long maxDelayMillis;
+
+    /**
+     * Whether to flush whenever a script finishes.
+     */
+    public final boolean flushOnScriptEnd;
+
+    private FlushPolicy(int maxBufferedBytes, long maxDelayMillis, boolean flushOnScriptEnd) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.maxDelayMillis = maxDelayMillis;
+        this.flushOnScriptEnd = flushOnScriptEnd;
+    }
+
+    /**
+     * @param bytes The number of buffered bytes at which to flush.
+     * @return A copy of this policy which also flushes once the provided number of bytes is buffered.
+     */
+    public FlushPolicy onSize(int bytes) {
+        return new FlushPolicy(bytes, maxDelayMillis, flushOnScriptEnd);
+    }
+
+    /**
+     * @param millis The longest time output may stay buffered.
+     * @return A copy of this policy which also flushes output that has been buffered for the provided time.
+     */
+    public FlushPolicy onDelay(long millis) {
+        return new FlushPolicy(maxBufferedBytes, millis, flushOnScriptEnd);
+    }
+
+    /**
+     * @return A copy of this policy which also flushes whenever a script finishes.
+     */
+    public FlushPolicy onScriptEnd() {
+        return new FlushPolicy(maxBufferedBytes, maxDelayMillis, true);
+    }
+}
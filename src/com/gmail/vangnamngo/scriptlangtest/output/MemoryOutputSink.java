@@ -0,0 +1,41 @@
+package com.gmail.vangnamngo.scriptlangtest.output;
+
+/**
+ * An {@link OutputSink} which keeps all output in memory. Mostly useful for testing.
+ */
+public class MemoryOutputSink implements OutputSink {
+
+    private final StringBuilder output = new StringBuilder();
+
+    @Override
+    public synchronized void write(String str) {
+        output.append(str);
+    }
+
+    @Override
+    public synchronized void writeLine(String str) {
+        output.append(str).append('\n');
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return Everything written to this sink since it was created or last cleared.
+     */
+    public synchronized String getOutput() {
+        return output.toString();
+    }
+
+    /**
+     * Discards everything written to this sink.
+     */
+    public synchronized void clear() {
+        output.setLength(0);
+    }
+}
@@ -0,0 +1,40 @@
+package com.gmail.vangnamngo.scriptlangtest.output;
+
+import java.io.IOException;
+
+/**
+ * Where the output of scripts, such as that of {@code echo} and {@code echoln}, is written to. Each
+ * {@link com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime} has its own sink. Sinks must be thread-safe, since
+ * every script in a runtime writes to the same one.
+ */
+public interface OutputSink extends AutoCloseable {
+
+    /**
+     * Writes text as-is.
+     * @param str The text to write.
+     */
+    void write(String str);
+
+    /**
+     * Writes text followed by a new line.
+     * @param str The text to write.
+     */
+    void writeLine(String str);
+
+    /**
+     * Writes out anything that is still buffered.
+     */
+    void flush();
+
+    /**
+     * Called whenever a script finishes executing. Sinks that buffer may use this to flush.
+     */
+    default void scriptFinished() {
+    }
+
+    /**
+     * Flushes this sink and releases anything it holds onto.
+     */
+    @Override
+    void close() throws IOException;
+}
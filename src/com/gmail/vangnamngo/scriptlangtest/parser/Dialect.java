@@ -0,0 +1,110 @@
+package com.gmail.vangnamngo.scriptlangtest.parser;
+
+import com.gmail.vangnamngo.scriptlangtest.lexer.EToken;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the keywords and line continuation rules used by a {@link FileLexer}. Each
+ * {@link com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime} owns its own dialect, so adding a keyword to one
+ * runtime will never affect another.
+ */
+public class Dialect {
+    private final Set<String> keywords = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // Replaced as a whole whenever it changes, since the set is read far more often than it is written.
+    private volatile Set<EToken> lineContinuationTokens = EnumSet.noneOf(EToken.class);
+
+    /**
+     * Creates a dialect with all of the built-in keywords and line continuation tokens.
+     */
+    public Dialect() {
+        // Protection modifiers
+        keywords.add("public");
+        keywords.add("group");
+        keywords.add("directory");
+        keywords.add("private");
+
+        // Flow
+        keywords.add("if");
+        keywords.add("elif");
+        keywords.add("else");
+        keywords.add("for");
+        keywords.add("while");
+        keywords.add("continue");
+        keywords.add("break");
+        keywords.add("return");
+        keywords.add("switch");
+        keywords.add("case");
+        keywords.add("default");
+
+        // Data types
+        keywords.add("bool");
+        keywords.add("char");
+        keywords.add("int");
+        keywords.add("dec");
+        keywords.add("string");
+
+        // End of line continuators
+        lineContinuationTokens = EnumSet.of(EToken.OPERATOR, EToken.SET_OPERATOR, EToken.COMPARATOR, EToken.AND,
+                EToken.OR, EToken.ASSIGN);
+    }
+
+    /**
+     * Creates a copy of another dialect.
+     * @param other The dialect to copy.
+     */
+    public Dialect(Dialect other) {
+        keywords.addAll(other.keywords);
+        lineContinuationTokens = EnumSet.copyOf(other.lineContinuationTokens);
+    }
+
+    public boolean addKeyword(String keyword) {
+        return keywords.add(keyword);
+    }
+
+    public boolean isKeywordKnown(String keyword) {
+        return keywords.contains(keyword);
+    }
+
+    public boolean areAllKeywordsKnown(Collection<? extends String> keyword) {
+        return keywords.containsAll(keyword);
+    }
+
+    public synchronized boolean addLineContinuationToken(EToken tokenType) {
+        if (lineContinuationTokens.contains(tokenType)) {
+            return false;
+        }
+        EnumSet<EToken> set = EnumSet.copyOf(lineContinuationTokens);
+        set.add(tokenType);
+        lineContinuationTokens = set;
+        return true;
+    }
+
+    /**
+     * @return A snapshot of every keyword in this dialect, built-in or added.
+     */
+    public Set<String> getKeywords() {
+        return Collections.unmodifiableSet(new HashSet<>(keywords));
+    }
+
+    /**
+     * @return A snapshot of every line continuation token in this dialect.
+     */
+    public Set<EToken> getLineContinuationTokens() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(lineContinuationTokens));
+    }
+
+    public boolean isLineContinuationToken(EToken tokenType) {
+        return tokenType != null && lineContinuationTokens.contains(tokenType);
+    }
+
+    public boolean areLineContinuationTokens(Collection<EToken> tokenTypes) {
+        return lineContinuationTokens.containsAll(tokenTypes);
+    }
+}
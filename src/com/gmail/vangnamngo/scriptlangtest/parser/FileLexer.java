@@ -3,73 +3,50 @@ package com.gmail.vangnamngo.scriptlangtest.parser;
 import com.gmail.vangnamngo.scriptlangtest.lexer.LexerToken;
 import com.gmail.vangnamngo.scriptlangtest.lexer.EToken;
 import com.gmail.vangnamngo.scriptlangtest.exception.TokenParseException;
+import com.gmail.vangnamngo.scriptlangtest.metrics.ScriptMetrics;
 import com.gmail.vangnamngo.scriptlangtest.utility.StringUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 public class FileLexer {
-    private final static Set<String> KEYWORD_MAP = new HashSet<>();
-    private final static Set<EToken> LINE_CONTINUATION_TOKENS = new HashSet<>();
-
-    static {
-        // Protection modifiers
-        KEYWORD_MAP.add("public");
-        KEYWORD_MAP.add("group");
-        KEYWORD_MAP.add("directory");
-        KEYWORD_MAP.add("private");
-
-        // Flow
-        KEYWORD_MAP.add("if");
-        KEYWORD_MAP.add("elif");
-        KEYWORD_MAP.add("else");
-        KEYWORD_MAP.add("for");
-        KEYWORD_MAP.add("while");
-        KEYWORD_MAP.add("continue");
-        KEYWORD_MAP.add("break");
-        KEYWORD_MAP.add("return");
-        KEYWORD_MAP.add("switch");
-        KEYWORD_MAP.add("case");
-        KEYWORD_MAP.add("default");
-
-        // Data types
-        KEYWORD_MAP.add("bool");
-        KEYWORD_MAP.add("char");
-        KEYWORD_MAP.add("int");
-        KEYWORD_MAP.add("dec");
-        KEYWORD_MAP.add("string");
-
-        // End of line continuators
-        LINE_CONTINUATION_TOKENS.add(EToken.OPERATOR);
-        LINE_CONTINUATION_TOKENS.add(EToken.SET_OPERATOR);
-        LINE_CONTINUATION_TOKENS.add(EToken.COMPARATOR);
-        LINE_CONTINUATION_TOKENS.add(EToken.AND);
-        LINE_CONTINUATION_TOKENS.add(EToken.OR);
-        LINE_CONTINUATION_TOKENS.add(EToken.ASSIGN);
-    }
-
-    protected static boolean addKeyword(String keyword) {
-        return KEYWORD_MAP.add(keyword);
-    }
 
-    protected static boolean isKeywordKnown(String keyword) {
-        return KEYWORD_MAP.contains(keyword);
-    }
+    /**
+     * The keywords and line continuation rules this lexer follows.
+     */
+    protected final Dialect dialect;
 
-    protected static boolean areAllKeywordsKnown(Collection<? extends String> keyword) {
-        return KEYWORD_MAP.containsAll(keyword);
-    }
+    private final ScriptMetrics metrics;
 
-    protected static boolean addLineContinuationToken(EToken tokenType) {
-        return LINE_CONTINUATION_TOKENS.add(tokenType);
+    /**
+     * Creates a lexer that only recognizes the built-in keywords.
+     */
+    public FileLexer() {
+        this(new Dialect());
     }
 
-    protected static boolean isLineContinuationToken(EToken tokenType) {
-        return LINE_CONTINUATION_TOKENS.contains(tokenType);
+    /**
+     * Creates a lexer for a specific dialect.
+     * @param dialect The dialect to follow. Usually the one owned by a
+     *                {@link com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime}.
+     */
+    public FileLexer(Dialect dialect) {
+        this(dialect, null);
     }
 
-    protected static boolean areLineContinuationTokens(Collection<EToken> tokenTypes) {
-        return LINE_CONTINUATION_TOKENS.containsAll(tokenTypes);
+    /**
+     * Creates a lexer for a specific dialect which reports how long each file took to tokenize.
+     * @param dialect The dialect to follow.
+     * @param metrics The metrics to report to, or null to report nothing.
+     */
+    public FileLexer(Dialect dialect, ScriptMetrics metrics) {
+        this.dialect = dialect;
+        this.metrics = metrics;
     }
 
     private List<LexerToken<?>> tList = null;
@@ -116,6 +93,9 @@ public class FileLexer {
     private int indent = 0;
     private int spacesInIndent = 0;
 
+    // How many bytes the header scan reads at a time. Headers are short, so there is no point in reading far past them.
+    private final static int HEADER_BUFFER_SIZE = 1024;
+
     /**
      * Attempts to tokenize the provided file. This is effectively {@code tokenize(file, false)}.
      * @see #tokenize(File, boolean)
@@ -136,6 +116,8 @@ public class FileLexer {
             return tList;
         }
 
+        boolean measure = metrics != null && metrics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
         tList = new ArrayList<>();
         try (Scanner scan = new Scanner(file)) {
             while (scan.hasNextLine()) {
@@ -196,7 +178,8 @@ public class FileLexer {
                             matchedToken = tryOperatorCommentOrLogic();
                             break;
                         default:
-                            if (StringUtils.isAlphanumericChar(c)) {
+                            if (StringUtils.isAlphanumericChar(c) || (c == '.' && canLookAhead()
+                                    && StringUtils.isNumericChar(currStr.charAt(col + 1)))) {
                                 matchedToken = tryNumKeywordOrIdentifier();
                             }
                             else {
@@ -222,9 +205,53 @@ public class FileLexer {
             return null;
         }
         wasTokenized = true;
+        if (measure) {
+            metrics.recordLex(file.getName(), tList.size(), System.nanoTime() - start);
+        }
         return tList;
     }
 
+    /**
+     * Tokenizes only the headers at the top of a file, such as {@code #type event}, without lexing the rest of it.
+     * Reading stops at the first line that is not blank, a {@code //} comment or a header, so usually only the first
+     * block of the file is ever read. This does not affect what {@link #tokenize(File)} returns.
+     * @param file The file to read the headers of.
+     * @return A {@link EToken#HEADER} token followed by its {@link EToken#STRING} values for each header, in order.
+     * @throws IOException If the file cannot be read.
+     * @throws TokenParseException If a header cannot be tokenized.
+     */
+    public final List<LexerToken<?>> tokenizeHeaders(Path file) throws IOException, TokenParseException {
+        List<LexerToken<?>> savedTokens = tList;
+        int savedLine = line;
+        tList = new ArrayList<>();
+        line = 0;
+        try (HeaderReader reader = new HeaderReader(Files.newInputStream(file))) {
+            while ((currStr = reader.readLine()) != null) {
+                line++;
+                col = 0;
+                while (col < currStr.length() && Character.isWhitespace(currStr.charAt(col))) {
+                    col++;
+                }
+                if (col == currStr.length() || currStr.startsWith("//", col)) {
+                    continue;
+                }
+                if (currStr.charAt(col) != '#') {
+                    break;
+                }
+                if (col + 1 == currStr.length() || !tryHeader()) {
+                    throw new TokenParseException("Illegal character on line " + line + ": \"#\"");
+                }
+            }
+            return tList;
+        }
+        finally {
+            tList = savedTokens;
+            line = savedLine;
+            currStr = null;
+            col = 0;
+        }
+    }
+
     private boolean shouldSkipNewlineAndIndents() {
         boolean hadIgnoringToken = newLineIgnoringToken != null;
         if (newLineIgnoringTokenIsVolatile) {
@@ -233,14 +260,14 @@ public class FileLexer {
         }
 
         EToken lastToken = tList.size() >= 1 ? tList.get(tList.size() - 1).tokenType : null;
-        return hadIgnoringToken || LINE_CONTINUATION_TOKENS.contains(lastToken);
+        return hadIgnoringToken || dialect.isLineContinuationToken(lastToken);
     }
 
     private void calculateIndent() throws TokenParseException {
-        char c = currStr.charAt(col);
         int indent = 0;
         int spaces = 0;
-        while (Character.isWhitespace(c) && col < currStr.length()) {
+        while (col < currStr.length() && Character.isWhitespace(currStr.charAt(col))) {
+            char c = currStr.charAt(col);
             if (c == '\t') {
                 indent++;
             }
@@ -250,23 +277,26 @@ public class FileLexer {
             else {
                 throw new TokenParseException("Illegal whitespace character on line " + line);
             }
-            c = currStr.charAt(++col);
+            col++;
         }
 
-        if (col >= currStr.length() || (spaces == 0 && indent == 0)) {
+        // Blank lines and lines that only hold a comment don't change the indentation.
+        if (col >= currStr.length() || currStr.startsWith("//", col) || currStr.startsWith("/*", col)) {
             return;
         }
 
-        // Dynamically determine the number of spaces in an indent by the first indentation in the script
-        if (spacesInIndent == 0) {
-            spacesInIndent = spaces;
-        }
-        // Always ensure indentation consistency within a script
-        if (spaces % spacesInIndent != 0) {
-            throw new TokenParseException("Inconsistent indentation on line " + line);
-        }
-        else {
-            indent += spaces / spacesInIndent;
+        if (spaces > 0) {
+            // Dynamically determine the number of spaces in an indent by the first indentation in the script
+            if (spacesInIndent == 0) {
+                spacesInIndent = spaces;
+            }
+            // Always ensure indentation consistency within a script
+            if (spaces % spacesInIndent != 0) {
+                throw new TokenParseException("Inconsistent indentation on line " + line);
+            }
+            else {
+                indent += spaces / spacesInIndent;
+            }
         }
 
         if (this.indent != indent) {
@@ -432,7 +462,7 @@ public class FileLexer {
                     token = new LexerToken<>(EToken.BOOLEAN, false, line);
                     break;
                 default:
-                    EToken tokenEnum = KEYWORD_MAP.contains(completedVal) ? EToken.KEYWORD : EToken.IDENTIFIER;
+                    EToken tokenEnum = dialect.isKeywordKnown(completedVal) ? EToken.KEYWORD : EToken.IDENTIFIER;
                     token = new LexerToken<>(tokenEnum, completedVal, line);
             }
         }
@@ -603,4 +633,75 @@ public class FileLexer {
     private boolean canLookAhead() {
         return col < currStr.length() - 1;
     }
+
+    /*
+     Reads lines of UTF-8 text HEADER_BUFFER_SIZE bytes at a time. A Reader would decode a full buffer of its own
+     ahead of the lines asked for, whatever size of buffer is wrapped around it. Splitting on the bytes themselves is
+     safe, since a new line never appears inside a multi-byte UTF-8 character.
+     */
+    private final static class HeaderReader implements AutoCloseable {
+        private final InputStream in;
+        private byte[] buffer = new byte[HEADER_BUFFER_SIZE];
+        // The bytes that have been read but not returned yet.
+        private int start = 0;
+        private int end = 0;
+        private boolean eof = false;
+
+        private HeaderReader(InputStream in) {
+            this.in = in;
+        }
+
+        // Returns the next line without its line terminator, or null at the end of the file.
+        private String readLine() throws IOException {
+            // How many of the unread bytes are known not to be a new line. Filling moves them, but keeps their order.
+            int searched = 0;
+            while (true) {
+                for (int i = start + searched; i < end; i++) {
+                    if (buffer[i] == '\n') {
+                        return take(i, i + 1);
+                    }
+                }
+                if (eof) {
+                    return start < end ? take(end, end) : null;
+                }
+                searched = end - start;
+                fill();
+            }
+        }
+
+        // Moves the unread bytes to the front of the buffer, growing it only for lines longer than the buffer, then
+        // reads more bytes after them.
+        private void fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                eof = true;
+            }
+            else {
+                end += read;
+            }
+        }
+
+        private String take(int lineEnd, int next) {
+            int length = lineEnd - start;
+            if (length > 0 && buffer[lineEnd - 1] == '\r') {
+                length--;
+            }
+            String line = new String(buffer, start, length, StandardCharsets.UTF_8);
+            start = next;
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
 }
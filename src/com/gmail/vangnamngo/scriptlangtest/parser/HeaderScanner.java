@@ -0,0 +1,132 @@
+package com.gmail.vangnamngo.scriptlangtest.parser;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.TokenParseException;
+import com.gmail.vangnamngo.scriptlangtest.lexer.LexerToken;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads the headers of every script in a directory tree, so that scripts can be sorted by type without being lexed or
+ * compiled. Only the start of each file is read, using {@link FileLexer#tokenizeHeaders(Path)}, and files are read on
+ * several threads at once, so scanning a large tree is mostly a matter of waiting on the disk.
+ *
+ * <p>Scanners hold no state between scans and can be shared between threads.</p>
+ */
+public class HeaderScanner {
+
+    private final static String EXTENSION = ".slt";
+
+    private final Dialect dialect;
+    private final int parallelism;
+
+    /**
+     * Creates a scanner which reads up to twice as many files at a time as there are processors, since most of the
+     * time is spent waiting on reads.
+     * @param dialect The dialect the scripts are written in.
+     */
+    public HeaderScanner(Dialect dialect) {
+        this(dialect, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param dialect The dialect the scripts are written in.
+     * @param parallelism How many files to read at a time.
+     */
+    public HeaderScanner(Dialect dialect, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.dialect = dialect;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reads the headers of every script in a directory and its subdirectories.
+     * @param directory The directory to scan.
+     * @param failed Told about each script whose headers could not be read, which is then left out of the result. May
+     *               be called from several threads at once. If null, failures are ignored.
+     * @return The headers of each script, as returned by {@link FileLexer#tokenizeHeaders(Path)}, in the order the
+     *         directory tree was walked. Scripts without headers are mapped to an empty list.
+     * @throws IOException If the directory tree cannot be walked.
+     */
+    public Map<Path, List<LexerToken<?>>> scan(Path directory, BiConsumer<Path, Exception> failed) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(p -> p.toString().endsWith(EXTENSION) && Files.isRegularFile(p))
+                    .collect(Collectors.toList());
+        }
+
+        // Each worker claims the next file until there are none left, so slow files don't hold up a fixed share.
+        List<List<LexerToken<?>>> headers = new ArrayList<>(Collections.nCopies(files.size(), null));
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            FileLexer lexer = new FileLexer(dialect);
+            int i;
+            while ((i = next.getAndIncrement()) < files.size()) {
+                try {
+                    headers.set(i, lexer.tokenizeHeaders(files.get(i)));
+                }
+                catch (IOException | TokenParseException e) {
+                    if (failed != null) {
+                        failed.accept(files.get(i), e);
+                    }
+                }
+            }
+        };
+
+        int threads = Math.min(parallelism, files.size());
+        if (threads <= 1) {
+            worker.run();
+        }
+        else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads - 1, r -> {
+                Thread t = new Thread(r, "HeaderScanner");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threads - 1; i++) {
+                    futures.add(executor.submit(worker));
+                }
+                worker.run();
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while scanning " + directory, e);
+            }
+            catch (ExecutionException e) {
+                throw new IOException("Could not scan " + directory, e.getCause());
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        Map<Path, List<LexerToken<?>>> result = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (headers.get(i) != null) {
+                result.put(files.get(i), headers.get(i));
+            }
+        }
+        return result;
+    }
+}
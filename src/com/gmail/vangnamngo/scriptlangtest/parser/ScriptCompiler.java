@@ -0,0 +1,867 @@
+package com.gmail.vangnamngo.scriptlangtest.parser;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.CompileException;
+import com.gmail.vangnamngo.scriptlangtest.exception.ScriptExecutionException;
+import com.gmail.vangnamngo.scriptlangtest.exception.TokenParseException;
+import com.gmail.vangnamngo.scriptlangtest.lexer.EToken;
+import com.gmail.vangnamngo.scriptlangtest.lexer.LexerToken;
+import com.gmail.vangnamngo.scriptlangtest.metrics.ScriptMetrics;
+import com.gmail.vangnamngo.scriptlangtest.script.ConstantPool;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles the tokens produced by a {@link FileLexer} into a {@link Script}. Each statement becomes one compiled line,
+ * and blocks are flattened into conditional and unconditional jumps, so that the compiled lines can be executed one
+ * after another by a {@link com.gmail.vangnamngo.scriptlangtest.execution.LineInterpreter}.
+ *
+ * <p>Compiled lines only hold strings, so they can be stored and read back as they are. The first element of a line
+ * is its operation:</p>
+ * <ul>
+ *     <li>{@code decl <modifier> <type> <name> [expression...]} declares a variable in the current context;</li>
+ *     <li>{@code set <name> <operator> <expression...>} assigns to a variable, where the operator is {@code =} or the
+ *         operator of a compound assignment such as {@code +};</li>
+ *     <li>{@code call <name> <count> <expression...>} calls a command with the results of count expressions;</li>
+ *     <li>{@code jumpf <expression...>} jumps to {@link Script.ExtendedData#lineToJumpTo()} if the expression is
+ *         false;</li>
+ *     <li>{@code jump} always jumps to {@link Script.ExtendedData#lineToJumpTo()};</li>
+ *     <li>{@code switch <kind> <count> <key...> <expression...>} jumps to the entry of
+ *         {@link Script.ExtendedData#getJumpTable()} whose key equals the expression, or to
+ *         {@link Script.ExtendedData#lineToJumpTo()} if none does, where the kind is {@code int}, {@code char} or
+ *         {@code string} and char keys are stored as their code; and</li>
+ *     <li>{@code end} ends the script.</li>
+ * </ul>
+ *
+ * <p>Expressions are stored in postfix order, one element per operand or operator. The first character of each
+ * element gives its kind: {@code i}, {@code d}, {@code s}, {@code c} and {@code b} for int, dec, string, char and bool
+ * literals, {@code v} for a variable, {@code o} for a binary operator and {@code u} for a unary operator. Binary
+ * operators are applied from left to right with no precedence, so {@code 1 + 51 % 2} is {@code (1 + 51) % 2}.</p>
+ *
+ * <p>A {@code switch} holds an indented list of {@code case} blocks, each with one or more literals of the same type,
+ * and at most one {@code default} block. Cases never fall through, and {@code break} and {@code continue} inside them
+ * apply to the enclosing loop:</p>
+ * <pre>
+ * switch (command):
+ *     case "start", "resume":
+ *         echoln("Running")
+ *     default:
+ *         echoln("Stopped")
+ * </pre>
+ *
+ * <p>A compiler can be set to compile lazily, in which case only the top level of a script is compiled up front. The
+ * declarations, assignments, calls and conditions inside each indented block are only compiled the first time the
+ * block is entered, which makes large scripts with rarely taken branches runnable sooner and keeps cold code from
+ * taking up memory. Everything else, such as jumps, is still laid out up front, so a block always compiles into the
+ * same lines. Since blocks are only checked once they are entered, mistakes in them surface as a
+ * {@link ScriptExecutionException} rather than a {@link CompileException}.</p>
+ *
+ * <p>Literals are interned in a {@link ConstantPool} when one is given, so that scripts repeating the same literals
+ * share them rather than each holding a copy.</p>
+ *
+ * <p>Compilers are not thread-safe, but are cheap to create.</p>
+ */
+public class ScriptCompiler {
+
+    public final static String DECLARE = "decl";
+    public final static String SET = "set";
+    public final static String CALL = "call";
+    public final static String JUMP_IF_FALSE = "jumpf";
+    public final static String JUMP = "jump";
+    public final static String SWITCH = "switch";
+    public final static String END = "end";
+
+    // The kinds of lines that can be left for later when compiling lazily.
+    private final static int DEFERRED_STATEMENT = 0;
+    private final static int DEFERRED_CONDITION = 1;
+
+    private final Dialect dialect;
+    private final ScriptMetrics metrics;
+    private final ConstantPool constants;
+    private boolean lazy = false;
+
+    private List<LexerToken<?>> tokens;
+    private int pos;
+    private List<Script.ExtendedData> lines;
+    private List<Integer> sourceLines;
+    private final Deque<Loop> loops = new ArrayDeque<>();
+
+    // Only used when compiling lazily. Lines in block -1, the top level, are never deferred.
+    private int currentBlock;
+    private int blockCount;
+    private List<int[]> deferred;
+
+    /**
+     * Creates a compiler for a dialect.
+     * @param dialect The dialect the scripts are written in.
+     * @param metrics The metrics to report compile times to, or null to report nothing.
+     */
+    public ScriptCompiler(Dialect dialect, ScriptMetrics metrics) {
+        this(dialect, metrics, null);
+    }
+
+    /**
+     * Creates a compiler for a dialect which shares the literals of the scripts it compiles.
+     * @param dialect The dialect the scripts are written in.
+     * @param metrics The metrics to report compile times to, or null to report nothing.
+     * @param constants The pool to intern literals in, or null to not intern them.
+     */
+    public ScriptCompiler(Dialect dialect, ScriptMetrics metrics, ConstantPool constants) {
+        this.dialect = dialect;
+        this.metrics = metrics;
+        this.constants = constants;
+    }
+
+    /**
+     * @return True if blocks are only compiled when they are first entered.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Sets whether blocks are only compiled when they are first entered.
+     * @param lazy True to compile lazily.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Lexes and compiles a script file. The script is named after the file, without its extension.
+     * @param file The file to compile.
+     * @param group The group the script will belong to.
+     * @return The compiled script.
+     * @throws IOException If the file cannot be read.
+     * @throws CompileException If the file is not a valid script.
+     */
+    public Script compile(File file, ScriptGroup group) throws IOException, CompileException {
+        List<String> source = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        List<LexerToken<?>> tokens;
+        try {
+            tokens = new FileLexer(dialect, metrics).tokenize(file);
+        }
+        catch (TokenParseException e) {
+            throw new CompileException(e.getMessage());
+        }
+        if (tokens == null) {
+            throw new CompileException("Could not tokenize " + file);
+        }
+
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        String directory = parent != null ? parent.getPath() + File.separator : "";
+        return compile(name, directory, source.toArray(new String[0]), tokens, group);
+    }
+
+    /**
+     * Compiles tokens that have already been lexed.
+     * @param name The name of the script.
+     * @param directory The directory of the script.
+     * @param source The source code of the script, one line per element.
+     * @param tokens The tokens of the source code.
+     * @param group The group the script will belong to.
+     * @return The compiled script.
+     * @throws CompileException If the tokens do not form a valid script.
+     */
+    public Script compile(String name, String directory, String[] source, List<LexerToken<?>> tokens,
+                          ScriptGroup group) throws CompileException {
+        boolean measure = metrics != null && metrics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
+
+        this.tokens = tokens;
+        this.pos = 0;
+        this.lines = new ArrayList<>();
+        this.sourceLines = new ArrayList<>();
+        this.currentBlock = -1;
+        this.blockCount = 0;
+        this.deferred = new ArrayList<>();
+        loops.clear();
+        try {
+            compileBlock(false);
+
+            int[] lineTable = new int[sourceLines.size()];
+            for (int i = 0; i < lineTable.length; i++) {
+                lineTable[i] = sourceLines.get(i);
+            }
+            Script.ExtendedData[] compiled = lines.toArray(new Script.ExtendedData[0]);
+            DeferredBlocks blocks = deferred.isEmpty() ? null
+                    : new DeferredBlocks(dialect, constants, tokens, compiled, deferred, blockCount);
+            Script script = new Script(name, directory, source, compiled, lineTable, group, blocks);
+            if (measure) {
+                metrics.recordCompile(script, System.nanoTime() - start);
+            }
+            return script;
+        }
+        finally {
+            this.tokens = null;
+            this.lines = null;
+            this.sourceLines = null;
+            this.deferred = null;
+        }
+    }
+
+    // ========================================================================
+    // Statements
+    // ========================================================================
+
+    private void compileBlock(boolean nested) throws CompileException {
+        while (true) {
+            LexerToken<?> t = peek();
+            switch (t.tokenType) {
+                case EOF:
+                    if (nested) {
+                        throw new CompileException("Unexpected end of script on line " + t.line);
+                    }
+                    return;
+                case NEWLINE:
+                    pos++;
+                    break;
+                case DEDENT:
+                    if (!nested) {
+                        throw new CompileException("Unexpected dedent on line " + t.line);
+                    }
+                    pos++;
+                    return;
+                case INDENT:
+                    throw new CompileException("Unexpected indentation on line " + t.line);
+                default:
+                    compileStatement();
+            }
+        }
+    }
+
+    private void compileStatement() throws CompileException {
+        if (lazy && currentBlock >= 0 && isDeferrable(peek())) {
+            int start = pos;
+            int line = peek().line;
+            while (peek().tokenType != EToken.NEWLINE && peek().tokenType != EToken.DEDENT
+                    && peek().tokenType != EToken.EOF) {
+                pos++;
+            }
+            // The end of the statement is kept as well, since compiling it checks that it ends there.
+            emitDeferred(line, start, Math.min(pos + 1, tokens.size()), DEFERRED_STATEMENT);
+            return;
+        }
+        LexerToken<?> t = next();
+        int line = t.line;
+        switch (t.tokenType) {
+            case HEADER:
+                // Headers are read by whatever loads the script, and don't compile to anything.
+                while (peek().tokenType != EToken.NEWLINE && peek().tokenType != EToken.EOF) {
+                    pos++;
+                }
+                return;
+            case KEYWORD:
+                compileKeyword((String) t.token, line);
+                return;
+            case IDENTIFIER:
+                compileIdentifier((String) t.token, line);
+                expectEndOfStatement();
+                return;
+            default:
+                throw unexpected(t);
+        }
+    }
+
+    private void compileKeyword(String keyword, int line) throws CompileException {
+        switch (keyword) {
+            case "public":
+            case "group":
+            case "directory":
+            case "private":
+                LexerToken<?> type = next();
+                if (type.tokenType != EToken.KEYWORD || !isType((String) type.token)) {
+                    throw new CompileException("Expected a type after \"" + keyword + "\" on line " + line);
+                }
+                compileDeclaration(keyword, (String) type.token, line);
+                expectEndOfStatement();
+                return;
+            case "bool":
+            case "char":
+            case "int":
+            case "dec":
+            case "string":
+                compileDeclaration("public", keyword, line);
+                expectEndOfStatement();
+                return;
+            case "if":
+                compileIf(line);
+                return;
+            case "while":
+                compileWhile(line);
+                return;
+            case "switch":
+                compileSwitch(line);
+                return;
+            case "case":
+            case "default":
+                throw new CompileException("\"" + keyword + "\" outside of a switch on line " + line);
+            case "break":
+                requireLoop(keyword, line).breaks.add(emit(line, JUMP));
+                expectEndOfStatement();
+                return;
+            case "continue":
+                patch(emit(line, JUMP), requireLoop(keyword, line).top);
+                expectEndOfStatement();
+                return;
+            case "return":
+                emit(line, END);
+                expectEndOfStatement();
+                return;
+            default:
+                throw new CompileException("\"" + keyword + "\" is not supported yet, on line " + line);
+        }
+    }
+
+    private void compileDeclaration(String modifier, String type, int line) throws CompileException {
+        LexerToken<?> name = next();
+        if (name.tokenType != EToken.IDENTIFIER) {
+            throw new CompileException("Expected a variable name on line " + line);
+        }
+        List<String> out = new ArrayList<>();
+        out.add(DECLARE);
+        out.add(modifier);
+        out.add(type);
+        out.add((String) name.token);
+        if (peek().tokenType == EToken.ASSIGN) {
+            pos++;
+            compileExpression(out);
+        }
+        emit(line, out);
+    }
+
+    private void compileIdentifier(String name, int line) throws CompileException {
+        LexerToken<?> t = next();
+        List<String> out = new ArrayList<>();
+        switch (t.tokenType) {
+            case L_PAREN:
+                out.add(CALL);
+                out.add(name);
+                out.add(null);
+                int count = 0;
+                if (peek().tokenType == EToken.R_PAREN) {
+                    pos++;
+                }
+                else {
+                    while (true) {
+                        compileExpression(out);
+                        count++;
+                        LexerToken<?> sep = next();
+                        if (sep.tokenType == EToken.R_PAREN) {
+                            break;
+                        }
+                        if (sep.tokenType != EToken.COMMA) {
+                            throw unexpected(sep);
+                        }
+                    }
+                }
+                out.set(2, Integer.toString(count));
+                break;
+            case ASSIGN:
+                out.add(SET);
+                out.add(name);
+                out.add("=");
+                compileExpression(out);
+                break;
+            case SET_OPERATOR:
+                out.add(SET);
+                out.add(name);
+                out.add(((String) t.token).substring(0, 1));
+                compileExpression(out);
+                break;
+            default:
+                throw unexpected(t);
+        }
+        emit(line, out);
+    }
+
+    private void compileIf(int line) throws CompileException {
+        List<Integer> exits = new ArrayList<>();
+        int condition = compileCondition(line);
+        compileBody();
+
+        while (peekKeyword("elif") || peekKeyword("else")) {
+            LexerToken<?> t = next();
+            exits.add(emit(t.line, JUMP));
+            patch(condition, nextLine());
+            if ("elif".equals(t.token)) {
+                condition = compileCondition(t.line);
+                compileBody();
+            }
+            else {
+                condition = -1;
+                expect(EToken.COLON);
+                compileBody();
+                break;
+            }
+        }
+
+        int end = nextLine();
+        if (condition > 0) {
+            patch(condition, end);
+        }
+        for (int exit : exits) {
+            patch(exit, end);
+        }
+    }
+
+    private void compileWhile(int line) throws CompileException {
+        Loop loop = new Loop(nextLine());
+        int condition = compileCondition(line);
+        loops.push(loop);
+        try {
+            compileBody();
+        }
+        finally {
+            loops.pop();
+        }
+        patch(emit(line, JUMP), loop.top);
+
+        int end = nextLine();
+        patch(condition, end);
+        for (int exit : loop.breaks) {
+            patch(exit, end);
+        }
+    }
+
+    private void compileSwitch(int line) throws CompileException {
+        List<String> value = new ArrayList<>();
+        compileExpression(value);
+        expect(EToken.COLON);
+        expect(EToken.NEWLINE);
+        while (peek().tokenType == EToken.NEWLINE) {
+            pos++;
+        }
+        expect(EToken.INDENT);
+        // The keys are only known once every case has been read, so the line is filled in at the end.
+        int switchLine = emit(line);
+
+        String kind = null;
+        List<String> keys = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        List<Integer> targets = new ArrayList<>();
+        List<Integer> exits = new ArrayList<>();
+        int defaultTarget = -1;
+        while (true) {
+            LexerToken<?> t = next();
+            if (t.tokenType == EToken.NEWLINE) {
+                continue;
+            }
+            if (t.tokenType == EToken.DEDENT) {
+                break;
+            }
+            if (t.tokenType == EToken.KEYWORD && "case".equals(t.token)) {
+                while (true) {
+                    LexerToken<?> label = next();
+                    String labelKind = caseKind(label);
+                    String key = caseKey(label);
+                    if (kind == null) {
+                        kind = labelKind;
+                    }
+                    else if (!kind.equals(labelKind)) {
+                        throw new CompileException("Expected a " + kind + " case on line " + label.line);
+                    }
+                    if (!seen.add(key)) {
+                        throw new CompileException("Duplicate case on line " + label.line);
+                    }
+                    keys.add(intern(key));
+                    targets.add(nextLine());
+                    if (peek().tokenType != EToken.COMMA) {
+                        break;
+                    }
+                    pos++;
+                }
+            }
+            else if (t.tokenType == EToken.KEYWORD && "default".equals(t.token)) {
+                if (defaultTarget > 0) {
+                    throw new CompileException("Duplicate default on line " + t.line);
+                }
+                defaultTarget = nextLine();
+            }
+            else {
+                throw unexpected(t);
+            }
+            expect(EToken.COLON);
+            compileBody();
+            exits.add(emit(t.line, JUMP));
+        }
+
+        List<String> out = new ArrayList<>();
+        out.add(SWITCH);
+        out.add(kind != null ? kind : "int");
+        out.add(Integer.toString(keys.size()));
+        out.addAll(keys);
+        out.addAll(value);
+        Script.ExtendedData data = new Script.ExtendedData(out.toArray(new String[0]));
+        int[] table = new int[targets.size()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = targets.get(i);
+        }
+        data.setJumpTable(table);
+        lines.set(switchLine - 1, data);
+
+        int end = nextLine();
+        patch(switchLine, defaultTarget > 0 ? defaultTarget : end);
+        for (int exit : exits) {
+            patch(exit, end);
+        }
+    }
+
+    private static String caseKind(LexerToken<?> label) throws CompileException {
+        switch (label.tokenType) {
+            case INTEGER:
+                return "int";
+            case OPERATOR:
+                if (Character.valueOf('-').equals(label.token)) {
+                    return "int";
+                }
+                throw unexpected(label);
+            case CHARACTER:
+                return "char";
+            case STRING:
+                return "string";
+            default:
+                throw new CompileException("Cases must be int, char or string literals, on line " + label.line);
+        }
+    }
+
+    private String caseKey(LexerToken<?> label) throws CompileException {
+        switch (label.tokenType) {
+            case OPERATOR:
+                LexerToken<?> number = next();
+                if (number.tokenType != EToken.INTEGER) {
+                    throw unexpected(number);
+                }
+                return Integer.toString(-(Integer) number.token);
+            case CHARACTER:
+                return Integer.toString((Character) label.token);
+            default:
+                return label.token.toString();
+        }
+    }
+
+    // Compiles "<expression>:" into a conditional jump whose target is patched in later.
+    private int compileCondition(int line) throws CompileException {
+        if (lazy && currentBlock >= 0) {
+            int start = pos;
+            while (peek().tokenType != EToken.COLON && peek().tokenType != EToken.NEWLINE
+                    && peek().tokenType != EToken.EOF) {
+                pos++;
+            }
+            expect(EToken.COLON);
+            return emitDeferred(line, start, pos, DEFERRED_CONDITION);
+        }
+        List<String> out = new ArrayList<>();
+        out.add(JUMP_IF_FALSE);
+        compileExpression(out);
+        expect(EToken.COLON);
+        return emit(line, out);
+    }
+
+    private void compileBody() throws CompileException {
+        expect(EToken.NEWLINE);
+        while (peek().tokenType == EToken.NEWLINE) {
+            pos++;
+        }
+        expect(EToken.INDENT);
+        int outer = currentBlock;
+        currentBlock = blockCount++;
+        try {
+            compileBlock(true);
+        }
+        finally {
+            currentBlock = outer;
+        }
+    }
+
+    // ========================================================================
+    // Expressions
+    // ========================================================================
+
+    private void compileExpression(List<String> out) throws CompileException {
+        compileOperand(out);
+        while (true) {
+            String op = binaryOperator(peek());
+            if (op == null) {
+                return;
+            }
+            pos++;
+            compileOperand(out);
+            out.add("o" + op);
+        }
+    }
+
+    private void compileOperand(List<String> out) throws CompileException {
+        LexerToken<?> t = next();
+        switch (t.tokenType) {
+            case L_PAREN:
+                compileExpression(out);
+                expect(EToken.R_PAREN);
+                return;
+            case NOT:
+                compileOperand(out);
+                out.add("u!");
+                return;
+            case OPERATOR:
+                if (Character.valueOf('-').equals(t.token)) {
+                    compileOperand(out);
+                    out.add("u-");
+                    return;
+                }
+                throw unexpected(t);
+            case INTEGER:
+                out.add(literal("i", t));
+                return;
+            case DECIMAL:
+                out.add(literal("d", t));
+                return;
+            case STRING:
+                out.add(literal("s", t));
+                return;
+            case CHARACTER:
+                out.add(literal("c", t));
+                return;
+            case BOOLEAN:
+                out.add("b" + t.token);
+                return;
+            case IDENTIFIER:
+                if (peek().tokenType == EToken.L_PAREN) {
+                    throw new CompileException("Commands cannot be called inside expressions, on line " + t.line);
+                }
+                out.add("v" + t.token);
+                return;
+            default:
+                throw unexpected(t);
+        }
+    }
+
+    private String literal(String kind, LexerToken<?> t) {
+        return intern(kind + t.token);
+    }
+
+    private String intern(String str) {
+        return constants != null ? constants.intern(str) : str;
+    }
+
+    private static String binaryOperator(LexerToken<?> t) {
+        switch (t.tokenType) {
+            case OPERATOR:
+            case COMPARATOR:
+                return t.token.toString();
+            case AND:
+                return "&&";
+            case OR:
+                return "||";
+            default:
+                return null;
+        }
+    }
+
+    // ========================================================================
+    // Helpers
+    // ========================================================================
+
+    // Declarations, assignments and calls always compile into a single line, so they can be compiled later on.
+    private boolean isDeferrable(LexerToken<?> t) {
+        if (t.tokenType == EToken.IDENTIFIER) {
+            return true;
+        }
+        if (t.tokenType != EToken.KEYWORD) {
+            return false;
+        }
+        String keyword = (String) t.token;
+        return isType(keyword) || keyword.equals("public") || keyword.equals("group") || keyword.equals("directory")
+                || keyword.equals("private");
+    }
+
+    private boolean isType(String keyword) {
+        switch (keyword) {
+            case "bool":
+            case "char":
+            case "int":
+            case "dec":
+            case "string":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Loop requireLoop(String keyword, int line) throws CompileException {
+        Loop loop = loops.peek();
+        if (loop == null) {
+            throw new CompileException("\"" + keyword + "\" outside of a loop on line " + line);
+        }
+        return loop;
+    }
+
+    private LexerToken<?> peek() {
+        return tokens.get(Math.min(pos, tokens.size() - 1));
+    }
+
+    private LexerToken<?> next() {
+        LexerToken<?> t = peek();
+        pos++;
+        return t;
+    }
+
+    private boolean peekKeyword(String keyword) {
+        LexerToken<?> t = peek();
+        return t.tokenType == EToken.KEYWORD && keyword.equals(t.token);
+    }
+
+    private void expect(EToken type) throws CompileException {
+        LexerToken<?> t = next();
+        if (t.tokenType != type) {
+            throw unexpected(t);
+        }
+    }
+
+    private void expectEndOfStatement() throws CompileException {
+        EToken type = peek().tokenType;
+        if (type != EToken.NEWLINE && type != EToken.DEDENT && type != EToken.EOF) {
+            throw unexpected(peek());
+        }
+    }
+
+    private static CompileException unexpected(LexerToken<?> t) {
+        return new CompileException("Unexpected " + t.tokenType + (t.token != null ? " \"" + t.token + "\"" : "")
+                + " on line " + t.line);
+    }
+
+    private int emit(int line, String... data) {
+        lines.add(new Script.ExtendedData(data));
+        sourceLines.add(line);
+        return lines.size();
+    }
+
+    private int emit(int line, List<String> data) {
+        return emit(line, data.toArray(new String[0]));
+    }
+
+    // Emits a placeholder, which still takes a jump target when patched, and is swapped for null once compiled. The
+    // line is compiled later from the tokens between start and end.
+    private int emitDeferred(int line, int start, int end, int kind) {
+        int index = emit(line);
+        deferred.add(new int[] { index, start, kind, currentBlock, line, end });
+        return index;
+    }
+
+    private int nextLine() {
+        return lines.size() + 1;
+    }
+
+    private void patch(int line, int target) {
+        lines.get(line - 1).setLineToJumpTo(target);
+    }
+
+    private final static class Loop {
+        private final int top;
+        private final List<Integer> breaks = new ArrayList<>();
+
+        private Loop(int top) {
+            this.top = top;
+        }
+    }
+
+    /*
+     Holds onto the tokens of each block of a lazily compiled script until that block has been compiled. A block only
+     keeps copies of the token ranges of its own deferred lines, so the tokens of the top level are never kept, and a
+     block that has been compiled takes up no memory at all. Each deferred line is stored as its index, the position of
+     its first token in the block's tokens, its kind and its source line.
+     */
+    private final static class DeferredBlocks implements Script.LazyBlocks {
+        private final Dialect dialect;
+        private final ConstantPool constants;
+        private final int[] blockOfLine;
+        private final int[] jumps;
+        private final int[][][] entriesOfBlock;
+        private final List<List<LexerToken<?>>> tokensOfBlock;
+
+        private DeferredBlocks(Dialect dialect, ConstantPool constants, List<LexerToken<?>> tokens,
+                               Script.ExtendedData[] lines, List<int[]> deferred, int blockCount) {
+            this.dialect = dialect;
+            this.constants = constants;
+            this.blockOfLine = new int[lines.length];
+            Arrays.fill(blockOfLine, -1);
+            this.jumps = new int[lines.length];
+
+            int[] sizes = new int[blockCount];
+            int[] tokenCounts = new int[blockCount];
+            for (int[] entry : deferred) {
+                sizes[entry[3]]++;
+                tokenCounts[entry[3]] += entry[5] - entry[1];
+            }
+            this.entriesOfBlock = new int[blockCount][][];
+            this.tokensOfBlock = new ArrayList<>(blockCount);
+            for (int b = 0; b < blockCount; b++) {
+                entriesOfBlock[b] = sizes[b] > 0 ? new int[sizes[b]][] : null;
+                tokensOfBlock.add(sizes[b] > 0 ? new ArrayList<>(tokenCounts[b]) : null);
+                sizes[b] = 0;
+            }
+            for (int[] entry : deferred) {
+                int index = entry[0] - 1;
+                int block = entry[3];
+                List<LexerToken<?>> blockTokens = tokensOfBlock.get(block);
+                int start = blockTokens.size();
+                blockTokens.addAll(tokens.subList(entry[1], entry[5]));
+                jumps[index] = lines[index].lineToJumpTo();
+                blockOfLine[index] = block;
+                entriesOfBlock[block][sizes[block]++] = new int[] { entry[0], start, entry[2], entry[4] };
+                lines[index] = null;
+            }
+        }
+
+        @Override
+        public Script.ExtendedData[] compileBlock(int line, Script.ExtendedData[] lines) {
+            int block = blockOfLine[line - 1];
+            if (block < 0 || entriesOfBlock[block] == null) {
+                return null;
+            }
+            Script.ExtendedData[] compiled = lines.clone();
+            ScriptCompiler compiler = new ScriptCompiler(dialect, null, constants);
+            compiler.tokens = tokensOfBlock.get(block);
+            compiler.currentBlock = -1;
+            for (int[] entry : entriesOfBlock[block]) {
+                compiler.pos = entry[1];
+                compiler.lines = new ArrayList<>(1);
+                compiler.sourceLines = new ArrayList<>(1);
+                try {
+                    if (entry[2] == DEFERRED_CONDITION) {
+                        compiler.compileCondition(entry[3]);
+                    }
+                    else {
+                        compiler.compileStatement();
+                    }
+                }
+                catch (CompileException e) {
+                    throw new ScriptExecutionException(e.getMessage());
+                }
+                Script.ExtendedData data = compiler.lines.get(0);
+                int index = entry[0] - 1;
+                data.setLineToJumpTo(jumps[index]);
+                compiled[index] = data;
+            }
+
+            entriesOfBlock[block] = null;
+            tokensOfBlock.set(block, null);
+            return compiled;
+        }
+    }
+}
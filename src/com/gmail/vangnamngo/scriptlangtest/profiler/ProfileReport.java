@@ -0,0 +1,105 @@
+package com.gmail.vangnamngo.scriptlangtest.profiler;
+
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A snapshot of the data gathered by a {@link ScriptProfiler}, broken down by source line.
+ */
+public class ProfileReport {
+
+    public final ScriptProfiler.Mode mode;
+    private final List<LineProfile> lines;
+
+    ProfileReport(ScriptProfiler.Mode mode, List<LineProfile> lines) {
+        this.mode = mode;
+        this.lines = new ArrayList<>(lines);
+        this.lines.sort(Comparator.comparingLong((LineProfile l) -> l.nanos).reversed());
+    }
+
+    /**
+     * @return Every profiled line, ordered from the most time spent to the least.
+     */
+    public List<LineProfile> getLines() {
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Writes this report in the collapsed stack format read by flame graph tools. Each line is a stack made of the
+     * script's groups, the script itself and the source line, followed by the time spent on that line in
+     * microseconds.
+     * @param out The writer to write to.
+     * @throws IOException If the writer fails.
+     */
+    public void writeCollapsedStacks(Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (LineProfile l : lines) {
+            sb.setLength(0);
+            appendGroups(sb, l.script.group);
+            sb.append(frame(l.script.name)).append(';');
+            sb.append("line ").append(l.line);
+            String raw = l.getSource();
+            if (raw != null && !raw.trim().isEmpty()) {
+                sb.append(": ").append(frame(raw.trim()));
+            }
+            sb.append(' ').append(Math.max(1, l.nanos / 1000)).append('\n');
+            out.write(sb.toString());
+        }
+        out.flush();
+    }
+
+    private static void appendGroups(StringBuilder sb, ScriptGroup group) {
+        if (group == null) {
+            return;
+        }
+        appendGroups(sb, group.parent);
+        sb.append(frame(group.name)).append(';');
+    }
+
+    // Semicolons separate frames, so they may not appear in one. Only the last space separates the value.
+    private static String frame(String str) {
+        return str.replace(';', ',');
+    }
+
+    /**
+     * The data gathered for a single source line.
+     */
+    public final static class LineProfile {
+        public final Script script;
+        public final int line;
+        /**
+         * The number of times the line was executed or, when sampling, the number of samples taken on it.
+         */
+        public final long count;
+        /**
+         * The total time spent on the line, in nanoseconds. Estimated from the sample interval when sampling.
+         */
+        public final long nanos;
+
+        LineProfile(Script script, int line, long count, long nanos) {
+            this.script = script;
+            this.line = line;
+            this.count = count;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return The source code of the line, or null if it is not available.
+         */
+        public String getSource() {
+            return script.getRawLine(line);
+        }
+
+        @Override
+        public String toString() {
+            return script.name + ":" + line + " count=" + count + " time=" + (nanos / 1000) + "us";
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.gmail.vangnamngo.scriptlangtest.profiler;
+
+import com.gmail.vangnamngo.scriptlangtest.execution.ScriptTask;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records how often, and for how long, each line of each {@link Script} is executed. A profiler is attached to a
+ * {@link com.gmail.vangnamngo.scriptlangtest.execution.ScriptExecutor} with
+ * {@link com.gmail.vangnamngo.scriptlangtest.execution.ScriptExecutor#setProfiler(ScriptProfiler)}; an executor
+ * without a profiler does no profiling work at all.
+ */
+public class ScriptProfiler implements AutoCloseable {
+
+    /**
+     * How a profiler gathers its data.
+     */
+    public enum Mode {
+        /**
+         * Counts and times every executed line. Accurate, but adds a timer call to every line.
+         */
+        EXACT,
+        /**
+         * Periodically checks which line each thread is executing. Executed lines only have to publish which task
+         * is running, so the overhead is very low, but the results are statistical.
+         */
+        SAMPLING
+    }
+
+    /**
+     * The default time between samples, in microseconds.
+     */
+    public final static long DEFAULT_SAMPLE_INTERVAL_MICROS = 1000;
+
+    public final Mode mode;
+    private final long sampleIntervalNanos;
+
+    // Each thread records into its own tables, which are only merged when a report is made.
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(() -> {
+        Recorder r = new Recorder();
+        recorders.add(r);
+        return r;
+    });
+
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a profiler.
+     * @param mode How to gather data.
+     */
+    public ScriptProfiler(Mode mode) {
+        this(mode, DEFAULT_SAMPLE_INTERVAL_MICROS);
+    }
+
+    /**
+     * Creates a profiler.
+     * @param mode How to gather data.
+     * @param sampleIntervalMicros The time between samples, in microseconds. Ignored unless sampling.
+     */
+    public ScriptProfiler(Mode mode, long sampleIntervalMicros) {
+        this.mode = mode;
+        this.sampleIntervalNanos = sampleIntervalMicros * 1000;
+        if (mode == Mode.SAMPLING) {
+            sampler = new Thread(this::runSampler, "ScriptProfiler-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+        else {
+            sampler = null;
+        }
+    }
+
+    /**
+     * Called by the executor before a task starts its time slice.
+     * @param task The task.
+     */
+    public void sliceStarted(ScriptTask task) {
+        if (mode == Mode.SAMPLING) {
+            recorder.get().current = task;
+        }
+    }
+
+    /**
+     * Called by the executor after a task has ended its time slice.
+     * @param task The task.
+     */
+    public void sliceEnded(ScriptTask task) {
+        if (mode == Mode.SAMPLING) {
+            recorder.get().current = null;
+        }
+    }
+
+    /**
+     * Called by the executor after each line when counting exactly.
+     * @param script The script the line belongs to.
+     * @param line The line number.
+     * @param nanos The time it took to execute the line.
+     */
+    public void lineExecuted(Script script, int line, long nanos) {
+        recorder.get().record(script, line, 1, nanos);
+    }
+
+    /**
+     * Merges everything recorded so far into a report.
+     * @return A new report.
+     */
+    public ProfileReport report() {
+        Map<Script, LineTable> merged = new HashMap<>();
+        for (Recorder r : recorders) {
+            synchronized (r) {
+                for (Map.Entry<Script, LineTable> e : r.tables.entrySet()) {
+                    merged.computeIfAbsent(e.getKey(), k -> new LineTable()).addAll(e.getValue());
+                }
+            }
+        }
+        List<ProfileReport.LineProfile> lines = new ArrayList<>();
+        for (Map.Entry<Script, LineTable> e : merged.entrySet()) {
+            LineTable t = e.getValue();
+            for (int i = 0; i < t.counts.length; i++) {
+                if (t.counts[i] != 0) {
+                    lines.add(new ProfileReport.LineProfile(e.getKey(), i, t.counts[i], t.nanos[i]));
+                }
+            }
+        }
+        return new ProfileReport(mode, lines);
+    }
+
+    /**
+     * Discards everything recorded so far.
+     */
+    public void reset() {
+        for (Recorder r : recorders) {
+            synchronized (r) {
+                r.tables.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops sampling.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (sampler != null) {
+            sampler.interrupt();
+        }
+    }
+
+    private void runSampler() {
+        while (running) {
+            long start = System.nanoTime();
+            for (Recorder r : recorders) {
+                ScriptTask task = r.current;
+                if (task != null) {
+                    r.record(task.script, task.getLine(), 1, sampleIntervalNanos);
+                }
+            }
+            long sleep = sampleIntervalNanos - (System.nanoTime() - start);
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private final static class Recorder {
+        private final Map<Script, LineTable> tables = new IdentityHashMap<>();
+        private volatile ScriptTask current;
+
+        // Only contended while a report is being made, or by the sampler. Compiled lines are folded into the source
+        // line they were compiled from.
+        private synchronized void record(Script script, int line, long count, long nanos) {
+            tables.computeIfAbsent(script, k -> new LineTable()).add(script.getSourceLine(line), count, nanos);
+        }
+    }
+
+    private final static class LineTable {
+        private long[] counts = new long[16];
+        private long[] nanos = new long[16];
+
+        private void add(int line, long count, long time) {
+            if (line >= counts.length) {
+                int size = Math.max(line + 1, counts.length * 2);
+                counts = Arrays.copyOf(counts, size);
+                nanos = Arrays.copyOf(nanos, size);
+            }
+            counts[line] += count;
+            nanos[line] += time;
+        }
+
+        private void addAll(LineTable other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(i, other.counts[i], other.nanos[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.utility.WeakInterner;
+
+/**
+ * Shares the literals of every script in a runtime, so that a literal used by any number of scripts is only held in
+ * memory once. Compilers intern the elements of the lines they compile, and interpreters intern the constant objects
+ * they create from them.
+ *
+ * <p>Constants are only weakly held. Once every script using a constant has been unloaded, it is released like any
+ * other object. Safe to use from any number of threads.</p>
+ */
+public class ConstantPool {
+
+    private final WeakInterner<String> strings = new WeakInterner<>();
+    private final WeakInterner<AbstractObject> objects = new WeakInterner<>();
+
+    /**
+     * @param str The string to intern.
+     * @return The pooled string equal to the given one.
+     */
+    public String intern(String str) {
+        return strings.intern(str);
+    }
+
+    /**
+     * Interns a constant object. Objects are pooled by their own equality, so only immutable objects should be
+     * interned.
+     * @param obj The object to intern.
+     * @param <T> The type of the object.
+     * @return The pooled object equal to the given one.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends AbstractObject> T intern(T obj) {
+        // Equal objects are always of the same class.
+        return (T) objects.intern(obj);
+    }
+
+    /**
+     * @return The approximate number of strings in this pool.
+     */
+    public int getStringCount() {
+        return strings.size();
+    }
+
+    /**
+     * @return The approximate number of objects in this pool.
+     */
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    void clear() {
+        strings.clear();
+        objects.clear();
+    }
+}
@@ -0,0 +1,387 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.object.BooleanObject;
+import com.gmail.vangnamngo.scriptlangtest.object.CharObject;
+import com.gmail.vangnamngo.scriptlangtest.object.DecimalObject;
+import com.gmail.vangnamngo.scriptlangtest.object.IntegerObject;
+import com.gmail.vangnamngo.scriptlangtest.object.NullObject;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The variables of a {@code dataholder} script, stored in a file that is memory-mapped rather than read onto the heap.
+ *
+ * <p>A data holder is written from the context a dataholder script was executed in, and loaded back with a context of
+ * its own. The file holds every variable sorted by name, so a lookup is a binary search over the mapped file, and a
+ * value is only decoded into an object the first time it is looked up. Decoded variables are kept, so assigning to
+ * one lasts for as long as the data holder is loaded, but is never written back to the file. Variables that are never
+ * looked up cost no heap at all, however many there are.</p>
+ *
+ * <p>Loading a data holder mounts it in the global context of its runtime with
+ * {@link ScriptContext#mount(DataHolder)}, so other scripts find its variables by name like any other variable, as
+ * far as their {@link ProtectionModifier}s allow. Safe to use from any number of threads.</p>
+ *
+ * <p>The file is big-endian and laid out as follows:</p>
+ * <pre>
+ * header   magic, version, variable count, index offset, names offset, values offset
+ * index    per variable, sorted by the UTF-8 bytes of its name: name offset, name length, value offset, protection
+ *          modifier ordinal in the high 16 bits, the kind of value the variable was declared to hold in the next 8
+ *          bits (null for any kind), and the kind of its value in the low 8 bits
+ * names    the UTF-8 bytes of every name
+ * values   per variable, by kind: nothing for null, 1 byte for bool, 2 for char, 4 for int, 8 for dec, and for
+ *          strings a byte length followed by UTF-8
+ * </pre>
+ */
+public class DataHolder implements AutoCloseable {
+
+    public final static int MAGIC = 0x534C5444;
+    public final static int VERSION = 1;
+
+    private final static int HEADER_SIZE = 24;
+    private final static int INDEX_ENTRY_SIZE = 16;
+
+    private final static int KIND_NULL = 0;
+    private final static int KIND_BOOL = 1;
+    private final static int KIND_CHAR = 2;
+    private final static int KIND_INT = 3;
+    private final static int KIND_DEC = 4;
+    private final static int KIND_STRING = 5;
+
+    // The declared type of a variable, by the kind of value it holds. Variables of any type are stored as KIND_NULL.
+    private final static String[] TYPE_NAMES = { null, "bool", "char", "int", "dec", "string" };
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int indexOffset;
+    private final ScriptContext context;
+
+    // Variables that have been looked up. Names that don't exist are not remembered.
+    private final Map<String, ScriptContext.VariableData> decoded = new ConcurrentHashMap<>();
+
+    private DataHolder(ByteBuffer buffer, Script script) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a data holder");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported data holder version " + version + ", expected " + VERSION);
+        }
+        this.count = buffer.getInt(8);
+        this.indexOffset = buffer.getInt(12);
+        if (count < 0 || indexOffset < HEADER_SIZE
+                || indexOffset + (long) INDEX_ENTRY_SIZE * count > buffer.limit()) {
+            throw new IOException("Corrupt data holder");
+        }
+        ScriptContext global = script.group.runtime.getGlobalContext();
+        this.context = new ScriptContext(script, global, null, this);
+    }
+
+    /**
+     * Maps a data holder into memory and mounts it in the global context of the script's runtime. No variables are
+     * decoded yet.
+     * @param file The data holder to load.
+     * @param script The dataholder script the file was written from. Its directory and group decide which scripts
+     *               can see the variables that are not public.
+     * @return The loaded data holder.
+     * @throws IOException If the file cannot be read, or is not a data holder of the current version.
+     */
+    public static DataHolder load(Path file, Script script) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        DataHolder holder = new DataHolder(buffer, script);
+        holder.context.runtime.getGlobalContext().mount(holder);
+        return holder;
+    }
+
+    /**
+     * @return The context of the dataholder script, whose variables are the stored ones.
+     */
+    public ScriptContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return The number of stored variables.
+     */
+    public int getVariableCount() {
+        return count;
+    }
+
+    /**
+     * Unmounts this data holder from the global context. The file stays mapped until this object is collected.
+     */
+    @Override
+    public void close() {
+        context.runtime.getGlobalContext().unmount(this);
+    }
+
+    /**
+     * Finds a stored variable, decoding it if this is the first time it is looked up.
+     * @param name The name of the variable.
+     * @return The data of the variable, or null if there is no such variable.
+     */
+    ScriptContext.VariableData getVariableData(String name) {
+        ScriptContext.VariableData d = decoded.get(name);
+        if (d != null) {
+            return d;
+        }
+        int entry = find(name.getBytes(StandardCharsets.UTF_8));
+        if (entry < 0) {
+            return null;
+        }
+        int info = buffer.getInt(entry + 12);
+        d = new ScriptContext.VariableData(ProtectionModifier.values()[info >>> 16], typeOfKind(info >>> 8 & 0xFF),
+                decodeValue(info & 0xFF, buffer.getInt(entry + 8)));
+        // Racing threads decode the same variable, and whichever is published first is kept.
+        ScriptContext.VariableData existing = decoded.putIfAbsent(name, d);
+        return existing != null ? existing : d;
+    }
+
+    private int find(byte[] name) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = indexOffset + INDEX_ENTRY_SIZE * mid;
+            int cmp = compare(buffer.getInt(entry), buffer.getInt(entry + 4), name);
+            if (cmp < 0) {
+                low = mid + 1;
+            }
+            else if (cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    // Compares a stored name with another, as unsigned bytes, without copying the stored one.
+    private int compare(int offset, int length, byte[] name) {
+        int n = Math.min(length, name.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(buffer.get(offset + i) & 0xFF, name[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, name.length);
+    }
+
+    private AbstractObject decodeValue(int kind, int offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        return readValue(view, kind, context.runtime.getNullObject());
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue(DataOutputStream, AbstractObject, byte[])}, moving the position of
+     * the buffer past it.
+     */
+    static AbstractObject readValue(ByteBuffer buffer, int kind, AbstractObject nullObject) {
+        switch (kind) {
+            case KIND_BOOL:
+                return BooleanObject.valueOf(buffer.get() != 0);
+            case KIND_CHAR:
+                return new CharObject(buffer.getChar());
+            case KIND_INT:
+                return new IntegerObject(buffer.getInt());
+            case KIND_DEC:
+                return new DecimalObject(buffer.getDouble());
+            case KIND_STRING:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                return new StringObject(new String(bytes, StandardCharsets.UTF_8));
+            default:
+                return nullObject;
+        }
+    }
+
+    // ========================================================================
+    // Writing
+    // ========================================================================
+
+    /**
+     * Writes the variables of a context to a data holder. The file is only replaced once it has been written in full.
+     * @param file The file to write to.
+     * @param context The context a dataholder script was executed in. Only its own variables are written, not those
+     *                of its parents.
+     * @throws IOException If the file cannot be written, or a variable holds a kind of object that cannot be stored.
+     */
+    public static void write(Path file, ScriptContext context) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        List<ScriptContext.VariableData> variables = new ArrayList<>();
+        for (String name : context.getLocalVariables()) {
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+            variables.add(context.getVariableData(name));
+        }
+        Integer[] order = new Integer[names.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compareBytes(names.get(a), names.get(b)));
+
+        long namesOffset = HEADER_SIZE + (long) INDEX_ENTRY_SIZE * order.length;
+        long valuesOffset = namesOffset;
+        for (byte[] name : names) {
+            valuesOffset += name.length;
+        }
+        List<byte[]> strings = new ArrayList<>(order.length);
+        long end = valuesOffset;
+        for (ScriptContext.VariableData d : variables) {
+            byte[] str = d.value instanceof StringObject
+                    ? ((StringObject) d.value).value.getBytes(StandardCharsets.UTF_8) : null;
+            strings.add(str);
+            end += sizeOf(d.value, str);
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Data holder would be larger than 2 GiB");
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(order.length);
+            out.writeInt(HEADER_SIZE);
+            out.writeInt((int) namesOffset);
+            out.writeInt((int) valuesOffset);
+
+            long nameOffset = namesOffset;
+            long valueOffset = valuesOffset;
+            for (int i : order) {
+                ScriptContext.VariableData d = variables.get(i);
+                out.writeInt((int) nameOffset);
+                out.writeInt(names.get(i).length);
+                out.writeInt((int) valueOffset);
+                out.writeInt(d.protectionMod.ordinal() << 16 | typeKindOf(d.type) << 8 | kindOf(d.value));
+                nameOffset += names.get(i).length;
+                valueOffset += sizeOf(d.value, strings.get(i));
+            }
+            for (int i : order) {
+                out.write(names.get(i));
+            }
+            for (int i : order) {
+                writeValue(out, variables.get(i).value, strings.get(i));
+            }
+            out.flush();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    static int typeKindOf(String type) throws IOException {
+        if (type == null) {
+            return KIND_NULL;
+        }
+        for (int i = 1; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new IOException("Cannot store a variable of type " + type + " in a data holder");
+    }
+
+    static String typeOfKind(int kind) {
+        return TYPE_NAMES[kind];
+    }
+
+    static int kindOf(AbstractObject value) throws IOException {
+        if (value instanceof BooleanObject) {
+            return KIND_BOOL;
+        }
+        if (value instanceof CharObject) {
+            return KIND_CHAR;
+        }
+        if (value instanceof IntegerObject) {
+            return KIND_INT;
+        }
+        if (value instanceof DecimalObject) {
+            return KIND_DEC;
+        }
+        if (value instanceof StringObject) {
+            return KIND_STRING;
+        }
+        if (value == null || value instanceof NullObject) {
+            return KIND_NULL;
+        }
+        throw new IOException("Cannot store a " + value.getClass().getSimpleName() + " in a data holder");
+    }
+
+    private static long sizeOf(AbstractObject value, byte[] str) throws IOException {
+        switch (kindOf(value)) {
+            case KIND_BOOL:
+                return 1;
+            case KIND_CHAR:
+                return 2;
+            case KIND_INT:
+                return 4;
+            case KIND_DEC:
+                return 8;
+            case KIND_STRING:
+                return 4 + str.length;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Writes a value without its kind, which has to be stored separately.
+     * @param str The UTF-8 bytes of the value if it is a string, in which case they must not be null.
+     */
+    static void writeValue(DataOutputStream out, AbstractObject value, byte[] str) throws IOException {
+        switch (kindOf(value)) {
+            case KIND_BOOL:
+                out.writeByte(((BooleanObject) value).value ? 1 : 0);
+                break;
+            case KIND_CHAR:
+                out.writeChar(((CharObject) value).value);
+                break;
+            case KIND_INT:
+                out.writeInt(((IntegerObject) value).value);
+                break;
+            case KIND_DEC:
+                out.writeDouble(((DecimalObject) value).value);
+                break;
+            case KIND_STRING:
+                out.writeInt(str.length);
+                out.write(str);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -33,6 +33,14 @@ public enum ProtectionModifier {
      * @return True if access is allowed, false otherwise.
      */
     public static boolean canAccessFrom(ScriptContext accessFrom, ScriptContext accessed, ProtectionModifier accessedMod) {
+        boolean allowed = checkAccess(accessFrom, accessed, accessedMod);
+        if (!allowed && accessed != null && accessed.runtime.getMetrics().isEnabled()) {
+            accessed.runtime.getMetrics().recordAccessDenied();
+        }
+        return allowed;
+    }
+
+    private static boolean checkAccess(ScriptContext accessFrom, ScriptContext accessed, ProtectionModifier accessedMod) {
         // You cannot access nothing!
         if (accessed == null) {
             return false;
@@ -41,6 +49,10 @@ public enum ProtectionModifier {
         if (accessFrom == null) {
             return accessedMod == ProtectionModifier.PUBLIC;
         }
+        // Separate runtimes can never see each other.
+        if (accessFrom.runtime != accessed.runtime) {
+            return false;
+        }
 
         switch (accessedMod) {
             case PRIVATE:
@@ -52,19 +64,18 @@ public enum ProtectionModifier {
                 if (accessFrom.script == null || accessed.script == null) {
                     break;
                 }
-                if (accessFrom == ScriptContext.GLOBAL || accessFrom.script.directory.startsWith(accessed.script.directory)) {
+                if (accessFrom.isGlobal() || accessFrom.script.directory.startsWith(accessed.script.directory)) {
                     return true;
                 }
                 break;
             case GROUP:
+                // Anyone can always access the global script context
+                if (accessed.isGlobal() || accessed.group == null) {
+                    return true;
+                }
                 // If the group of the accessor is a subgroup of the accessed, detect it!
-                // Anyone can always access the GLOBAL script context
-                ScriptContext f = accessFrom;
-                while (f != null) {
-                    if (f.group == accessFrom.group) {
-                        return true;
-                    }
-                    f = f.getParent();
+                if (accessFrom.group != null && accessFrom.group.isSubgroupOf(accessed.group)) {
+                    return true;
                 }
                 break;
             // The default must always be PUBLIC!
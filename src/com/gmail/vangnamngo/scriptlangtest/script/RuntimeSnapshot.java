@@ -0,0 +1,294 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.lexer.EToken;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+import com.gmail.vangnamngo.scriptlangtest.parser.Dialect;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * The state of a runtime once it has been set up, saved to a single file so that a later process can start from it
+ * instead of setting it up again.
+ *
+ * <p>A snapshot holds the keywords and line continuation tokens of the runtime's {@link Dialect}, its group tree and
+ * scripts as a {@link ScriptImage}, and the variables of its global context and of every group context. Restoring
+ * one reads the whole file in a single read, creates a new runtime with the same dialect, recreates the groups and
+ * their variables, and leaves the scripts to be decoded on first use, as with any image. Commands, the output sink,
+ * resource limits and anything else set up from Java code are not part of a snapshot and have to be set up again.</p>
+ *
+ * <p>The file is big-endian and laid out as follows:</p>
+ * <pre>
+ * header     magic, version
+ * dialect    keyword count, keywords, line continuation token count, token names
+ * image      byte length, then a script image
+ * contexts   context count, then per context: group index in the image (-1 for the global context), variable
+ *            count, then per variable: name, protection modifier ordinal, declared and value kind, value
+ * </pre>
+ * <p>Strings are a byte length followed by UTF-8. Values, and the kind of value each variable was declared to hold
+ * next to the kind of its value, are stored as in the index and values of a {@link DataHolder}.</p>
+ *
+ * <p>For the classes themselves to load faster as well, {@link #writeClassList(Path)} lists them for an application
+ * class data sharing archive.</p>
+ */
+public class RuntimeSnapshot {
+
+    public final static int MAGIC = 0x534C5453;
+    public final static int VERSION = 1;
+
+    // The package every class of the interpreter is in, as a path.
+    private final static String CLASS_PREFIX = "com/gmail/vangnamngo/scriptlangtest/";
+
+    private final ScriptRuntime runtime;
+    private final ScriptImage image;
+
+    private RuntimeSnapshot(ScriptRuntime runtime, ScriptImage image) {
+        this.runtime = runtime;
+        this.image = image;
+    }
+
+    /**
+     * @return The restored runtime.
+     */
+    public ScriptRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * @return The groups and scripts of the restored runtime.
+     */
+    public ScriptImage getImage() {
+        return image;
+    }
+
+    // ========================================================================
+    // Restoring
+    // ========================================================================
+
+    /**
+     * Restores a runtime from a snapshot.
+     * @param file The snapshot to restore.
+     * @return The restored snapshot.
+     * @throws IOException If the file cannot be read, or is not a snapshot of the current version.
+     */
+    public static RuntimeSnapshot restore(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt runtime snapshot");
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            // Usually done in one read, but a channel is allowed to return less.
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Corrupt runtime snapshot");
+                }
+            }
+        }
+        buffer.flip();
+        try {
+            return restore(buffer);
+        }
+        catch (RuntimeException e) {
+            // Truncated or otherwise damaged files run off the end of the buffer or hold impossible values.
+            throw new IOException("Corrupt runtime snapshot", e);
+        }
+    }
+
+    private static RuntimeSnapshot restore(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a runtime snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported runtime snapshot version " + version + ", expected " + VERSION);
+        }
+
+        Dialect dialect = new Dialect();
+        for (int i = buffer.getInt(); i > 0; i--) {
+            dialect.addKeyword(readString(buffer));
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            dialect.addLineContinuationToken(EToken.valueOf(readString(buffer)));
+        }
+        ScriptRuntime runtime = new ScriptRuntime(dialect);
+
+        int imageLength = buffer.getInt();
+        ByteBuffer imageBuffer = buffer.slice();
+        imageBuffer.limit(imageLength);
+        buffer.position(buffer.position() + imageLength);
+        ScriptImage image = ScriptImage.load(imageBuffer, runtime);
+
+        List<ScriptGroup> groups = image.getGroups();
+        for (int i = buffer.getInt(); i > 0; i--) {
+            int group = buffer.getInt();
+            ScriptContext context = group == -1 ? runtime.getGlobalContext() : groups.get(group).groupContext;
+            for (int j = buffer.getInt(); j > 0; j--) {
+                String name = readString(buffer);
+                ProtectionModifier modifier = ProtectionModifier.values()[buffer.getInt()];
+                int kinds = buffer.getInt();
+                context.addVariable(name, modifier, DataHolder.typeOfKind(kinds >>> 8 & 0xFF),
+                        DataHolder.readValue(buffer, kinds & 0xFF, runtime.getNullObject()));
+            }
+        }
+        return new RuntimeSnapshot(runtime, image);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ========================================================================
+    // Writing
+    // ========================================================================
+
+    /**
+     * Writes a snapshot of a runtime. The file is only replaced once the whole snapshot has been written.
+     * @param file The file to write to.
+     * @param runtime The runtime to take a snapshot of, usually once its init scripts have run.
+     * @param groups The groups to include, along with every parent group they have, as for
+     *               {@link ScriptImage#write(Path, Collection)}.
+     * @throws IOException If the file cannot be written, or a variable holds a kind of object that cannot be stored.
+     */
+    public static void write(Path file, ScriptRuntime runtime, Collection<ScriptGroup> groups) throws IOException {
+        for (ScriptGroup g : groups) {
+            if (g.runtime != runtime) {
+                throw new IllegalArgumentException("A group belongs to a different runtime");
+            }
+        }
+        ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+        List<ScriptGroup> written = ScriptImage.write(imageBytes, groups);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            Dialect dialect = runtime.getDialect();
+            Collection<String> keywords = dialect.getKeywords();
+            out.writeInt(keywords.size());
+            for (String keyword : keywords) {
+                writeString(out, keyword);
+            }
+            Collection<EToken> tokens = dialect.getLineContinuationTokens();
+            out.writeInt(tokens.size());
+            for (EToken token : tokens) {
+                writeString(out, token.name());
+            }
+
+            out.writeInt(imageBytes.size());
+            imageBytes.writeTo(out);
+
+            out.writeInt(written.size() + 1);
+            writeContext(out, -1, runtime.getGlobalContext());
+            for (int i = 0; i < written.size(); i++) {
+                writeContext(out, i, written.get(i).groupContext);
+            }
+            out.flush();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeContext(DataOutputStream out, int group, ScriptContext context) throws IOException {
+        List<String> names = new ArrayList<>(context.getLocalVariables());
+        out.writeInt(group);
+        out.writeInt(names.size());
+        for (String name : names) {
+            ScriptContext.VariableData d = context.getVariableData(name);
+            writeString(out, name);
+            out.writeInt(d.protectionMod.ordinal());
+            out.writeInt(DataHolder.typeKindOf(d.type) << 8 | DataHolder.kindOf(d.value));
+            DataHolder.writeValue(out, d.value,
+                    d.value instanceof StringObject ? d.value.toString().getBytes(StandardCharsets.UTF_8) : null);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // ========================================================================
+    // Class data sharing
+    // ========================================================================
+
+    /**
+     * Lists every class of the interpreter, one per line in the form {@code com/example/Name}, for use as the class
+     * list of an application class data sharing archive. Loading the classes from such an archive skips parsing and
+     * verifying them at startup. With a JDK that supports it, the archive is created with
+     * {@code java -Xshare:dump -XX:SharedClassListFile=<list> -XX:SharedArchiveFile=<archive> -cp <class path>} and
+     * used with {@code java -XX:SharedArchiveFile=<archive> -cp <class path> ...}. JDK 8 additionally needs
+     * {@code -XX:+UnlockCommercialFeatures -XX:+UseAppCDS} for both.
+     * @param file The file to write the list to.
+     * @throws IOException If the classes cannot be listed or the file cannot be written.
+     */
+    public static void writeClassList(Path file) throws IOException {
+        URL location = ScriptRuntime.class.getProtectionDomain().getCodeSource().getLocation();
+        Path root;
+        try {
+            root = Paths.get(location.toURI());
+        }
+        catch (URISyntaxException e) {
+            throw new IOException("Cannot find the classes at " + location, e);
+        }
+
+        // Sorted, so that the same classes always produce the same list.
+        TreeSet<String> classes = new TreeSet<>();
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.forEach(p -> {
+                    String name = root.relativize(p).toString().replace(p.getFileSystem().getSeparator(), "/");
+                    addClass(classes, name);
+                });
+            }
+        }
+        else {
+            try (JarFile jar = new JarFile(root.toFile())) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    addClass(classes, entries.nextElement().getName());
+                }
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String name : classes) {
+                writer.write(name);
+                writer.newLine();
+            }
+        }
+    }
+
+    private static void addClass(Collection<String> classes, String path) {
+        if (path.startsWith(CLASS_PREFIX) && path.endsWith(".class")) {
+            classes.add(path.substring(0, path.length() - ".class".length()));
+        }
+    }
+}
@@ -7,35 +7,158 @@ public class Script {
     public final String directory;
     public final ScriptGroup group;
 
-    private final String[] rawScript;
-    private final ExtendedData[] compiledScript;
+    // Only read for error messages and profiles, so it is kept packed rather than as one String per line.
+    private final SourceText rawScript;
+    private final int[] lineTable;
 
     /*
-    TODO: Allow scripts to be instantiated without properly pre-compiling them?
-    public Script(String name, String[] rawScript) {
-        this(name, rawScript, ".", null);
-    }
+     Lazily compiled scripts start out with a null in place of every line that has not been compiled yet. Whenever a
+     block is compiled, a whole new array is published, so that threads reading it without a lock never see a line
+     that is only partly built.
      */
+    private volatile ExtendedData[] compiledScript;
+    private final LazyBlocks lazyBlocks;
 
     public Script(String name, String directory, String[] rawScript, ExtendedData[] compiledScript) {
         this(name, directory, rawScript, compiledScript, null);
     }
 
     public Script(String name, String directory, String[] rawScript, ExtendedData[] compiledScript, ScriptGroup group) {
+        this(name, directory, rawScript, compiledScript, null, group);
+    }
+
+    /**
+     * Creates a script whose compiled lines don't line up with its source lines, such as one produced by
+     * {@link com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler}.
+     * @param name The name of the script.
+     * @param directory The directory the script was loaded from.
+     * @param rawScript The source code, one line per element.
+     * @param compiledScript The compiled lines.
+     * @param lineTable The source line, starting from 1, of each compiled line. If null, compiled line n is assumed to
+     *                  come from source line n.
+     * @param group The group the script belongs to.
+     */
+    public Script(String name, String directory, String[] rawScript, ExtendedData[] compiledScript, int[] lineTable,
+                  ScriptGroup group) {
+        this(name, directory, rawScript, compiledScript, lineTable, group, null);
+    }
+
+    /**
+     * Creates a script whose blocks are only compiled when they are first entered.
+     * @param name The name of the script.
+     * @param directory The directory the script was loaded from.
+     * @param rawScript The source code, one line per element.
+     * @param compiledScript The compiled lines, with null in place of every line that has not been compiled yet.
+     * @param lineTable The source line, starting from 1, of each compiled line, or null.
+     * @param group The group the script belongs to.
+     * @param lazyBlocks Compiles the missing lines, or null if there are none.
+     */
+    public Script(String name, String directory, String[] rawScript, ExtendedData[] compiledScript, int[] lineTable,
+                  ScriptGroup group, LazyBlocks lazyBlocks) {
+        if (lineTable != null && lineTable.length != compiledScript.length) {
+            throw new IllegalArgumentException("The line table must have one entry per compiled line");
+        }
         this.name = name;
-        this.rawScript = rawScript;
+        this.rawScript = SourceText.of(rawScript);
         this.compiledScript = compiledScript;
+        this.lineTable = lineTable;
         this.directory = directory;
         this.group = group;
+        this.lazyBlocks = lazyBlocks;
     }
 
+    /**
+     * Fetches a line of the source code. Lines are stored packed together, so each call creates a new String.
+     * @param line The source line number, starting from 1.
+     * @return The source line, or null if there is no such line.
+     */
     public String getRawLine(int line) {
-        return (line < 1 || line > rawScript.length) ? null : rawScript[line - 1];
+        return rawScript.getLine(line);
+    }
+
+    /**
+     * @return The number of lines in the source code.
+     */
+    public int getRawLineCount() {
+        return rawScript.getLineCount();
+    }
+
+    /**
+     * Fetches the compiled form of a line.
+     * @param line The line number, starting from 1.
+     * @return The compiled line, or null if the line has nothing to execute.
+     */
+    public ExtendedData getCompiledLine(int line) {
+        ExtendedData[] lines = compiledScript;
+        if (line < 1 || line > lines.length) {
+            return null;
+        }
+        ExtendedData data = lines[line - 1];
+        if (data == null && lazyBlocks != null) {
+            data = compileBlockOf(line);
+        }
+        return data;
+    }
+
+    private ExtendedData compileBlockOf(int line) {
+        synchronized (lazyBlocks) {
+            ExtendedData[] lines = compiledScript;
+            if (lines[line - 1] == null) {
+                ExtendedData[] compiled = lazyBlocks.compileBlock(line, lines);
+                if (compiled == null) {
+                    return null;
+                }
+                compiledScript = lines = compiled;
+            }
+            return lines[line - 1];
+        }
+    }
+
+    /**
+     * @return The number of lines in the compiled script.
+     */
+    public int getLineCount() {
+        return compiledScript.length;
+    }
+
+    /**
+     * Finds the source line a compiled line was compiled from.
+     * @param line The compiled line number, starting from 1.
+     * @return The source line number, starting from 1.
+     */
+    public int getSourceLine(int line) {
+        if (lineTable == null || line < 1 || line > lineTable.length) {
+            return line;
+        }
+        return lineTable[line - 1];
+    }
+
+    /**
+     * Compiles the blocks of a lazily compiled script as they are entered. Calls are never made concurrently.
+     */
+    public interface LazyBlocks {
+
+        /**
+         * Compiles the block that a missing line belongs to.
+         * @param line The missing line, starting from 1.
+         * @param lines The compiled lines so far. Must not be modified.
+         * @return A copy of the lines with the block filled in, or null if the line has nothing to compile.
+         */
+        ExtendedData[] compileBlock(int line, ExtendedData[] lines);
     }
 
     public final static class ExtendedData {
+
+        /**
+         * What {@link #lineToJumpTo()} returns for a line that doesn't jump anywhere. Lines start from 1, so this is
+         * never a real line.
+         */
+        public final static int NO_JUMP = 0;
+
         private final String[] data;
-        private Integer lineJump = null;
+        private int lineJump = NO_JUMP;
+        private int[] jumpTable = null;
+        private volatile Object prepared = null;
 
         public ExtendedData(String[] lineData) {
             data = lineData;
@@ -45,20 +168,70 @@ public class Script {
             return Arrays.copyOf(data, data.length);
         }
 
+        /**
+         * Fetches a single element of the data without copying it.
+         * @param index The index of the element.
+         * @return The element.
+         */
+        public String get(int index) {
+            return data[index];
+        }
+
+        public int size() {
+            return data.length;
+        }
+
+        /**
+         * @return The form of this line an interpreter has prepared for execution, or null if none has been set yet.
+         */
+        public Object getPrepared() {
+            return prepared;
+        }
+
+        /**
+         * Caches a form of this line which is faster to execute than its data. Since the prepared form is only ever
+         * derived from the data, racing threads may each prepare the line and the last one wins.
+         * @param prepared The prepared form.
+         */
+        public void setPrepared(Object prepared) {
+            this.prepared = prepared;
+        }
+
         public void setLineToJumpTo(int line) {
             lineJump = line;
         }
 
         public boolean clearLineJumpData() {
-            if (lineJump == null) {
+            if (lineJump == NO_JUMP && jumpTable == null) {
                 return false;
             }
-            lineJump = null;
+            lineJump = NO_JUMP;
+            jumpTable = null;
             return true;
         }
 
-        public Integer lineToJumpTo() {
+        /**
+         * @return The line this line jumps to, or {@link #NO_JUMP} if it doesn't jump anywhere. For lines with a jump
+         *         table, this is the line to jump to when none of the table's entries apply.
+         */
+        public int lineToJumpTo() {
             return lineJump;
         }
+
+        /**
+         * Sets the lines a multiway jump, such as a {@code switch}, can go to. What each entry stands for is up to the
+         * line's data.
+         * @param lines The lines to jump to, or null if this line is not a multiway jump.
+         */
+        public void setJumpTable(int[] lines) {
+            jumpTable = lines != null ? Arrays.copyOf(lines, lines.length) : null;
+        }
+
+        /**
+         * @return A copy of the lines this line can jump to, or null if it is not a multiway jump.
+         */
+        public int[] getJumpTable() {
+            return jumpTable != null ? Arrays.copyOf(jumpTable, jumpTable.length) : null;
+        }
     }
 }
@@ -1,6 +1,5 @@
 package com.gmail.vangnamngo.scriptlangtest.script;
 
-import com.gmail.vangnamngo.scriptlangtest.Main;
 import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
 import com.sun.istack.internal.NotNull;
 
@@ -18,38 +17,71 @@ import java.util.*;
  */
 // TODO: Add scripts, debug context, and whatever might be needed.
 public class ScriptContext {
-    public final static ScriptContext GLOBAL = new ScriptContext();
-
     private ScriptContext parent = null;
     public final Script script;
     public final ScriptGroup group;
+    public final ScriptRuntime runtime;
 
     // Global context constructor
-    private ScriptContext() {
+    ScriptContext(ScriptRuntime runtime) {
         script = null;
         group = null;
+        data = null;
+        this.runtime = runtime;
     }
 
-    public ScriptContext(Script script) {
-        this(script, GLOBAL, null);
+    public ScriptContext(@NotNull Script script) {
+        this(script, globalContextOf(script), null);
     }
 
     public ScriptContext(Script script, ScriptContext parent) {
         this(script, parent, null);
     }
 
-    public ScriptContext(ScriptGroup group) {
-        this(null, GLOBAL, group);
+    public ScriptContext(@NotNull ScriptGroup group) {
+        this(null, group.runtime.getGlobalContext(), group);
     }
 
     public ScriptContext(ScriptGroup group, ScriptContext parent) {
-        this(null, parent, null);
+        this(null, parent, group);
     }
 
     public ScriptContext(Script script, ScriptContext parent, ScriptGroup group) {
+        this(script, parent, group, null);
+    }
+
+    // Data holder constructor
+    ScriptContext(Script script, ScriptContext parent, ScriptGroup group, DataHolder data) {
         this.script = script;
+        this.data = data;
         this.parent = parent;
         this.group = script != null ? script.group : group;
+        if (parent != null) {
+            this.runtime = parent.runtime;
+        }
+        else if (this.group != null) {
+            this.runtime = this.group.runtime;
+        }
+        else {
+            throw new IllegalArgumentException("A ScriptContext must have a parent, a ScriptGroup or a Script with a ScriptGroup");
+        }
+        runtime.registerContext(this);
+    }
+
+    // Scripts created without a group don't know which runtime they belong to.
+    private static ScriptContext globalContextOf(Script script) {
+        if (script.group == null) {
+            throw new IllegalArgumentException("Script \"" + script.name + "\" has no ScriptGroup, so its context "
+                    + "needs a parent");
+        }
+        return script.group.runtime.getGlobalContext();
+    }
+
+    /**
+     * @return True if this object is the global context of its {@link ScriptRuntime}.
+     */
+    public boolean isGlobal() {
+        return this == runtime.getGlobalContext();
     }
 
     /**
@@ -64,23 +96,28 @@ public class ScriptContext {
     // ------------------------------------------------------------------------
     private final Map<String, VariableData> varMap = new HashMap<>();
 
+    // The stored variables of a data holder, for its own context. They are found after the variables in varMap.
+    private final DataHolder data;
+    // Data holders whose public, and otherwise accessible, variables can be found through this context.
+    private volatile DataHolder[] mounts = new DataHolder[0];
+
     /**
-     * Adds a public variable to this object and assigns {@link Main#NULL_OBJ} to that variable, if possible.
+     * Adds a public variable to this object and assigns the null object of its {@link ScriptRuntime} to that variable, if possible.
      * @param name The name of the variable to add.
      * @return False if another variable of the same name is present, true otherwise.
      */
     public boolean addVariable(@NotNull String name) {
-        return addVariable(name, ProtectionModifier.PUBLIC, Main.NULL_OBJ);
+        return addVariable(name, ProtectionModifier.PUBLIC, runtime.getNullObject());
     }
 
     /**
-     * Adds a variable to this object and assigns {@link Main#NULL_OBJ} to that variable, if possible.
+     * Adds a variable to this object and assigns the null object of its {@link ScriptRuntime} to that variable, if possible.
      * @param name The name of the variable to add.
      * @param protMod The {@link ProtectionModifier} to use for this variable.
      * @return False if another variable of the same name is present, true otherwise.
      */
     public boolean addVariable(@NotNull String name, ProtectionModifier protMod) {
-        return addVariable(name, protMod, Main.NULL_OBJ);
+        return addVariable(name, protMod, runtime.getNullObject());
     }
 
     /**
@@ -91,7 +128,20 @@ public class ScriptContext {
      * @return False if another variable of the same name is present, true otherwise.
      */
     public boolean addVariable(@NotNull String name, ProtectionModifier protMod, AbstractObject obj) {
-        return varMap.putIfAbsent(name, new VariableData(protMod, obj)) == null;
+        return addVariable(name, protMod, null, obj);
+    }
+
+    /**
+     * Adds a variable with a declared type to this object, if possible. Scripts can only assign values of that type to
+     * the variable, or values that can be converted to it.
+     * @param name The name of the variable to add.
+     * @param protMod The {@link ProtectionModifier} to use for this variable.
+     * @param type The type the variable was declared with, such as {@code int}, or null for any type.
+     * @param obj The object to associate with this variable, which should already be of that type.
+     * @return False if another variable of the same name is present, true otherwise.
+     */
+    public boolean addVariable(@NotNull String name, ProtectionModifier protMod, String type, AbstractObject obj) {
+        return varMap.putIfAbsent(name, new VariableData(protMod, type, obj)) == null;
     }
 
     /**
@@ -112,12 +162,12 @@ public class ScriptContext {
      * @return False if the new value could not be set, true otherwise.
      */
     public boolean setVariable(@NotNull String name, AbstractObject newObj, int n) {
-        ScriptContext context = getContextWithVar(getNthParent(this, n), name);
+        ScriptContext context = getContextWithVar(this, getNthParent(this, n), name);
         if (context == null) {
             // TODO: Error
             return false;
         }
-        context.varMap.get(name).value = newObj;
+        context.localData(name).value = newObj;
         return true;
     }
 
@@ -131,13 +181,13 @@ public class ScriptContext {
     }
 
     /**
-     * Removes an existing variable.
+     * Removes an existing variable. The stored variables of a {@link DataHolder} cannot be removed.
      * @param name The name of the variable to remove.
      * @param n The n-th order ScriptContext parent to begin the variable deletion from.
      * @return True if the variable has been successfully removed, false otherwise.
      */
     public boolean removeVariable(String name, int n) {
-        ScriptContext context = getContextWithVar(getNthParent(this, n), name);
+        ScriptContext context = getContextWithVar(this, getNthParent(this, n), name);
         return context != null && context.varMap.remove(name) != null;
     }
 
@@ -157,12 +207,51 @@ public class ScriptContext {
      * @return The value of the variable.
      */
     public AbstractObject getVariable(String name, int n) {
-        ScriptContext context = getContextWithVar(getNthParent(this, n), name);
+        ScriptContext context = getContextWithVar(this, getNthParent(this, n), name);
         if (context == null) {
             // TODO: Error
             return null;
         }
-        return context.varMap.get(name).value;
+        return context.localData(name).value;
+    }
+
+    /**
+     * Finds where an existing variable is stored, so that it can be read and written any number of times without
+     * being searched for again. The data stays valid until a variable of the same name is added to a nearer context,
+     * or the variable is removed.
+     * @param name The name of the variable.
+     * @return The data of the variable, or null if there is no such variable.
+     */
+    public VariableData getVariableData(String name) {
+        ScriptContext context = getContextWithVar(this, this, name);
+        return context != null ? context.localData(name) : null;
+    }
+
+    /**
+     * Makes the variables of a data holder visible to every context whose lookups pass through this one, which for
+     * the global context is every context in its runtime. Each variable is only found from contexts that its
+     * {@link ProtectionModifier} allows to access the data holder's own context. Variables of this context, and of
+     * data holders mounted earlier, take precedence.
+     * @param holder The data holder to mount.
+     */
+    public synchronized void mount(DataHolder holder) {
+        if (holder.getContext().runtime != runtime) {
+            throw new IllegalArgumentException("The data holder belongs to a different runtime");
+        }
+        DataHolder[] updated = Arrays.copyOf(mounts, mounts.length + 1);
+        updated[mounts.length] = holder;
+        mounts = updated;
+    }
+
+    /**
+     * @param holder The data holder to stop making visible through this context.
+     * @return True if the data holder was mounted here.
+     */
+    public synchronized boolean unmount(DataHolder holder) {
+        List<DataHolder> list = new ArrayList<>(Arrays.asList(mounts));
+        boolean removed = list.remove(holder);
+        mounts = list.toArray(new DataHolder[0]);
+        return removed;
     }
 
     /**
@@ -182,7 +271,8 @@ public class ScriptContext {
     }
 
     /**
-     * Returns the list of variables specific to this ScriptContext object.
+     * Returns the list of variables specific to this ScriptContext object. The stored variables of a
+     * {@link DataHolder} are not listed, since listing them would decode every one of them.
      * @return A set of variables registered to this specific ScriptContext object.
      */
     public Set<String> getLocalVariables() {
@@ -194,27 +284,65 @@ public class ScriptContext {
      */
     public static class VariableData {
         public final ProtectionModifier protectionMod;
+        /**
+         * The type the variable was declared with, such as {@code int}, or null if it accepts any value.
+         */
+        public final String type;
         public AbstractObject value;
 
         public VariableData(ProtectionModifier protectionMod, AbstractObject value) {
+            this(protectionMod, null, value);
+        }
+
+        public VariableData(ProtectionModifier protectionMod, String type, AbstractObject value) {
             this.protectionMod = protectionMod;
+            this.type = type;
             this.value = value;
         }
     }
 
-    // Searches for the ScriptContext child/parent with the specified variable.
-    private static ScriptContext getContextWithVar(ScriptContext c, String name) {
+    // The variable of this context itself, decoding it first if it is stored in a data holder.
+    private VariableData localData(String name) {
+        VariableData d = varMap.get(name);
+        if (d == null && data != null) {
+            d = data.getVariableData(name);
+        }
+        return d;
+    }
+
+    // Searches for the ScriptContext child/parent with the specified variable, as seen from the origin.
+    private static ScriptContext getContextWithVar(ScriptContext origin, ScriptContext c, String name) {
         ScriptContext context = c;
-        while (context != null && !context.varMap.containsKey(name)) {
+        int depth = 0;
+        while (context != null && context.localData(name) == null) {
+            ScriptContext mounted = context.findMounted(origin, name);
+            if (mounted != null) {
+                context = mounted;
+                break;
+            }
             context = context.parent;
+            depth++;
             if (context == null) {
                 // TODO: Error
                 return null;
             }
         }
+        if (context != null && context.runtime.getMetrics().isEnabled()) {
+            context.runtime.getMetrics().recordLookup(depth);
+        }
         return context;
     }
 
+    private ScriptContext findMounted(ScriptContext origin, String name) {
+        for (DataHolder holder : mounts) {
+            VariableData d = holder.getVariableData(name);
+            if (d != null && ProtectionModifier.canAccessFrom(origin, holder.getContext(), d.protectionMod)) {
+                return holder.getContext();
+            }
+        }
+        return null;
+    }
+
     // ========================================================================
     // Housekeeping
     // ========================================================================
@@ -239,13 +367,13 @@ public class ScriptContext {
     }
 
     /**
-     * Reverts this ScriptContext's parent to {@link ScriptContext#GLOBAL}.
+     * Reverts this ScriptContext's parent to the global context of its {@link ScriptRuntime}.
      * DO NOT USE THIS METHOD ARBITRARILY!
      */
     public void orphan() {
-        if (this == GLOBAL) {
+        if (isGlobal()) {
             return;
         }
-        parent = GLOBAL;
+        parent = runtime.getGlobalContext();
     }
 }
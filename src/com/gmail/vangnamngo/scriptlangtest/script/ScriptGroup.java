@@ -8,46 +8,62 @@ import java.util.*;
  * Represents a collection of scripts under a specific name.
  */
 public class ScriptGroup {
-    // TODO: When registering scripts, always ensure that they're in GLOBAL
-    public final static ScriptGroup GLOBAL = new ScriptGroup();
-
-    private final static Map<ScriptGroup, Set<ScriptGroup>> PARENT_CACHE = new HashMap<>();
-
     public final String name;
     public final ScriptContext groupContext;
     public final ScriptGroup parent;
+    public final ScriptRuntime runtime;
+
+    /*
+     Every group is given an index upon creation which is unique within its runtime. A group's ancestry is stored as a
+     bit set of the indices of itself and all of its parents, which allows subgroup checks without walking the parent
+     chain. Since a group's parent can never change, the bit set only has to be built once, and only from the bit set
+     of its parent.
+     */
+    private final int index;
+    private final int depth;
+    private final long[] ancestry;
 
     /*
      In order to preserve the integrity of a ScriptGroup, DO NOT allow direct public access to the set of scripts in it!
-     The set of scripts in a given ScriptGroup should not arbitrarily change during runtime.
+     The set of scripts in a given ScriptGroup should not arbitrarily change during runtime. The only change allowed is
+     swapping in a new version of a script when it is reloaded, which is done by publishing a whole new set so that
+     readers never see one that is half updated.
      */
-    private final HashSet<Script> scriptSet = new HashSet<>();
+    private volatile Set<Script> scriptSet;
 
-    private ScriptGroup() {
+    // Global group constructor
+    ScriptGroup(ScriptRuntime runtime) {
         this.name = "Global";
-        this.groupContext = ScriptContext.GLOBAL;
+        this.runtime = runtime;
+        this.groupContext = runtime.getGlobalContext();
         this.parent = null;
+        this.index = runtime.claimGroupIndex();
+        this.depth = 0;
+        this.ancestry = buildAncestry(null, index);
+        this.scriptSet = Collections.emptySet();
     }
 
-    public ScriptGroup(@NotNull String name) {
-        this(name, null, null);
-    }
-
-    public ScriptGroup(@NotNull String name, ScriptGroup parent) {
+    public ScriptGroup(@NotNull String name, @NotNull ScriptGroup parent) {
         this(name, null, parent);
     }
 
-    public ScriptGroup(@NotNull String name, Collection<Script> scripts) {
-        this(name, scripts, null);
-    }
-
-    public ScriptGroup(@NotNull String name, Collection<Script> scripts, ScriptGroup parent) {
+    /**
+     * Creates a new script group.
+     * @param name The name of the group.
+     * @param scripts The scripts that belong to this group.
+     * @param parent The parent of this group. Use {@link ScriptRuntime#getGlobalGroup()} for top-level groups.
+     */
+    public ScriptGroup(@NotNull String name, Collection<Script> scripts, @NotNull ScriptGroup parent) {
         this.name = name;
         this.parent = parent;
-        groupContext = new ScriptContext(this, this.parent.groupContext);
-        if (scripts != null) {
-            scriptSet.addAll(scripts);
-        }
+        this.runtime = parent.runtime;
+        this.groupContext = new ScriptContext(this, this.parent.groupContext);
+        this.index = runtime.claimGroupIndex();
+        this.depth = this.parent.depth + 1;
+        this.ancestry = buildAncestry(this.parent, index);
+        this.scriptSet = (scripts == null || scripts.isEmpty())
+                ? Collections.<Script>emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(scripts));
     }
 
     public boolean hasScript(Script script) {
@@ -55,8 +71,11 @@ public class ScriptGroup {
     }
 
     public boolean hasAnyScripts(Collection<Script> scripts) {
+        if (scriptSet.isEmpty()) {
+            return false;
+        }
         for (Script s : scripts) {
-            if (hasScript(s)) {
+            if (scriptSet.contains(s)) {
                 return true;
             }
         }
@@ -67,7 +86,67 @@ public class ScriptGroup {
         return scriptSet.containsAll(scripts);
     }
 
+    /**
+     * Returns the scripts in this group. The returned set is an unmodifiable snapshot that is shared between all
+     * callers, so no copy is made. Scripts that are reloaded afterwards are not reflected in it.
+     * @return An unmodifiable set of the scripts in this group.
+     */
     public final Set<Script> scripts() {
-        return (HashSet<Script>) scriptSet.clone();
+        return scriptSet;
+    }
+
+    /**
+     * Atomically swaps one version of a script for another. Tasks that are already executing the old version keep
+     * doing so until they finish.
+     * @param old The script to remove, or null to only add one.
+     * @param updated The script to add, or null to only remove one.
+     */
+    synchronized void replaceScript(Script old, Script updated) {
+        Set<Script> scripts = new HashSet<>(scriptSet);
+        if (old != null) {
+            scripts.remove(old);
+        }
+        if (updated != null) {
+            scripts.add(updated);
+        }
+        scriptSet = scripts.isEmpty() ? Collections.<Script>emptySet() : Collections.unmodifiableSet(scripts);
+    }
+
+    // ========================================================================
+    // Hierarchy
+    // ========================================================================
+
+    /**
+     * Determines if this group is the provided group or one of its subgroups. This check runs in constant time,
+     * regardless of how deep the group tree is.
+     * @param group The potential parent group.
+     * @return True if this group is the provided group or is a descendant of it, false otherwise.
+     */
+    public boolean isSubgroupOf(ScriptGroup group) {
+        if (group == null || group.runtime != runtime) {
+            return false;
+        }
+        int word = group.index >>> 6;
+        return word < ancestry.length && (ancestry[word] & (1L << group.index)) != 0;
+    }
+
+    /**
+     * @return The number of parents between this group and the global group of its runtime, which has a depth of 0.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    private static long[] buildAncestry(ScriptGroup parent, int index) {
+        int words = (index >>> 6) + 1;
+        long[] bits;
+        if (parent == null) {
+            bits = new long[words];
+        }
+        else {
+            bits = Arrays.copyOf(parent.ancestry, Math.max(words, parent.ancestry.length));
+        }
+        bits[index >>> 6] |= 1L << index;
+        return bits;
     }
 }
@@ -0,0 +1,422 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A compiled tree of {@link ScriptGroup}s and their scripts, stored in a single file so that it can be loaded without
+ * lexing or compiling anything.
+ *
+ * <p>Loading an image maps the file into memory and only reads its header and group table, which creates the groups.
+ * Each script is decoded from the mapped file the first time it is asked for, at which point it is also added to its
+ * group. Startup time therefore depends on the number of groups, not on the number of scripts.</p>
+ *
+ * <p>The file is big-endian and laid out as follows, where every string is stored once in the string pool and
+ * referred to everywhere else by its index. This includes names, directories, source lines and every element of a
+ * compiled line, such as variable and command names and literals.</p>
+ * <pre>
+ * header   magic, version, string count, group count, script count, pool offset, group offset, index offset
+ * pool     one offset per string, then each string as a byte length followed by UTF-8
+ * groups   per group: name, parent group (-1 for the global group); parents always come before their children
+ * index    per script, sorted by directory then name: directory, name, group, offset of its body
+ * bodies   per script: source line count, source lines, compiled line count, then per compiled line: source line
+ *          number, jump target ({@link Script.ExtendedData#NO_JUMP} if none), element count (-1 if the line has
+ *          nothing to execute, in which case nothing else follows), elements, jump table size (-1 if none), jump
+ *          table
+ * </pre>
+ *
+ * <p>Images with a different version are rejected rather than read, so they have to be written again.</p>
+ */
+public class ScriptImage {
+
+    public final static int MAGIC = 0x534C5449;
+    public final static int VERSION = 2;
+
+    private final static int HEADER_SIZE = 32;
+    private final static int INDEX_ENTRY_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int poolOffset;
+    private final int indexOffset;
+    private final int scriptCount;
+    private final ScriptGroup globalGroup;
+    private final ScriptGroup[] groups;
+    private final ConstantPool constants;
+
+    /*
+     Names and directories, decoded lazily and kept, since every lookup compares against them. The elements of compiled
+     lines are never kept here: they are interned in the runtime's constant pool, which holds them only for as long as
+     a script uses them.
+     */
+    private final AtomicReferenceArray<String> strings;
+    private final AtomicReferenceArray<Script> scripts;
+
+    private ScriptImage(ByteBuffer buffer, ScriptRuntime runtime) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a script image");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported script image version " + version + ", expected " + VERSION);
+        }
+        this.stringCount = buffer.getInt(8);
+        int groupCount = buffer.getInt(12);
+        this.scriptCount = buffer.getInt(16);
+        this.poolOffset = buffer.getInt(20);
+        int groupOffset = buffer.getInt(24);
+        this.indexOffset = buffer.getInt(28);
+        if (stringCount < 0 || groupCount < 0 || scriptCount < 0
+                || !fits(poolOffset, 4L * stringCount) || !fits(groupOffset, 8L * groupCount)
+                || !fits(indexOffset, (long) INDEX_ENTRY_SIZE * scriptCount)) {
+            throw new IOException("Corrupt script image");
+        }
+        this.globalGroup = runtime.getGlobalGroup();
+        this.constants = runtime.getConstants();
+        this.strings = new AtomicReferenceArray<>(stringCount);
+        this.scripts = new AtomicReferenceArray<>(scriptCount);
+
+        this.groups = new ScriptGroup[groupCount];
+        for (int i = 0; i < groupCount; i++) {
+            int name = buffer.getInt(groupOffset + 8 * i);
+            int parent = buffer.getInt(groupOffset + 8 * i + 4);
+            if (parent < -1 || parent >= i) {
+                throw new IOException("Corrupt script image");
+            }
+            groups[i] = new ScriptGroup(string(name), parent == -1 ? globalGroup : groups[parent]);
+        }
+    }
+
+    /**
+     * Maps an image into memory and creates its groups in a runtime. No scripts are decoded yet.
+     * @param file The image to load.
+     * @param runtime The runtime to create the groups in.
+     * @return The loaded image.
+     * @throws IOException If the file cannot be read, or is not an image of the current version.
+     */
+    public static ScriptImage load(Path file, ScriptRuntime runtime) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new ScriptImage(buffer, runtime);
+    }
+
+    /**
+     * Reads an image that is already in memory, such as one embedded in another file.
+     * @param buffer The image, starting at position 0 of the buffer.
+     * @param runtime The runtime to create the groups in.
+     * @return The loaded image, which keeps reading from the buffer.
+     * @throws IOException If the buffer does not hold an image of the current version.
+     */
+    static ScriptImage load(ByteBuffer buffer, ScriptRuntime runtime) throws IOException {
+        return new ScriptImage(buffer, runtime);
+    }
+
+    /**
+     * @return Every group in the image, with parents before their children.
+     */
+    public List<ScriptGroup> getGroups() {
+        return Collections.unmodifiableList(Arrays.asList(groups));
+    }
+
+    /**
+     * @return The number of scripts in the image, whether or not they have been decoded.
+     */
+    public int getScriptCount() {
+        return scriptCount;
+    }
+
+    /**
+     * Fetches a script by its position in the image, decoding it if needed.
+     * @param index The index of the script, from 0 to {@link #getScriptCount()} - 1.
+     * @return The script.
+     */
+    public Script getScript(int index) {
+        Script script = scripts.get(index);
+        if (script == null) {
+            Script decoded = decode(index);
+            if (scripts.compareAndSet(index, null, decoded)) {
+                decoded.group.replaceScript(null, decoded);
+                script = decoded;
+            }
+            else {
+                script = scripts.get(index);
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Looks up a script without decoding any other script.
+     * @param directory The directory of the script.
+     * @param name The name of the script.
+     * @return The script, or null if the image has no such script.
+     */
+    public Script getScript(String directory, String name) {
+        int low = 0;
+        int high = scriptCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = indexOffset + INDEX_ENTRY_SIZE * mid;
+            int cmp = string(buffer.getInt(entry)).compareTo(directory);
+            if (cmp == 0) {
+                cmp = string(buffer.getInt(entry + 4)).compareTo(name);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            }
+            else if (cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return getScript(mid);
+            }
+        }
+        return null;
+    }
+
+    private Script decode(int index) {
+        int entry = indexOffset + INDEX_ENTRY_SIZE * index;
+        String directory = string(buffer.getInt(entry));
+        String name = string(buffer.getInt(entry + 4));
+        int group = buffer.getInt(entry + 8);
+        int pos = buffer.getInt(entry + 12);
+
+        String[] raw = new String[buffer.getInt(pos)];
+        pos += 4;
+        for (int i = 0; i < raw.length; i++, pos += 4) {
+            // Scripts pack their source themselves, so the lines are not kept here as well.
+            raw[i] = decodeString(buffer.getInt(pos));
+        }
+
+        Script.ExtendedData[] compiled = new Script.ExtendedData[buffer.getInt(pos)];
+        int[] lineTable = new int[compiled.length];
+        pos += 4;
+        for (int i = 0; i < compiled.length; i++) {
+            lineTable[i] = buffer.getInt(pos);
+            int jump = buffer.getInt(pos + 4);
+            int size = buffer.getInt(pos + 8);
+            pos += 12;
+            if (size < 0) {
+                continue;
+            }
+            String[] data = new String[size];
+            // Interning shares the literals with scripts compiled from source, and with other images.
+            for (int j = 0; j < data.length; j++, pos += 4) {
+                data[j] = constants.intern(decodeString(buffer.getInt(pos)));
+            }
+            compiled[i] = new Script.ExtendedData(data);
+            compiled[i].setLineToJumpTo(jump);
+
+            int tableSize = buffer.getInt(pos);
+            pos += 4;
+            if (tableSize >= 0) {
+                int[] table = new int[tableSize];
+                for (int j = 0; j < table.length; j++, pos += 4) {
+                    table[j] = buffer.getInt(pos);
+                }
+                compiled[i].setJumpTable(table);
+            }
+        }
+        return new Script(name, directory, raw, compiled, lineTable, group == -1 ? globalGroup : groups[group]);
+    }
+
+    private String string(int index) {
+        String s = strings.get(index);
+        if (s == null) {
+            s = decodeString(index);
+            // Racing threads decode the same string, and whichever is published first is kept.
+            if (!strings.compareAndSet(index, null, s)) {
+                s = strings.get(index);
+            }
+        }
+        return s;
+    }
+
+    private String decodeString(int index) {
+        int offset = buffer.getInt(poolOffset + 4 * index);
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean fits(int offset, long length) {
+        return offset >= HEADER_SIZE && offset + length <= buffer.limit();
+    }
+
+    // ========================================================================
+    // Writing
+    // ========================================================================
+
+    /**
+     * Writes groups, along with every parent group they have, and the scripts in them to an image. The file is only
+     * replaced once the whole image has been written.
+     * @param file The file to write to.
+     * @param groups The groups to write. The global group of their runtime is never written itself, but its scripts
+     *               are. Scripts without a directory are written with an empty one.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path file, Collection<ScriptGroup> groups) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            write(os, groups);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes an image to a stream, in the same way as {@link #write(Path, Collection)}.
+     * @param os The stream to write to. It is flushed, but not closed.
+     * @param groups The groups to write.
+     * @return The groups that were written, in the order {@link #getGroups()} returns them once the image is loaded.
+     * @throws IOException If the stream cannot be written to.
+     */
+    static List<ScriptGroup> write(OutputStream os, Collection<ScriptGroup> groups) throws IOException {
+        // Parents are always shallower than their children, so sorting by depth puts them first.
+        Map<ScriptGroup, Integer> groupIndices = new IdentityHashMap<>();
+        List<ScriptGroup> ordered = new ArrayList<>();
+        for (ScriptGroup g : groups) {
+            for (ScriptGroup p = g; p != null && !groupIndices.containsKey(p); p = p.parent) {
+                groupIndices.put(p, -1);
+                ordered.add(p);
+            }
+        }
+        ordered.sort(Comparator.comparingInt(ScriptGroup::getDepth));
+
+        List<ScriptGroup> written = new ArrayList<>();
+        Map<Script, ScriptGroup> owners = new IdentityHashMap<>();
+        for (ScriptGroup g : ordered) {
+            if (g.parent != null) {
+                groupIndices.put(g, written.size());
+                written.add(g);
+            }
+            for (Script s : g.scripts()) {
+                owners.put(s, g);
+            }
+        }
+        List<Script> scripts = new ArrayList<>(owners.keySet());
+        scripts.sort(Comparator.comparing(ScriptImage::directoryOf).thenComparing(s -> s.name));
+
+        Map<String, Integer> pool = new LinkedHashMap<>();
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream bodies = new DataOutputStream(bodyBytes);
+        int[] bodyOffsets = new int[scripts.size()];
+        for (int i = 0; i < scripts.size(); i++) {
+            Script s = scripts.get(i);
+            bodyOffsets[i] = bodies.size();
+            int rawCount = s.getRawLineCount();
+            bodies.writeInt(rawCount);
+            for (int line = 1; line <= rawCount; line++) {
+                bodies.writeInt(intern(pool, s.getRawLine(line)));
+            }
+            bodies.writeInt(s.getLineCount());
+            for (int line = 1; line <= s.getLineCount(); line++) {
+                Script.ExtendedData data = s.getCompiledLine(line);
+                bodies.writeInt(s.getSourceLine(line));
+                bodies.writeInt(data != null ? data.lineToJumpTo() : Script.ExtendedData.NO_JUMP);
+                if (data == null) {
+                    bodies.writeInt(-1);
+                    continue;
+                }
+                bodies.writeInt(data.size());
+                for (int j = 0; j < data.size(); j++) {
+                    bodies.writeInt(intern(pool, data.get(j)));
+                }
+                int[] table = data.getJumpTable();
+                bodies.writeInt(table != null ? table.length : -1);
+                if (table != null) {
+                    for (int target : table) {
+                        bodies.writeInt(target);
+                    }
+                }
+            }
+        }
+        for (ScriptGroup g : written) {
+            intern(pool, g.name);
+        }
+        for (Script s : scripts) {
+            intern(pool, directoryOf(s));
+            intern(pool, s.name);
+        }
+
+        List<byte[]> encoded = new ArrayList<>(pool.size());
+        for (String s : pool.keySet()) {
+            encoded.add(s.getBytes(StandardCharsets.UTF_8));
+        }
+        long poolOffset = HEADER_SIZE;
+        long stringsOffset = poolOffset + 4L * encoded.size();
+        long groupOffset = stringsOffset;
+        for (byte[] b : encoded) {
+            groupOffset += 4 + b.length;
+        }
+        long indexOffset = groupOffset + 8L * written.size();
+        long bodyOffset = indexOffset + (long) INDEX_ENTRY_SIZE * scripts.size();
+        if (bodyOffset + bodies.size() > Integer.MAX_VALUE) {
+            throw new IOException("Script image would be larger than 2 GiB");
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(encoded.size());
+        out.writeInt(written.size());
+        out.writeInt(scripts.size());
+        out.writeInt((int) poolOffset);
+        out.writeInt((int) groupOffset);
+        out.writeInt((int) indexOffset);
+
+        long offset = stringsOffset;
+        for (byte[] b : encoded) {
+            out.writeInt((int) offset);
+            offset += 4 + b.length;
+        }
+        for (byte[] b : encoded) {
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        for (ScriptGroup g : written) {
+            out.writeInt(pool.get(g.name));
+            out.writeInt(groupIndices.get(g.parent));
+        }
+        for (int i = 0; i < scripts.size(); i++) {
+            Script s = scripts.get(i);
+            out.writeInt(pool.get(directoryOf(s)));
+            out.writeInt(pool.get(s.name));
+            out.writeInt(groupIndices.get(owners.get(s)));
+            out.writeInt((int) bodyOffset + bodyOffsets[i]);
+        }
+        bodyBytes.writeTo(out);
+        out.flush();
+        return written;
+    }
+
+    private static String directoryOf(Script script) {
+        return script.directory != null ? script.directory : "";
+    }
+
+    private static int intern(Map<String, Integer> pool, String s) {
+        Integer index = pool.get(s);
+        if (index == null) {
+            index = pool.size();
+            pool.put(s, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,285 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Loads the scripts in a set of directories and keeps them up to date as their files change, so that edits can be
+ * picked up without restarting.
+ *
+ * <p>Each watched directory belongs to a {@link ScriptGroup}. When a file changes, it is reloaded once no further
+ * changes have been made to it for the debounce delay, since editors often write a file several times when saving
+ * it. Only that file is lexed and compiled again. The new version is then swapped into its group, while tasks that
+ * are already executing the old version carry on with it until they finish. Files whose contents have not actually
+ * changed are skipped, so every other script keeps its compiled and prepared lines.</p>
+ *
+ * <p>Reloads all happen on a single background thread, one file at a time.</p>
+ */
+public class ScriptReloader implements AutoCloseable {
+
+    public final static long DEFAULT_DEBOUNCE_MILLIS = 200;
+    private final static String EXTENSION = ".slt";
+
+    private final ScriptRuntime runtime;
+    private final long debounceMillis;
+    private final WatchService watcher;
+    private final ScheduledExecutorService scheduler;
+    private final Thread pollThread;
+    private final ScriptCompiler compiler;
+    private volatile Listener listener = null;
+
+    private final Map<WatchKey, Watched> directories = new ConcurrentHashMap<>();
+    private final Map<Path, Loaded> loaded = new ConcurrentHashMap<>();
+    private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a reloader which waits {@value #DEFAULT_DEBOUNCE_MILLIS} milliseconds after the last change to a file.
+     * @param runtime The runtime to compile scripts for.
+     * @throws IOException If the file system cannot be watched.
+     */
+    public ScriptReloader(ScriptRuntime runtime) throws IOException {
+        this(runtime, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @param runtime The runtime to compile scripts for.
+     * @param debounceMillis How long a file must go unchanged before it is reloaded, in milliseconds.
+     * @throws IOException If the file system cannot be watched.
+     */
+    public ScriptReloader(ScriptRuntime runtime, long debounceMillis) throws IOException {
+        this.runtime = runtime;
+        this.debounceMillis = debounceMillis;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.compiler = runtime.newCompiler();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ScriptReloader");
+            t.setDaemon(true);
+            return t;
+        });
+        this.pollThread = new Thread(this::poll, "ScriptReloader-Watcher");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    /**
+     * Sets what is told about reloads. Only one listener can be set at a time.
+     * @param listener The listener, or null to stop listening.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Loads every script in a directory into a group, then starts watching the directory for changes.
+     * Subdirectories are not included. Scripts that fail to compile are reported to the listener and skipped until
+     * they are fixed.
+     * @param directory The directory to watch.
+     * @param group The group the scripts belong to.
+     * @return The scripts that were loaded.
+     * @throws IOException If the directory cannot be read or watched.
+     */
+    public List<Script> watch(Path directory, ScriptGroup group) throws IOException {
+        if (group.runtime != runtime) {
+            throw new IllegalArgumentException("The group belongs to a different runtime");
+        }
+        Path dir = directory.toAbsolutePath().normalize();
+        WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, new Watched(dir, group));
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // Loading on the reload thread keeps the compiler confined to it.
+        try {
+            return scheduler.submit(() -> {
+                List<Script> scripts = new ArrayList<>();
+                for (Path file : files) {
+                    Script script = reload(file, group);
+                    if (script != null) {
+                        scripts.add(script);
+                    }
+                }
+                return scripts;
+            }).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + dir, e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Could not load " + dir, e.getCause());
+        }
+    }
+
+    /**
+     * @param file The file of a script in a watched directory.
+     * @return The current version of the script, or null if it has not been loaded.
+     */
+    public Script getScript(Path file) {
+        Loaded l = loaded.get(file.toAbsolutePath().normalize());
+        return l != null ? l.script : null;
+    }
+
+    /**
+     * Stops watching every directory. Scripts that have already been loaded stay in their groups.
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        scheduler.shutdownNow();
+        pollThread.interrupt();
+    }
+
+    // ========================================================================
+    // Watching
+    // ========================================================================
+
+    private void poll() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Watched watched = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (watched == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        continue;
+                    }
+                    Path file = watched.directory.resolve((Path) event.context());
+                    if (file.getFileName().toString().endsWith(EXTENSION)) {
+                        schedule(file, watched.group);
+                    }
+                }
+                if (!key.reset()) {
+                    directories.remove(key);
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            // The reloader has been closed.
+        }
+    }
+
+    // Each change pushes the reload of its file back, so a burst of writes only causes a single reload.
+    private void schedule(Path file, ScriptGroup group) {
+        pending.compute(file, (f, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            return scheduler.schedule(() -> {
+                pending.remove(f);
+                reload(f, group);
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    // ========================================================================
+    // Reloading
+    // ========================================================================
+
+    // Only ever called on the reload thread.
+    private Script reload(Path file, ScriptGroup group) {
+        Loaded previous = loaded.get(file);
+        Script old = previous != null ? previous.script : null;
+        Listener l = listener;
+
+        if (!Files.isRegularFile(file)) {
+            if (old != null) {
+                loaded.remove(file);
+                group.replaceScript(old, null);
+                if (l != null) {
+                    l.reloaded(file, old, null);
+                }
+            }
+            return null;
+        }
+
+        try {
+            long checksum = checksumOf(file);
+            if (previous != null && previous.checksum == checksum) {
+                return old;
+            }
+            Script updated = compiler.compile(file.toFile(), group);
+            loaded.put(file, new Loaded(updated, checksum));
+            group.replaceScript(old, updated);
+            if (l != null) {
+                l.reloaded(file, old, updated);
+            }
+            return updated;
+        }
+        catch (Exception e) {
+            // The old version, if there is one, is kept until the file compiles again.
+            if (l != null) {
+                l.failed(file, e);
+            }
+            return old;
+        }
+    }
+
+    private static long checksumOf(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(file));
+        return crc.getValue();
+    }
+
+    private final static class Watched {
+        private final Path directory;
+        private final ScriptGroup group;
+
+        private Watched(Path directory, ScriptGroup group) {
+            this.directory = directory;
+            this.group = group;
+        }
+    }
+
+    private final static class Loaded {
+        private final Script script;
+        private final long checksum;
+
+        private Loaded(Script script, long checksum) {
+            this.script = script;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Told about every script that is loaded, reloaded or removed. Called on the reload thread.
+     */
+    public interface Listener {
+
+        /**
+         * @param file The file of the script.
+         * @param old The previous version of the script, or null if it is new.
+         * @param updated The new version of the script, or null if its file was deleted.
+         */
+        void reloaded(Path file, Script old, Script updated);
+
+        /**
+         * @param file The file that could not be loaded.
+         * @param e Why it could not be loaded.
+         */
+        void failed(Path file, Exception e);
+    }
+}
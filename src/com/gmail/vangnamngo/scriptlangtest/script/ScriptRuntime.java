@@ -0,0 +1,206 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.command.CommandRegistry;
+import com.gmail.vangnamngo.scriptlangtest.corrections.Corrector;
+import com.gmail.vangnamngo.scriptlangtest.execution.ResourceGovernor;
+import com.gmail.vangnamngo.scriptlangtest.metrics.ScriptMetrics;
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.object.NullObject;
+import com.gmail.vangnamngo.scriptlangtest.output.ChannelOutputSink;
+import com.gmail.vangnamngo.scriptlangtest.output.OutputSink;
+import com.gmail.vangnamngo.scriptlangtest.parser.Dialect;
+import com.gmail.vangnamngo.scriptlangtest.parser.FileLexer;
+import com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler;
+import com.gmail.vangnamngo.scriptlangtest.utility.WeakIdentityMap;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An independent instance of the interpreter. Each runtime owns its own global {@link ScriptContext}, root
+ * {@link ScriptGroup}, {@link Dialect} and registries, and shares no mutable state with any other runtime. Any number
+ * of runtimes may exist in the same JVM.
+ *
+ * <p>Every ScriptContext and ScriptGroup belongs to exactly one runtime, which is inherited from its parent.</p>
+ */
+public class ScriptRuntime implements AutoCloseable {
+
+    private final static AtomicReferenceFieldUpdater<ScriptRuntime, OutputSink> OUTPUT =
+            AtomicReferenceFieldUpdater.newUpdater(ScriptRuntime.class, OutputSink.class, "output");
+
+    private final AbstractObject nullObject = new NullObject();
+    private final Dialect dialect;
+    private final CommandRegistry commands = CommandRegistry.withBuiltins();
+    private final ScriptMetrics metrics = new ScriptMetrics();
+    private final ResourceGovernor governor = new ResourceGovernor();
+    private final ConstantPool constants = new ConstantPool();
+    // Read on every line of output, so it is never locked.
+    private volatile OutputSink output = null;
+
+    // Every ScriptContext is registered here so that they can all be verified at once. Contexts are only weakly held.
+    private final WeakIdentityMap<ScriptContext, Boolean> liveContexts = new WeakIdentityMap<>();
+    private final AtomicInteger nextGroupIndex = new AtomicInteger();
+
+    private final ScriptContext globalContext;
+    private final ScriptGroup globalGroup;
+    private final Corrector corrector;
+
+    /**
+     * Creates a runtime that only recognizes the built-in keywords.
+     */
+    public ScriptRuntime() {
+        this(new Dialect());
+    }
+
+    /**
+     * Creates a runtime with its own copy of the provided dialect.
+     * @param dialect The dialect to copy.
+     */
+    public ScriptRuntime(Dialect dialect) {
+        this.dialect = new Dialect(dialect);
+        this.globalContext = new ScriptContext(this);
+        this.globalGroup = new ScriptGroup(this);
+        this.corrector = new Corrector(this);
+    }
+
+    /**
+     * @return The context at the root of every parent chain in this runtime.
+     */
+    public ScriptContext getGlobalContext() {
+        return globalContext;
+    }
+
+    /**
+     * @return The group at the root of every group tree in this runtime.
+     */
+    public ScriptGroup getGlobalGroup() {
+        return globalGroup;
+    }
+
+    /**
+     * @return The object assigned to variables that have no value.
+     */
+    public AbstractObject getNullObject() {
+        return nullObject;
+    }
+
+    /**
+     * @return The keywords and line continuation rules used by this runtime.
+     */
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @return The commands that scripts in this runtime can call.
+     */
+    public CommandRegistry getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return The metrics gathered for this runtime. They are disabled until
+     *         {@link ScriptMetrics#setEnabled(boolean)} is called.
+     */
+    public ScriptMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The resource limits of the scripts and groups of this runtime.
+     */
+    public ResourceGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * @return The literals shared by every script in this runtime.
+     */
+    public ConstantPool getConstants() {
+        return constants;
+    }
+
+    /**
+     * Fetches the sink that scripts in this runtime write their output to. Unless another sink has been set, this is
+     * a buffered sink for the standard output stream, which is created on first use.
+     * @return The output sink of this runtime.
+     */
+    public OutputSink getOutput() {
+        OutputSink sink = output;
+        if (sink != null) {
+            return sink;
+        }
+        // A thread that loses the race uses the winner's sink. Its own was never written to, so it can be dropped.
+        OutputSink created = ChannelOutputSink.forStandardOutput();
+        return OUTPUT.compareAndSet(this, null, created) ? created : output;
+    }
+
+    /**
+     * Replaces the sink that scripts in this runtime write their output to. The previous sink is flushed, but not
+     * closed.
+     * @param output The new output sink.
+     */
+    public synchronized void setOutput(OutputSink output) {
+        OutputSink previous = OUTPUT.getAndSet(this, output);
+        if (previous != null) {
+            previous.flush();
+        }
+    }
+
+    /**
+     * @return The {@link Corrector} which verifies and repairs the objects of this runtime.
+     */
+    public Corrector getCorrector() {
+        return corrector;
+    }
+
+    /**
+     * Creates a new lexer that follows the dialect of this runtime. Lexers are not thread-safe, so a new one should be
+     * created for every file that is tokenized concurrently.
+     * @return A new lexer.
+     */
+    public FileLexer newLexer() {
+        return new FileLexer(dialect, metrics);
+    }
+
+    /**
+     * Creates a new compiler that follows the dialect of this runtime. Like lexers, compilers are not thread-safe.
+     * @return A new compiler.
+     */
+    public ScriptCompiler newCompiler() {
+        return new ScriptCompiler(dialect, metrics, constants);
+    }
+
+    /**
+     * Lists every ScriptContext object in this runtime that has not yet been garbage collected, excluding the global
+     * context.
+     * @return A snapshot of all live ScriptContext objects.
+     */
+    public List<ScriptContext> getLiveContexts() {
+        return liveContexts.keys();
+    }
+
+    /**
+     * Flushes any buffered output and releases the registries of this runtime. The runtime should not be used
+     * afterwards.
+     */
+    @Override
+    public void close() {
+        OutputSink sink = output;
+        if (sink != null) {
+            sink.flush();
+        }
+        liveContexts.clear();
+        corrector.clear();
+        constants.clear();
+    }
+
+    void registerContext(ScriptContext context) {
+        liveContexts.put(context, Boolean.TRUE);
+    }
+
+    int claimGroupIndex() {
+        return nextGroupIndex.getAndIncrement();
+    }
+}
@@ -0,0 +1,96 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The source code of a script, kept for error messages and profiles. Every line is packed into a single byte array,
+ * one byte per character when the source is all Latin-1 and UTF-8 otherwise, and a line is only turned back into a
+ * String when it is asked for.
+ */
+final class SourceText {
+
+    final static SourceText EMPTY = new SourceText(new byte[0], new int[1], true);
+
+    private final byte[] bytes;
+    // Where each line starts in bytes, plus one final entry for the end of the last line.
+    private final int[] offsets;
+    private final boolean latin1;
+
+    private SourceText(byte[] bytes, int[] offsets, boolean latin1) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.latin1 = latin1;
+    }
+
+    /**
+     * @param lines The lines of the source code. Null lines are stored as empty lines.
+     * @return The packed source code.
+     */
+    static SourceText of(String[] lines) {
+        if (lines == null || lines.length == 0) {
+            return EMPTY;
+        }
+        boolean latin1 = true;
+        int length = 0;
+        for (String line : lines) {
+            if (line == null) {
+                continue;
+            }
+            length += line.length();
+            for (int i = 0; latin1 && i < line.length(); i++) {
+                latin1 = line.charAt(i) <= 0xFF;
+            }
+        }
+
+        int[] offsets = new int[lines.length + 1];
+        if (latin1) {
+            byte[] bytes = new byte[length];
+            int pos = 0;
+            for (int i = 0; i < lines.length; i++) {
+                offsets[i] = pos;
+                String line = lines[i];
+                for (int j = 0; line != null && j < line.length(); j++) {
+                    bytes[pos++] = (byte) line.charAt(j);
+                }
+            }
+            offsets[lines.length] = pos;
+            return new SourceText(bytes, offsets, true);
+        }
+
+        byte[][] encoded = new byte[lines.length][];
+        length = 0;
+        for (int i = 0; i < lines.length; i++) {
+            encoded[i] = lines[i] == null ? new byte[0] : lines[i].getBytes(StandardCharsets.UTF_8);
+            length += encoded[i].length;
+        }
+        byte[] bytes = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < lines.length; i++) {
+            offsets[i] = pos;
+            System.arraycopy(encoded[i], 0, bytes, pos, encoded[i].length);
+            pos += encoded[i].length;
+        }
+        offsets[lines.length] = pos;
+        return new SourceText(bytes, offsets, false);
+    }
+
+    /**
+     * @return The number of lines.
+     */
+    int getLineCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @param line The line number, starting from 1.
+     * @return A new copy of the line, or null if there is no such line.
+     */
+    String getLine(int line) {
+        if (line < 1 || line >= offsets.length) {
+            return null;
+        }
+        int start = offsets[line - 1];
+        return new String(bytes, start, offsets[line] - start,
+                latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+}
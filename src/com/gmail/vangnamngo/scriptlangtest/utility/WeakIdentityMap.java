@@ -0,0 +1,131 @@
+package com.gmail.vangnamngo.scriptlangtest.utility;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe map whose keys are compared by identity and only weakly referenced. Entries are dropped on their own
+ * once their keys have been garbage collected, so objects registered here will never be kept alive by this map.
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class WeakIdentityMap<K, V> {
+
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    public V get(K key) {
+        return key == null ? null : map.get(new LookupKey(key));
+    }
+
+    public boolean containsKey(K key) {
+        return key != null && map.containsKey(new LookupKey(key));
+    }
+
+    public V put(K key, V value) {
+        expunge();
+        return map.put(new WeakKey<>(key, queue), value);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        expunge();
+        return map.putIfAbsent(new WeakKey<>(key, queue), value);
+    }
+
+    public V remove(K key) {
+        expunge();
+        return key == null ? null : map.remove(new LookupKey(key));
+    }
+
+    public void clear() {
+        map.clear();
+        expunge();
+    }
+
+    /**
+     * @return The approximate number of entries. Entries whose keys were collected may still be counted.
+     */
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    /**
+     * Returns a snapshot of the keys that are still alive. Changes to the map will not be reflected in the snapshot.
+     * @return A new list of the live keys in this map.
+     */
+    @SuppressWarnings("unchecked")
+    public List<K> keys() {
+        expunge();
+        List<K> list = new ArrayList<>(map.size());
+        for (Object o : map.keySet()) {
+            K k = ((WeakKey<K>) o).get();
+            if (k != null) {
+                list.add(k);
+            }
+        }
+        return list;
+    }
+
+    private void expunge() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    // The hash code is computed once, since it has to stay the same after the referent has been collected.
+    private final static class WeakKey<K> extends WeakReference<K> {
+        private final int hash;
+
+        WeakKey(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            Object k = get();
+            if (k == null) {
+                return false;
+            }
+            if (o instanceof WeakKey) {
+                return k == ((WeakKey<?>) o).get();
+            }
+            return o instanceof LookupKey && k == ((LookupKey) o).key;
+        }
+    }
+
+    // A strongly-held key used only for lookups, so that no reference has to be created and enqueued for them.
+    private final static class LookupKey {
+        private final Object key;
+
+        LookupKey(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof WeakKey) {
+                return ((WeakKey<?>) o).get() == key;
+            }
+            return o instanceof LookupKey && ((LookupKey) o).key == key;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.gmail.vangnamngo.scriptlangtest.utility;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe pool of canonical instances, compared by {@link Object#equals(Object)}. Interning an object returns
+ * the instance already in the pool that equals it, or adds the object itself if there is none. Instances are only
+ * weakly referenced, so they are dropped from the pool once nothing else refers to them.
+ * @param <T> The type of the instances. They must not change in any way that affects their equality.
+ */
+public class WeakInterner<T> {
+
+    private final ConcurrentHashMap<Object, WeakEntry<T>> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    /**
+     * @param value The object to intern.
+     * @return The canonical instance equal to the object, which is the object itself if it was not in the pool yet.
+     */
+    public T intern(T value) {
+        WeakEntry<T> entry = map.get(new LookupKey(value));
+        T canonical = entry != null ? entry.get() : null;
+        if (canonical != null) {
+            return canonical;
+        }
+        expunge();
+        WeakEntry<T> created = new WeakEntry<>(value, queue);
+        while (true) {
+            entry = map.putIfAbsent(created, created);
+            if (entry == null) {
+                return value;
+            }
+            canonical = entry.get();
+            if (canonical != null) {
+                return canonical;
+            }
+            // The existing instance was collected but has not been expunged yet.
+            map.remove(entry, entry);
+        }
+    }
+
+    public void clear() {
+        map.clear();
+        expunge();
+    }
+
+    /**
+     * @return The approximate number of instances. Instances that were collected may still be counted.
+     */
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    private void expunge() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref, ref);
+        }
+    }
+
+    // Like the keys of WeakIdentityMap, but compared by equality. Each entry is both the key and the value.
+    private final static class WeakEntry<T> extends WeakReference<T> {
+        private final int hash;
+
+        WeakEntry(T value, ReferenceQueue<T> queue) {
+            super(value, queue);
+            hash = value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            Object v = get();
+            if (v == null) {
+                return false;
+            }
+            if (o instanceof WeakEntry) {
+                return v.equals(((WeakEntry<?>) o).get());
+            }
+            return o instanceof LookupKey && v.equals(((LookupKey) o).value);
+        }
+    }
+
+    private final static class LookupKey {
+        private final Object value;
+
+        LookupKey(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof WeakEntry) {
+                return value.equals(((WeakEntry<?>) o).get());
+            }
+            return o instanceof LookupKey && ((LookupKey) o).value.equals(value);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.gmail.vangnamngo.scriptlangtest.command;
+
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.object.IntegerObject;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binds call sites to commands with and without signatures, and checks how their arguments reach the command.
+ */
+public class CompiledInvocationTest {
+
+    private ScriptRuntime runtime;
+    private CommandRegistry commands;
+
+    @Before
+    public void setUp() {
+        runtime = new ScriptRuntime();
+        commands = new CommandRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        runtime.close();
+    }
+
+    @Test
+    public void positionalArgumentsReachTheirSlots() {
+        RecordingCommand command = new RecordingCommand(new CommandSignature("a", "b"));
+        commands.register("cmd", command);
+        CompiledInvocation invocation = CompiledInvocation.bindPositional(commands.bind("cmd"), 2);
+        assertTrue(invocation.invoke(runtime.getGlobalContext(), new IntegerObject(1), new StringObject("two")));
+        assertEquals(new IntegerObject(1), command.received.get("a"));
+        assertEquals(new StringObject("two"), command.received.get("b"));
+    }
+
+    @Test
+    public void namedArgumentsReachTheirSlots() {
+        RecordingCommand command = new RecordingCommand(new CommandSignature("a", "b"));
+        commands.register("cmd", command);
+        CompiledInvocation invocation = CompiledInvocation.bindNamed(commands.bind("cmd"), "b", "a");
+        assertTrue(invocation.invoke(runtime.getGlobalContext(), new IntegerObject(1), new IntegerObject(2)));
+        assertEquals(new IntegerObject(2), command.received.get("a"));
+        assertEquals(new IntegerObject(1), command.received.get("b"));
+    }
+
+    @Test
+    public void commandWithoutSignatureTakesArgumentsByPosition() {
+        RecordingCommand command = new RecordingCommand(null);
+        commands.register("cmd", command);
+        CompiledInvocation invocation = CompiledInvocation.bindPositional(commands.bind("cmd"), 3);
+        assertTrue(invocation.invoke(runtime.getGlobalContext(), new IntegerObject(1), new IntegerObject(2),
+                new IntegerObject(3)));
+        assertEquals(3, command.received.size());
+        assertEquals(new IntegerObject(3), command.received.get("2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyArgumentsAreRejectedWhenBound() {
+        commands.register("cmd", new RecordingCommand(new CommandSignature("a")));
+        CompiledInvocation.bindPositional(commands.bind("cmd"), 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCommandIsRejectedWhenBound() {
+        CompiledInvocation.bindPositional(commands.bind("cmd"), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongNumberOfArgumentsIsRejectedWhenInvoked() {
+        commands.register("cmd", new RecordingCommand(new CommandSignature("a", "b")));
+        CompiledInvocation.bindPositional(commands.bind("cmd"), 2).invoke(runtime.getGlobalContext(),
+                new IntegerObject(1));
+    }
+
+    @Test
+    public void oversizedFrameIsNotAccepted() {
+        RecordingCommand command = new RecordingCommand(new CommandSignature("a"));
+        ArgumentFrame frame = new ArgumentFrame(2);
+        frame.reset(2);
+        frame.set(0, new IntegerObject(1));
+        frame.set(1, new IntegerObject(2));
+        assertFalse(command.invoke(runtime.getGlobalContext(), frame));
+        assertFalse(command.invokeAsync(runtime.getGlobalContext(), frame).join());
+        assertNull(command.received);
+    }
+
+    @Test
+    public void replacedCommandIsCalled() {
+        RecordingCommand first = new RecordingCommand(new CommandSignature("a"));
+        RecordingCommand second = new RecordingCommand(new CommandSignature("a"));
+        commands.register("cmd", first);
+        CompiledInvocation invocation = CompiledInvocation.bindPositional(commands.bind("cmd"), 1);
+        commands.register("cmd", second);
+        assertTrue(invocation.invoke(runtime.getGlobalContext(), new IntegerObject(1)));
+        assertNull(first.received);
+        assertEquals(new IntegerObject(1), second.received.get("a"));
+    }
+
+    // Remembers the arguments it was last executed with.
+    private static class RecordingCommand extends AbstractCommand {
+        private final CommandSignature signature;
+        private Map<String, AbstractObject> received;
+
+        private RecordingCommand(CommandSignature signature) {
+            this.signature = signature;
+        }
+
+        @Override
+        public CommandSignature getSignature() {
+            return signature;
+        }
+
+        @Override
+        public boolean processArguments(ScriptContext context, Map<String, AbstractObject> args) {
+            processedArgs = args;
+            return true;
+        }
+
+        @Override
+        public void execute(ScriptContext context) {
+            received = processedArgs;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException;
+import com.gmail.vangnamngo.scriptlangtest.exception.ResourceLimitException.Resource;
+import com.gmail.vangnamngo.scriptlangtest.object.IntegerObject;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+import com.gmail.vangnamngo.scriptlangtest.output.MemoryOutputSink;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptGroup;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs scripts under resource limits and checks that they are terminated cleanly once they exceed one.
+ */
+public class ResourceGovernorTest {
+
+    private final static String[] COUNT_FOREVER = { "int i = 0", "while (true):", "    i += 1" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptRuntime runtime;
+    private MemoryOutputSink output;
+    private ScriptExecutor executor;
+
+    @Before
+    public void setUp() {
+        runtime = new ScriptRuntime();
+        output = new MemoryOutputSink();
+        runtime.setOutput(output);
+        executor = new ScriptExecutor(new ScriptInterpreter(), 1, ScriptExecutor.DEFAULT_BUDGET);
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+        runtime.close();
+    }
+
+    // ------------------------------------------------------------------------
+    // Script limits
+    // ------------------------------------------------------------------------
+
+    @Test(timeout = 10_000)
+    public void instructionLimitStopsTheScript() throws Exception {
+        Script script = compile(COUNT_FOREVER);
+        runtime.getGovernor().setLimits(script, ResourceLimits.UNLIMITED.limitInstructions(100));
+        ScriptContext context = new ScriptContext(script);
+        ScriptTask task = executor.submit(script, context);
+        ResourceLimitException e = assertLimitExceeded(task, Resource.INSTRUCTIONS);
+        assertEquals(100, e.limit);
+        // Checked before every line, so the line past the limit never runs.
+        assertEquals(100, task.getInstructionCount());
+        assertContextUsable(context, "i");
+    }
+
+    @Test(timeout = 10_000)
+    public void wallTimeLimitStopsTheScript() throws Exception {
+        Script script = compile(COUNT_FOREVER);
+        runtime.getGovernor().setLimits(script, ResourceLimits.UNLIMITED.limitWallTime(50));
+        ScriptContext context = new ScriptContext(script);
+        ScriptTask task = executor.submit(script, context);
+        ResourceLimitException e = assertLimitExceeded(task, Resource.WALL_TIME);
+        assertEquals(50, e.limit);
+        assertTrue(e.used > 50);
+        assertContextUsable(context, "i");
+    }
+
+    @Test(timeout = 10_000)
+    public void finishedScriptIsNotStopped() throws Exception {
+        Script script = compile("int i = 0", "while (i != 10):", "    i += 1");
+        runtime.getGovernor().setLimits(script, ResourceLimits.UNLIMITED.limitInstructions(1000));
+        ScriptContext context = new ScriptContext(script);
+        executor.submit(script, context).completion().join();
+        assertEquals(new IntegerObject(10), context.getVariable("i"));
+    }
+
+    // ------------------------------------------------------------------------
+    // Group limits
+    // ------------------------------------------------------------------------
+
+    @Test(timeout = 10_000)
+    public void groupLimitsAreSharedBySubgroups() throws Exception {
+        ScriptGroup limited = new ScriptGroup("limited", runtime.getGlobalGroup());
+        ScriptGroup child = new ScriptGroup("child", limited);
+        Script script = compile(child, "int i = 0", "while (i != 100):", "    i += 1");
+
+        // Measured first, since the exact number of lines a loop takes is up to the compiler.
+        ScriptTask unlimited = executor.submit(script, new ScriptContext(script));
+        unlimited.completion().join();
+        long perRun = unlimited.getInstructionCount();
+        assertEquals(0, runtime.getGovernor().getUsage(limited, Resource.INSTRUCTIONS));
+
+        runtime.getGovernor().setLimits(limited, ResourceLimits.UNLIMITED.limitInstructions(perRun * 3 / 2));
+        executor.submit(script, new ScriptContext(script)).completion().join();
+        assertEquals(perRun, runtime.getGovernor().getUsage(limited, Resource.INSTRUCTIONS));
+
+        ScriptContext context = new ScriptContext(script);
+        ResourceLimitException e = assertLimitExceeded(executor.submit(script, context), Resource.INSTRUCTIONS);
+        assertEquals(perRun * 3 / 2, e.limit);
+        assertTrue(e.getMessage().contains("group limited"));
+        assertTrue(runtime.getGovernor().getUsage(limited, Resource.INSTRUCTIONS) > perRun * 3 / 2);
+
+        // Once reset, the same context can run to the end.
+        runtime.getGovernor().resetUsage(limited);
+        assertEquals(0, runtime.getGovernor().getUsage(limited, Resource.INSTRUCTIONS));
+        executor.submit(script, context).completion().join();
+        assertEquals(new IntegerObject(100), context.getVariable("i"));
+    }
+
+    @Test(timeout = 10_000)
+    public void groupAllocationLimitIsShared() throws Exception {
+        ScriptGroup limited = new ScriptGroup("limited", runtime.getGlobalGroup());
+        Script script = compile(limited, "string s = \"0123456789\"", "while (true):", "    s += s");
+        runtime.getGovernor().setLimits(limited, ResourceLimits.UNLIMITED.limitAllocatedBytes(1_000_000));
+        ScriptContext context = new ScriptContext(script);
+        ResourceLimitException e = assertLimitExceeded(executor.submit(script, context), Resource.ALLOCATED_BYTES);
+        assertTrue(e.getMessage().contains("group limited"));
+        assertTrue(runtime.getGovernor().getUsage(limited, Resource.ALLOCATED_BYTES) > 1_000_000);
+        assertContextUsable(context, "s");
+    }
+
+    // ------------------------------------------------------------------------
+    // Allocations
+    // ------------------------------------------------------------------------
+
+    // A string that is never charged keeps growing until the JVM runs out of memory, so these fail by timing out.
+
+    @Test(timeout = 10_000)
+    public void concatenationIsCharged() throws Exception {
+        assertStringBuildStopped("s = s + s");
+    }
+
+    @Test(timeout = 10_000)
+    public void compoundConcatenationIsCharged() throws Exception {
+        assertStringBuildStopped("s += s");
+    }
+
+    @Test(timeout = 10_000)
+    public void incrementConcatenationIsCharged() throws Exception {
+        assertStringBuildStopped("s += 1");
+    }
+
+    @Test
+    public void foldedConcatenationIsCharged() throws Exception {
+        Script script = compile("string s = \"abc\" + \"def\"");
+        ScriptTask task = executor.submit(script, new ScriptContext(script));
+        task.completion().join();
+        assertTrue(task.getAllocatedBytes() >= 12);
+    }
+
+    // ------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------
+
+    // Grows a string forever with the provided line, and checks that the allocation limit stops it before the string
+    // gets much larger than the limit.
+    private void assertStringBuildStopped(String grow) throws Exception {
+        long limit = 1_000_000;
+        Script script = compile("string s = \"0123456789\"", "while (true):", "    " + grow);
+        runtime.getGovernor().setLimits(script, ResourceLimits.UNLIMITED.limitAllocatedBytes(limit));
+        ScriptContext context = new ScriptContext(script);
+        ScriptTask task = executor.submit(script, context);
+        ResourceLimitException e = assertLimitExceeded(task, Resource.ALLOCATED_BYTES);
+        assertEquals(limit, e.limit);
+        assertTrue(task.getAllocatedBytes() > limit);
+        // The string that would have exceeded the limit is never assigned.
+        String s = ((StringObject) context.getVariable("s")).value;
+        assertTrue(s.length() * 2L <= limit);
+        assertContextUsable(context, "s");
+    }
+
+    // Runs another script in a context whose task was stopped, which must still be able to read and assign the
+    // variable the stopped task was working on.
+    private void assertContextUsable(ScriptContext context, String variable) throws Exception {
+        Script next = compile(variable + " = " + variable, "echoln(\"still here\")");
+        output.clear();
+        executor.submit(next, context).completion().join();
+        assertEquals("still here\n", output.getOutput());
+    }
+
+    private static ResourceLimitException assertLimitExceeded(ScriptTask task, Resource resource) {
+        try {
+            task.completion().join();
+            fail("Expected the " + resource + " limit to be exceeded");
+            return null;
+        }
+        catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ResourceLimitException);
+            ResourceLimitException limit = (ResourceLimitException) e.getCause();
+            assertEquals(resource, limit.resource);
+            return limit;
+        }
+    }
+
+    private Script compile(String... source) throws Exception {
+        return compile(runtime.getGlobalGroup(), source);
+    }
+
+    private Script compile(ScriptGroup group, String... source) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(source), StandardCharsets.UTF_8);
+        return runtime.newCompiler().compile(file, group);
+    }
+}
@@ -0,0 +1,411 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.command.AbstractCommand;
+import com.gmail.vangnamngo.scriptlangtest.command.CommandBatcher;
+import com.gmail.vangnamngo.scriptlangtest.command.CommandSignature;
+import com.gmail.vangnamngo.scriptlangtest.object.AbstractObject;
+import com.gmail.vangnamngo.scriptlangtest.object.IntegerObject;
+import com.gmail.vangnamngo.scriptlangtest.output.MemoryOutputSink;
+import com.gmail.vangnamngo.scriptlangtest.script.ProtectionModifier;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parks and resumes tasks on futures, signals and batched commands, and cancels them while they are parked.
+ */
+public class ScriptExecutorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptRuntime runtime;
+    private MemoryOutputSink output;
+    private ScriptExecutor executor;
+    private CommandBatcher batcher;
+
+    @Before
+    public void setUp() {
+        runtime = new ScriptRuntime();
+        output = new MemoryOutputSink();
+        runtime.setOutput(output);
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+        if (batcher != null) {
+            batcher.close();
+        }
+        runtime.close();
+    }
+
+    // ------------------------------------------------------------------------
+    // Awaiting futures
+    // ------------------------------------------------------------------------
+
+    @Test(timeout = 10_000)
+    public void completedFutureIsNotAwaited() throws Exception {
+        runtime.getCommands().register("io", new AsyncCommand(() -> CompletableFuture.completedFuture(null)));
+        RecordingInterpreter interpreter = new RecordingInterpreter(new ScriptInterpreter());
+        executor = new ScriptExecutor(interpreter, 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = compile("io()", "io()", "echoln(\"done\")");
+        executor.submit(script, new ScriptContext(script)).completion().join();
+        assertEquals("done\n", output.getOutput());
+        assertFalse(interpreter.states.contains(ScriptTask.State.WAITING));
+    }
+
+    @Test(timeout = 10_000)
+    public void pendingFutureParksTheTask() throws Exception {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        runtime.getCommands().register("io", new AsyncCommand(() -> pending));
+        executor = new ScriptExecutor(new ScriptInterpreter(), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = compile("io()", "echoln(\"done\")");
+        ScriptTask task = executor.submit(script, new ScriptContext(script));
+
+        awaitState(task, ScriptTask.State.WAITING);
+        assertEquals("", output.getOutput());
+        pending.complete(null);
+        task.completion().join();
+        assertEquals("done\n", output.getOutput());
+    }
+
+    @Test(timeout = 10_000)
+    public void failedFutureFailsTheTask() throws Exception {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        runtime.getCommands().register("io", new AsyncCommand(() -> pending));
+        executor = new ScriptExecutor(new ScriptInterpreter(), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = compile("io()", "echoln(\"done\")");
+        ScriptTask task = executor.submit(script, new ScriptContext(script));
+
+        awaitState(task, ScriptTask.State.WAITING);
+        IllegalStateException failure = new IllegalStateException("io failed");
+        pending.completeExceptionally(failure);
+        try {
+            task.completion().join();
+            fail("Expected the task to fail");
+        }
+        catch (CompletionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertEquals("", output.getOutput());
+    }
+
+    // ------------------------------------------------------------------------
+    // Cancellation
+    // ------------------------------------------------------------------------
+
+    @Test(timeout = 10_000)
+    public void closingCancelsAwaitingTasks() throws Exception {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        runtime.getCommands().register("io", new AsyncCommand(() -> pending));
+        executor = new ScriptExecutor(new ScriptInterpreter(), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = compile("io()", "echoln(\"done\")");
+        ScriptTask task = executor.submit(script, new ScriptContext(script));
+
+        awaitState(task, ScriptTask.State.WAITING);
+        executor.close();
+        assertCancelled(task);
+        // Completing the future afterwards must not bring the task back.
+        pending.complete(null);
+        assertEquals(ScriptTask.State.DONE, task.getState());
+        assertEquals("", output.getOutput());
+    }
+
+    @Test(timeout = 10_000)
+    public void closingCancelsSleepingTasks() throws Exception {
+        executor = new ScriptExecutor(new StepInterpreter(new ScriptSignal()), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = steps("sleep", "print");
+        ScriptTask task = executor.submit(script, new ScriptContext(script));
+
+        awaitState(task, ScriptTask.State.SLEEPING);
+        executor.close();
+        assertCancelled(task);
+        assertEquals("", output.getOutput());
+    }
+
+    @Test(timeout = 10_000)
+    public void closingCancelsTasksWaitingOnSignals() throws Exception {
+        ScriptSignal signal = new ScriptSignal();
+        executor = new ScriptExecutor(new StepInterpreter(signal), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = steps("wait", "print");
+        ScriptTask task = executor.submit(script, new ScriptContext(script));
+
+        awaitState(task, ScriptTask.State.WAITING);
+        executor.close();
+        assertCancelled(task);
+        // The cancelled task is skipped rather than resumed.
+        assertFalse(signal.signal());
+        assertEquals("", output.getOutput());
+    }
+
+    // ------------------------------------------------------------------------
+    // Signals
+    // ------------------------------------------------------------------------
+
+    @Test(timeout = 10_000)
+    public void signalResumesWaitingTask() throws Exception {
+        ScriptSignal signal = new ScriptSignal();
+        executor = new ScriptExecutor(new StepInterpreter(signal), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = steps("wait", "print");
+        ScriptTask task = executor.submit(script, new ScriptContext(script));
+
+        awaitState(task, ScriptTask.State.WAITING);
+        assertEquals(1, signal.getWaitingCount());
+        assertTrue(signal.signal());
+        task.completion().join();
+        assertEquals("step 2\n", output.getOutput());
+    }
+
+    @Test(timeout = 10_000)
+    public void signalSentBeforeTheSliceEndsIsNotLost() throws Exception {
+        executor = new ScriptExecutor(new StepInterpreter(new ScriptSignal()), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = steps("waitAndSignal", "print");
+        executor.submit(script, new ScriptContext(script)).completion().join();
+        assertEquals("step 2\n", output.getOutput());
+    }
+
+    // ------------------------------------------------------------------------
+    // Batching
+    // ------------------------------------------------------------------------
+
+    @Test(timeout = 10_000)
+    public void batchedCallsWaitForTheFlush() throws Exception {
+        List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        batcher = new CommandBatcher();
+        batcher.register(PutCommand.class, (commands, contexts) -> {
+            List<Integer> values = new ArrayList<>();
+            for (PutCommand command : commands) {
+                values.add(command.value());
+            }
+            batches.add(values);
+            return CompletableFuture.completedFuture(null);
+        });
+        List<ScriptTask> tasks = submitPuts(3);
+        for (ScriptTask task : tasks) {
+            awaitState(task, ScriptTask.State.WAITING);
+        }
+        assertTrue(batches.isEmpty());
+
+        batcher.flush();
+        for (ScriptTask task : tasks) {
+            task.completion().join();
+        }
+        assertEquals(1, batches.size());
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), new HashSet<>(batches.get(0)));
+        assertEquals("done\ndone\ndone\n", output.getOutput());
+    }
+
+    @Test(timeout = 10_000)
+    public void failedBatchFailsEveryTask() throws Exception {
+        IllegalStateException failure = new IllegalStateException("batch failed");
+        batcher = new CommandBatcher();
+        batcher.register(PutCommand.class, (commands, contexts) -> {
+            throw failure;
+        });
+        List<ScriptTask> tasks = submitPuts(2);
+        for (ScriptTask task : tasks) {
+            awaitState(task, ScriptTask.State.WAITING);
+        }
+        batcher.flush();
+        for (ScriptTask task : tasks) {
+            try {
+                task.completion().join();
+                fail("Expected the task to fail");
+            }
+            catch (CompletionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals("", output.getOutput());
+    }
+
+    @Test(timeout = 10_000)
+    public void closingTheBatcherFlushes() throws Exception {
+        batcher = new CommandBatcher();
+        batcher.register(PutCommand.class, (commands, contexts) -> CompletableFuture.completedFuture(null));
+        List<ScriptTask> tasks = submitPuts(2);
+        for (ScriptTask task : tasks) {
+            awaitState(task, ScriptTask.State.WAITING);
+        }
+        batcher.close();
+        for (ScriptTask task : tasks) {
+            task.completion().join();
+        }
+        assertEquals("done\ndone\n", output.getOutput());
+    }
+
+    // ------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------
+
+    // Submits tasks that each put their own number through the batcher, then print.
+    private List<ScriptTask> submitPuts(int count) throws Exception {
+        runtime.getCommands().register("put", new PutCommand());
+        executor = new ScriptExecutor(new ScriptInterpreter(batcher), 1, ScriptExecutor.DEFAULT_BUDGET);
+        Script script = compile("put(n)", "echoln(\"done\")");
+        List<ScriptTask> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ScriptContext context = new ScriptContext(script);
+            context.addVariable("n", ProtectionModifier.PUBLIC, new IntegerObject(i));
+            tasks.add(executor.submit(script, context));
+        }
+        return tasks;
+    }
+
+    // Tests that use this have a timeout, so a task that never gets there fails them.
+    private static void awaitState(ScriptTask task, ScriptTask.State state) throws InterruptedException {
+        while (task.getState() != state) {
+            assertFalse("Finished before reaching " + state, task.completion().isDone());
+            Thread.sleep(1);
+        }
+    }
+
+    private static void assertCancelled(ScriptTask task) {
+        try {
+            task.completion().join();
+            fail("Expected the task to be cancelled");
+        }
+        catch (CancellationException expected) {
+            assertEquals(ScriptTask.State.DONE, task.getState());
+        }
+    }
+
+    private Script compile(String... source) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(source), StandardCharsets.UTF_8);
+        return runtime.newCompiler().compile(file, runtime.getGlobalGroup());
+    }
+
+    // A script whose lines are the single-word steps understood by StepInterpreter.
+    private Script steps(String... steps) {
+        Script.ExtendedData[] lines = new Script.ExtendedData[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            lines[i] = new Script.ExtendedData(new String[] { steps[i] });
+        }
+        return new Script("steps", "/", steps, lines, runtime.getGlobalGroup());
+    }
+
+    // Parks on a signal or sleeps, depending on the step, so that parking can be tested without any commands.
+    private final static class StepInterpreter implements LineInterpreter {
+        private final ScriptSignal signal;
+
+        private StepInterpreter(ScriptSignal signal) {
+            this.signal = signal;
+        }
+
+        @Override
+        public void execute(ScriptTask task, Script.ExtendedData line) {
+            switch (line.get(0)) {
+                case "sleep":
+                    task.sleep(60_000);
+                    break;
+                case "wait":
+                    task.waitOn(signal);
+                    break;
+                case "waitAndSignal":
+                    task.waitOn(signal);
+                    signal.signal();
+                    break;
+                default:
+                    task.context.runtime.getOutput().writeLine("step " + task.getLine());
+                    break;
+            }
+        }
+    }
+
+    // Remembers the state of the task after every line.
+    private final static class RecordingInterpreter implements LineInterpreter {
+        private final LineInterpreter interpreter;
+        private final List<ScriptTask.State> states = Collections.synchronizedList(new ArrayList<>());
+
+        private RecordingInterpreter(LineInterpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        public void execute(ScriptTask task, Script.ExtendedData line) throws Exception {
+            interpreter.execute(task, line);
+            states.add(task.getState());
+        }
+    }
+
+    // Takes no arguments, and finishes whenever the supplied future does.
+    private static class AsyncCommand extends AbstractCommand {
+        private final static CommandSignature SIGNATURE = new CommandSignature();
+
+        private final Supplier<CompletableFuture<Void>> futures;
+
+        private AsyncCommand(Supplier<CompletableFuture<Void>> futures) {
+            this.futures = futures;
+        }
+
+        @Override
+        public CommandSignature getSignature() {
+            return SIGNATURE;
+        }
+
+        @Override
+        public boolean processArguments(ScriptContext context, Map<String, AbstractObject> args) {
+            return true;
+        }
+
+        @Override
+        public void execute(ScriptContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> executeAsync(ScriptContext context) {
+            return futures.get();
+        }
+    }
+
+    // Only ever executed in batches.
+    private static class PutCommand extends AbstractCommand {
+        private final static CommandSignature SIGNATURE = new CommandSignature("value");
+
+        @Override
+        public CommandSignature getSignature() {
+            return SIGNATURE;
+        }
+
+        @Override
+        public boolean processArguments(ScriptContext context, Map<String, AbstractObject> args) {
+            processedArgs = args;
+            return args.get("value") instanceof IntegerObject;
+        }
+
+        @Override
+        public void execute(ScriptContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        private int value() {
+            return ((IntegerObject) processedArgs.get("value")).value;
+        }
+    }
+}
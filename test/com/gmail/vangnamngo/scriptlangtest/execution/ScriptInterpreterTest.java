@@ -0,0 +1,177 @@
+package com.gmail.vangnamngo.scriptlangtest.execution;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.ScriptExecutionException;
+import com.gmail.vangnamngo.scriptlangtest.output.MemoryOutputSink;
+import com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler;
+import com.gmail.vangnamngo.scriptlangtest.script.Script;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptContext;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compiles and runs scripts, both eagerly and lazily, and checks what they print. The fixtures are in the
+ * {@code fixtures} directory next to this class.
+ */
+public class ScriptInterpreterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ------------------------------------------------------------------------
+    // Fixtures
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void ifElifElse() throws Exception {
+        assertOutput("if_elif_else.slt", "zero", "one", "two or three", "two or three", "other", "nested");
+    }
+
+    @Test
+    public void whileBreakContinue() throws Exception {
+        assertOutput("while_break_continue.slt", "sum=16", "01", "03", "11", "13", "j=2");
+    }
+
+    @Test
+    public void switchInt() throws Exception {
+        assertOutput("switch_int.slt", "zero", "one or two", "one or two", "other", "m=2", "done");
+    }
+
+    @Test
+    public void switchChar() throws Exception {
+        assertOutput("switch_char.slt", "b or c", "no match");
+    }
+
+    @Test
+    public void switchString() throws Exception {
+        assertOutput("switch_string.slt", "Running", "Stopped");
+    }
+
+    // ------------------------------------------------------------------------
+    // Assignments
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void assignmentKeepsDeclaredType() throws Exception {
+        assertFails("Cannot assign string to int", "int x = 1", "x = \"hello\"", "x += 1", "echoln(\"x=\" + x)");
+    }
+
+    @Test
+    public void compoundAssignmentKeepsDeclaredType() throws Exception {
+        assertFails("Cannot assign dec to int", "int x = 1", "x += 1.5");
+    }
+
+    @Test
+    public void declarationChecksType() throws Exception {
+        assertFails("Cannot assign string to int", "int x = \"hello\"");
+    }
+
+    @Test
+    public void assignmentConvertsIntToDec() throws Exception {
+        assertEquals("d=3.0\n", run(write("dec d = 1", "d = 2", "d += 1", "echoln(\"d=\" + d)"), false));
+    }
+
+    // ------------------------------------------------------------------------
+    // Errors
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void unknownVariable() throws Exception {
+        assertFails("Unknown variable \"x\"", "x = 1");
+    }
+
+    @Test
+    public void switchOnWrongType() throws Exception {
+        assertFails("Cannot switch on string with int cases", "switch (\"a\"):", "    case 1:",
+                "        echoln(\"a\")");
+    }
+
+    @Test
+    public void invalidCommandArguments() throws Exception {
+        assertFails("Invalid arguments for \"echoln\"", "echoln()");
+    }
+
+    @Test
+    public void tooManyCommandArguments() throws Exception {
+        assertFails("Too many arguments for \"echoln\": expected at most 1, got 2", "echoln(\"a\", \"b\")");
+    }
+
+    @Test
+    public void unknownCommand() throws Exception {
+        assertFails("Unknown command \"nope\"", "nope(1)");
+    }
+
+    @Test
+    public void lazyBlockIsOnlyCheckedOnceEntered() throws Exception {
+        File script = write("int x = 1", "if (x == 2):", "    echoln(1 +)", "echoln(\"after\")");
+        assertEquals("after\n", run(script, true));
+
+        File entered = write("int x = 2", "if (x == 2):", "    echoln(1 +)", "echoln(\"after\")");
+        try {
+            run(entered, true);
+            fail("Expected the block to fail once entered");
+        }
+        catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ScriptExecutionException);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------
+
+    // Checks that a fixture prints the expected lines, whether it is compiled eagerly or lazily.
+    private void assertOutput(String fixture, String... lines) throws Exception {
+        File file = new File(getClass().getResource("fixtures/" + fixture).toURI());
+        String expected = String.join("\n", lines) + "\n";
+        assertEquals("eager", expected, run(file, false));
+        assertEquals("lazy", expected, run(file, true));
+    }
+
+    // Checks that a script fails with the expected message, whether it is compiled eagerly or lazily.
+    private void assertFails(String message, String... source) throws Exception {
+        File file = write(source);
+        for (boolean lazy : new boolean[] { false, true }) {
+            try {
+                run(file, lazy);
+                fail("Expected \"" + message + "\", lazy: " + lazy);
+            }
+            catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof ScriptExecutionException);
+                assertEquals(message, e.getCause().getMessage());
+            }
+        }
+    }
+
+    private File write(String... source) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(source), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    // Runs a script to completion in a runtime of its own and returns what it printed.
+    private static String run(File file, boolean lazy) throws Exception {
+        ScriptRuntime runtime = new ScriptRuntime();
+        MemoryOutputSink output = new MemoryOutputSink();
+        runtime.setOutput(output);
+        ScriptCompiler compiler = runtime.newCompiler();
+        compiler.setLazy(lazy);
+        Script script = compiler.compile(file, runtime.getGlobalGroup());
+        try (ScriptExecutor executor = new ScriptExecutor(new ScriptInterpreter(), 1, ScriptExecutor.DEFAULT_BUDGET)) {
+            executor.submit(script, new ScriptContext(script)).completion().join();
+        }
+        finally {
+            runtime.close();
+        }
+        return output.getOutput();
+    }
+}
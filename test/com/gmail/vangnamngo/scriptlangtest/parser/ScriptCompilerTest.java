@@ -0,0 +1,75 @@
+package com.gmail.vangnamngo.scriptlangtest.parser;
+
+import com.gmail.vangnamngo.scriptlangtest.exception.CompileException;
+import com.gmail.vangnamngo.scriptlangtest.script.ScriptRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that invalid scripts are rejected when they are compiled eagerly.
+ */
+public class ScriptCompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void breakOutsideOfLoop() throws Exception {
+        assertRejected("\"break\" outside of a loop", "break");
+    }
+
+    @Test
+    public void continueOutsideOfLoop() throws Exception {
+        assertRejected("\"continue\" outside of a loop", "int x = 1", "if (x == 1):", "    continue");
+    }
+
+    @Test
+    public void caseOutsideOfSwitch() throws Exception {
+        assertRejected("\"case\" outside of a switch", "case 1:");
+    }
+
+    @Test
+    public void duplicateCase() throws Exception {
+        assertRejected("Duplicate case", "switch (1):", "    case 1:", "        echoln(\"a\")", "    case 1:",
+                "        echoln(\"b\")");
+    }
+
+    @Test
+    public void mixedCaseTypes() throws Exception {
+        assertRejected("Expected a int case", "switch (1):", "    case 1, 'a':", "        echoln(\"a\")");
+    }
+
+    @Test
+    public void unexpectedIndentation() throws Exception {
+        assertRejected("Unexpected indentation", "int x = 1", "    int y = 2");
+    }
+
+    @Test
+    public void incompleteExpression() throws Exception {
+        assertRejected(null, "echoln(1 +)");
+    }
+
+    // Checks that compiling the source fails, with a message starting with the expected one if there is one.
+    private void assertRejected(String message, String... source) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(source), StandardCharsets.UTF_8);
+        ScriptRuntime runtime = new ScriptRuntime();
+        try {
+            runtime.newCompiler().compile(file, runtime.getGlobalGroup());
+            fail("Expected the script to be rejected");
+        }
+        catch (CompileException e) {
+            if (message != null) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+            }
+        }
+    }
+}
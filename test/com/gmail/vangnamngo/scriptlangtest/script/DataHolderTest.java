@@ -0,0 +1,259 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.object.BooleanObject;
+import com.gmail.vangnamngo.scriptlangtest.object.CharObject;
+import com.gmail.vangnamngo.scriptlangtest.object.DecimalObject;
+import com.gmail.vangnamngo.scriptlangtest.object.IntegerObject;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes the variables of a context to data holders, and looks them up again from the contexts of other scripts.
+ */
+public class DataHolderTest {
+
+    private final static String DIRECTORY = "/data/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptRuntime runtime;
+    private ScriptRuntime loaded;
+    private ScriptContext source;
+    private ScriptGroup holderGroup;
+    private Script holderScript;
+
+    @Before
+    public void setUp() {
+        runtime = new ScriptRuntime();
+        loaded = new ScriptRuntime();
+        source = new ScriptContext(script("vars", DIRECTORY, new ScriptGroup("holders", runtime.getGlobalGroup())));
+        holderGroup = new ScriptGroup("holders", loaded.getGlobalGroup());
+        holderScript = script("vars", DIRECTORY, holderGroup);
+    }
+
+    @After
+    public void tearDown() {
+        runtime.close();
+        loaded.close();
+    }
+
+    // ------------------------------------------------------------------------
+    // Round trips
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void everyKindOfValueRoundTrips() throws Exception {
+        source.addVariable("b", ProtectionModifier.PUBLIC, "bool", BooleanObject.valueOf(true));
+        source.addVariable("c", ProtectionModifier.PUBLIC, "char", new CharObject('\u00e9'));
+        source.addVariable("i", ProtectionModifier.PUBLIC, "int", new IntegerObject(-42));
+        source.addVariable("d", ProtectionModifier.PUBLIC, "dec", new DecimalObject(2.5));
+        source.addVariable("s", ProtectionModifier.PUBLIC, "string", new StringObject("h\u00e9llo"));
+        source.addVariable("empty", ProtectionModifier.PUBLIC, "string", new StringObject(""));
+        source.addVariable("n", ProtectionModifier.PUBLIC, "string", runtime.getNullObject());
+        source.addVariable("any", ProtectionModifier.PUBLIC, null, new IntegerObject(7));
+
+        DataHolder holder = DataHolder.load(write(), holderScript);
+        assertEquals(8, holder.getVariableCount());
+        ScriptContext context = holder.getContext();
+        assertEquals(BooleanObject.valueOf(true), context.getVariable("b"));
+        assertEquals(new CharObject('\u00e9'), context.getVariable("c"));
+        assertEquals(new IntegerObject(-42), context.getVariable("i"));
+        assertEquals(new DecimalObject(2.5), context.getVariable("d"));
+        assertEquals(new StringObject("h\u00e9llo"), context.getVariable("s"));
+        assertEquals(new StringObject(""), context.getVariable("empty"));
+        assertSame(loaded.getNullObject(), context.getVariable("n"));
+        assertEquals(new IntegerObject(7), context.getVariable("any"));
+
+        assertEquals("int", context.getVariableData("i").type);
+        assertEquals("string", context.getVariableData("n").type);
+        assertNull(context.getVariableData("any").type);
+    }
+
+    @Test
+    public void modifiersRoundTrip() throws Exception {
+        for (ProtectionModifier mod : ProtectionModifier.values()) {
+            source.addVariable(mod.name().toLowerCase(), mod, new IntegerObject(mod.ordinal()));
+        }
+        ScriptContext context = DataHolder.load(write(), holderScript).getContext();
+        for (ProtectionModifier mod : ProtectionModifier.values()) {
+            assertEquals(mod, context.getVariableData(mod.name().toLowerCase()).protectionMod);
+        }
+    }
+
+    @Test
+    public void everyNameIsFound() throws Exception {
+        // The last two sort differently as UTF-16 than as UTF-8, and the file is sorted by UTF-8.
+        String[] names = { "a", "ab", "b", "z", "\u00e9", "\uff01", "\ud83d\ude00" };
+        for (int i = 0; i < names.length; i++) {
+            source.addVariable(names[i], ProtectionModifier.PUBLIC, new IntegerObject(i));
+        }
+        ScriptContext context = DataHolder.load(write(), holderScript).getContext();
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], new IntegerObject(i), context.getVariable(names[i]));
+        }
+        assertNull(context.getVariableData(""));
+        assertNull(context.getVariableData("aa"));
+        assertNull(context.getVariableData("zz"));
+    }
+
+    @Test
+    public void onlyLocalVariablesAreWritten() throws Exception {
+        runtime.getGlobalContext().addVariable("inherited", ProtectionModifier.PUBLIC, new IntegerObject(1));
+        source.addVariable("own", ProtectionModifier.PUBLIC, new IntegerObject(2));
+        DataHolder holder = DataHolder.load(write(), holderScript);
+        assertEquals(1, holder.getVariableCount());
+        assertNull(holder.getContext().getVariableData("inherited"));
+    }
+
+    @Test
+    public void assignmentsAreKeptButNotWritten() throws Exception {
+        source.addVariable("x", ProtectionModifier.PUBLIC, new IntegerObject(1));
+        Path file = write();
+        DataHolder holder = DataHolder.load(file, holderScript);
+        assertTrue(holder.getContext().setVariable("x", new IntegerObject(2)));
+        assertEquals(new IntegerObject(2), holder.getContext().getVariable("x"));
+
+        holder.close();
+        ScriptGroup otherGroup = new ScriptGroup("holders", loaded.getGlobalGroup());
+        DataHolder reloaded = DataHolder.load(file, script("vars", DIRECTORY, otherGroup));
+        assertEquals(new IntegerObject(1), reloaded.getContext().getVariable("x"));
+    }
+
+    // ------------------------------------------------------------------------
+    // Visibility
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void variablesAreVisibleAsFarAsTheirModifiersAllow() throws Exception {
+        for (ProtectionModifier mod : ProtectionModifier.values()) {
+            source.addVariable(mod.name().toLowerCase(), mod, new IntegerObject(mod.ordinal()));
+        }
+        DataHolder.load(write(), holderScript);
+
+        ScriptGroup subgroup = new ScriptGroup("sub", holderGroup);
+        ScriptGroup otherGroup = new ScriptGroup("other", loaded.getGlobalGroup());
+        ScriptContext sameDirectory = new ScriptContext(script("a", DIRECTORY + "nested/", otherGroup));
+        ScriptContext sameGroup = new ScriptContext(script("b", "/elsewhere/", subgroup));
+        ScriptContext stranger = new ScriptContext(script("c", "/elsewhere/", otherGroup));
+
+        assertVisible(sameDirectory, true, false, true, false);
+        assertVisible(sameGroup, true, true, false, false);
+        assertVisible(stranger, true, false, false, false);
+    }
+
+    @Test
+    public void ownVariablesTakePrecedence() throws Exception {
+        source.addVariable("x", ProtectionModifier.PUBLIC, new IntegerObject(1));
+        DataHolder.load(write(), holderScript);
+        loaded.getGlobalContext().addVariable("x", ProtectionModifier.PUBLIC, new IntegerObject(2));
+        ScriptContext reader = new ScriptContext(script("a", "/elsewhere/", loaded.getGlobalGroup()));
+        assertEquals(new IntegerObject(2), reader.getVariable("x"));
+    }
+
+    @Test
+    public void closingUnmounts() throws Exception {
+        source.addVariable("x", ProtectionModifier.PUBLIC, new IntegerObject(1));
+        DataHolder holder = DataHolder.load(write(), holderScript);
+        ScriptContext reader = new ScriptContext(script("a", "/elsewhere/", loaded.getGlobalGroup()));
+        assertEquals(new IntegerObject(1), reader.getVariable("x"));
+        holder.close();
+        assertNull(reader.getVariable("x"));
+    }
+
+    // ------------------------------------------------------------------------
+    // Damaged files
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void otherVersionsAreRejected() throws Exception {
+        source.addVariable("x", ProtectionModifier.PUBLIC, new IntegerObject(1));
+        Path file = write();
+        patchInt(file, 4, DataHolder.VERSION + 1);
+        assertRejected(file, "Unsupported data holder version " + (DataHolder.VERSION + 1) + ", expected "
+                + DataHolder.VERSION);
+    }
+
+    @Test
+    public void otherFilesAreRejected() throws Exception {
+        source.addVariable("x", ProtectionModifier.PUBLIC, new IntegerObject(1));
+        Path file = write();
+        patchInt(file, 0, 0x12345678);
+        assertRejected(file, "Not a data holder");
+
+        assertRejected(folder.newFile().toPath(), "Not a data holder");
+    }
+
+    @Test
+    public void corruptHeadersAreRejected() throws Exception {
+        source.addVariable("x", ProtectionModifier.PUBLIC, new IntegerObject(1));
+        Path file = write();
+        byte[] bytes = Files.readAllBytes(file);
+
+        // The index would run past the end of the file.
+        patchInt(file, 8, 1000);
+        assertRejected(file, "Corrupt data holder");
+
+        Files.write(file, bytes);
+        patchInt(file, 8, -1);
+        assertRejected(file, "Corrupt data holder");
+
+        Files.write(file, bytes);
+        patchInt(file, 12, 0);
+        assertRejected(file, "Corrupt data holder");
+
+        Files.write(file, Arrays.copyOf(bytes, 30));
+        assertRejected(file, "Corrupt data holder");
+    }
+
+    // ------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------
+
+    private static Script script(String name, String directory, ScriptGroup group) {
+        return new Script(name, directory, new String[0], new Script.ExtendedData[0], group);
+    }
+
+    private Path write() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("vars.sld");
+        DataHolder.write(file, source);
+        return file;
+    }
+
+    // Checks which of the variables named after each modifier can be seen from the context.
+    private static void assertVisible(ScriptContext context, boolean pub, boolean group, boolean directory,
+                                      boolean priv) {
+        assertEquals(pub, context.getVariable("public") != null);
+        assertEquals(group, context.getVariable("group") != null);
+        assertEquals(directory, context.getVariable("directory") != null);
+        assertEquals(priv, context.getVariable("private") != null);
+    }
+
+    private void assertRejected(Path file, String message) {
+        try {
+            DataHolder.load(file, holderScript);
+            fail("Expected \"" + message + "\"");
+        }
+        catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void patchInt(Path file, int offset, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(offset, value);
+        Files.write(file, bytes);
+    }
+}
@@ -0,0 +1,179 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.execution.ScriptExecutor;
+import com.gmail.vangnamngo.scriptlangtest.execution.ScriptInterpreter;
+import com.gmail.vangnamngo.scriptlangtest.lexer.EToken;
+import com.gmail.vangnamngo.scriptlangtest.object.IntegerObject;
+import com.gmail.vangnamngo.scriptlangtest.object.StringObject;
+import com.gmail.vangnamngo.scriptlangtest.output.MemoryOutputSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Takes snapshots of runtimes and restores them as new runtimes.
+ */
+public class RuntimeSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptRuntime runtime;
+    private ScriptRuntime restored;
+    private ScriptGroup group;
+
+    @Before
+    public void setUp() {
+        runtime = new ScriptRuntime();
+        group = new ScriptGroup("group", runtime.getGlobalGroup());
+    }
+
+    @After
+    public void tearDown() {
+        runtime.close();
+        if (restored != null) {
+            restored.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Round trips
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void dialectIsRestored() throws Exception {
+        runtime.getDialect().addKeyword("unless");
+        runtime.getDialect().addLineContinuationToken(EToken.L_PAREN);
+        restored = RuntimeSnapshot.restore(write()).getRuntime();
+        assertEquals(runtime.getDialect().getKeywords(), restored.getDialect().getKeywords());
+        assertEquals(runtime.getDialect().getLineContinuationTokens(),
+                restored.getDialect().getLineContinuationTokens());
+    }
+
+    @Test
+    public void contextVariablesAreRestored() throws Exception {
+        runtime.getGlobalContext().addVariable("version", ProtectionModifier.PUBLIC, "int", new IntegerObject(3));
+        group.groupContext.addVariable("motd", ProtectionModifier.GROUP, "string", new StringObject("hi"));
+        group.groupContext.addVariable("unset", ProtectionModifier.PRIVATE, "string", runtime.getNullObject());
+        RuntimeSnapshot snapshot = RuntimeSnapshot.restore(write());
+        restored = snapshot.getRuntime();
+
+        ScriptContext.VariableData version = restored.getGlobalContext().getVariableData("version");
+        assertEquals(new IntegerObject(3), version.value);
+        assertEquals(ProtectionModifier.PUBLIC, version.protectionMod);
+        assertEquals("int", version.type);
+
+        ScriptContext groupContext = snapshot.getImage().getGroups().get(0).groupContext;
+        assertEquals(new HashSet<>(Arrays.asList("motd", "unset")), groupContext.getLocalVariables());
+        ScriptContext.VariableData motd = groupContext.getVariableData("motd");
+        assertEquals(new StringObject("hi"), motd.value);
+        assertEquals(ProtectionModifier.GROUP, motd.protectionMod);
+        assertEquals("string", motd.type);
+        ScriptContext.VariableData unset = groupContext.getVariableData("unset");
+        assertSame(restored.getNullObject(), unset.value);
+        assertEquals(ProtectionModifier.PRIVATE, unset.protectionMod);
+    }
+
+    @Test
+    public void scriptsAreRestoredAndRun() throws Exception {
+        group.groupContext.addVariable("greeting", ProtectionModifier.GROUP, "string", new StringObject("hello"));
+        add("greet", "echoln(greeting + \" \" + 1)");
+        RuntimeSnapshot snapshot = RuntimeSnapshot.restore(write());
+        restored = snapshot.getRuntime();
+
+        Script script = snapshot.getImage().getScript(folder.getRoot().getAbsolutePath() + File.separator, "greet");
+        assertNotNull(script);
+        assertSame(restored, script.group.runtime);
+        assertEquals("hello 1\n", run(restored, script));
+    }
+
+    // ------------------------------------------------------------------------
+    // Damaged snapshots
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void otherVersionsAreRejected() throws Exception {
+        Path file = write();
+        patchInt(file, 4, RuntimeSnapshot.VERSION + 1);
+        assertRejected(file, "Unsupported runtime snapshot version " + (RuntimeSnapshot.VERSION + 1) + ", expected "
+                + RuntimeSnapshot.VERSION);
+    }
+
+    @Test
+    public void otherFilesAreRejected() throws Exception {
+        Path file = write();
+        patchInt(file, 0, 0x12345678);
+        assertRejected(file, "Not a runtime snapshot");
+
+        assertRejected(folder.newFile().toPath(), "Not a runtime snapshot");
+    }
+
+    @Test
+    public void truncatedSnapshotsAreRejected() throws Exception {
+        runtime.getGlobalContext().addVariable("version", ProtectionModifier.PUBLIC, "int", new IntegerObject(3));
+        add("greet", "echoln(\"hello\")");
+        Path file = write();
+        byte[] bytes = Files.readAllBytes(file);
+        // Cut off in the dialect, in the image, and in the last variable.
+        for (int length : new int[] { 12, bytes.length / 2, bytes.length - 1 }) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            assertRejected(file, "Corrupt runtime snapshot");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------
+
+    private void add(String name, String... source) throws Exception {
+        File file = new File(folder.getRoot(), name + ".slt");
+        Files.write(file.toPath(), Arrays.asList(source), StandardCharsets.UTF_8);
+        group.replaceScript(null, runtime.newCompiler().compile(file, group));
+    }
+
+    private Path write() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("runtime.sls");
+        RuntimeSnapshot.write(file, runtime, Collections.singleton(group));
+        return file;
+    }
+
+    private static void assertRejected(Path file, String message) {
+        try {
+            RuntimeSnapshot.restore(file).getRuntime().close();
+            fail("Expected \"" + message + "\"");
+        }
+        catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void patchInt(Path file, int offset, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(offset, value);
+        Files.write(file, bytes);
+    }
+
+    // Runs a script in a context under its group's, to completion, and returns what it printed.
+    private static String run(ScriptRuntime runtime, Script script) {
+        MemoryOutputSink output = new MemoryOutputSink();
+        runtime.setOutput(output);
+        try (ScriptExecutor executor = new ScriptExecutor(new ScriptInterpreter(), 1, ScriptExecutor.DEFAULT_BUDGET)) {
+            executor.submit(script, new ScriptContext(script, script.group.groupContext)).completion().join();
+        }
+        return output.getOutput();
+    }
+}
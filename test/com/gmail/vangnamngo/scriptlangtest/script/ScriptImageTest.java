@@ -0,0 +1,275 @@
+package com.gmail.vangnamngo.scriptlangtest.script;
+
+import com.gmail.vangnamngo.scriptlangtest.execution.ScriptExecutor;
+import com.gmail.vangnamngo.scriptlangtest.execution.ScriptInterpreter;
+import com.gmail.vangnamngo.scriptlangtest.output.MemoryOutputSink;
+import com.gmail.vangnamngo.scriptlangtest.parser.ScriptCompiler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes group trees to script images and loads them back into fresh runtimes.
+ */
+public class ScriptImageTest {
+
+    private final static String[] PROGRAM = {
+            "int i = 0",
+            "while (i != 3):",
+            "    switch (i):",
+            "        case 0:",
+            "            echoln(\"zero\")",
+            "        default:",
+            "            echoln(\"i=\" + i)",
+            "    i += 1"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptRuntime runtime;
+    private ScriptRuntime loaded;
+    private ScriptGroup parent;
+    private ScriptGroup child;
+    private String directory;
+
+    @Before
+    public void setUp() throws Exception {
+        runtime = new ScriptRuntime();
+        loaded = new ScriptRuntime();
+        parent = new ScriptGroup("parent", runtime.getGlobalGroup());
+        child = new ScriptGroup("child", parent);
+        directory = folder.getRoot().getAbsolutePath() + File.separator;
+    }
+
+    @After
+    public void tearDown() {
+        runtime.close();
+        loaded.close();
+    }
+
+    // ------------------------------------------------------------------------
+    // Round trips
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void roundTripKeepsGroupsAndLines() throws Exception {
+        List<Script> scripts = Arrays.asList(add("global", runtime.getGlobalGroup(), PROGRAM),
+                add("first", parent, PROGRAM), add("second", child, "echoln(\"second\")"));
+        ScriptImage image = ScriptImage.load(write(child), loaded);
+
+        List<ScriptGroup> groups = image.getGroups();
+        assertEquals(2, groups.size());
+        assertEquals("parent", groups.get(0).name);
+        assertSame(loaded.getGlobalGroup(), groups.get(0).parent);
+        assertEquals("child", groups.get(1).name);
+        assertSame(groups.get(0), groups.get(1).parent);
+
+        assertEquals(3, image.getScriptCount());
+        for (Script original : scripts) {
+            Script copy = image.getScript(directory, original.name);
+            assertNotNull(original.name, copy);
+            assertSameLines(original, copy);
+            assertEquals(original.group == runtime.getGlobalGroup() ? null : original.group.name,
+                    copy.group == loaded.getGlobalGroup() ? null : copy.group.name);
+        }
+    }
+
+    @Test
+    public void loadedScriptRunsLikeTheOriginal() throws Exception {
+        Script original = add("program", parent, PROGRAM);
+        Script copy = ScriptImage.load(write(parent), loaded).getScript(directory, "program");
+        assertEquals("zero\ni=1\ni=2\n", run(runtime, original));
+        assertEquals(run(runtime, original), run(loaded, copy));
+    }
+
+    @Test
+    public void lazilyCompiledScriptsAreWrittenInFull() throws Exception {
+        Script lazy = add("lazy", parent, true, PROGRAM);
+        Script copy = ScriptImage.load(write(parent), loaded).getScript(directory, "lazy");
+        assertSameLines(lazy, copy);
+        assertEquals("zero\ni=1\ni=2\n", run(loaded, copy));
+    }
+
+    // ------------------------------------------------------------------------
+    // Lazy decoding
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void scriptsAreOnlyDecodedOnceAskedFor() throws Exception {
+        add("first", parent, PROGRAM);
+        add("second", child, PROGRAM);
+        ScriptImage image = ScriptImage.load(write(child), loaded);
+        ScriptGroup loadedParent = image.getGroups().get(0);
+        ScriptGroup loadedChild = image.getGroups().get(1);
+        assertTrue(loadedParent.scripts().isEmpty());
+        assertTrue(loadedChild.scripts().isEmpty());
+
+        Script second = image.getScript(directory, "second");
+        assertEquals(Collections.singleton(second), loadedChild.scripts());
+        assertTrue(loadedParent.scripts().isEmpty());
+        assertSame(second, image.getScript(directory, "second"));
+    }
+
+    @Test
+    public void lookupFindsEveryScriptByDirectoryAndName() throws Exception {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            names.add(String.format("s%02d", i));
+        }
+        // Added out of order, so that the image has to sort them.
+        List<String> shuffled = new ArrayList<>(names);
+        Collections.reverse(shuffled);
+        for (String name : shuffled) {
+            add(name, parent, "echoln(\"" + name + "\")");
+        }
+        ScriptImage image = ScriptImage.load(write(parent), loaded);
+        for (String name : names) {
+            Script script = image.getScript(directory, name);
+            assertNotNull(name, script);
+            assertEquals(name, script.name);
+        }
+        assertNull(image.getScript(directory, "a"));
+        assertNull(image.getScript(directory, "s05x"));
+        assertNull(image.getScript(directory, "zz"));
+        assertNull(image.getScript(directory + "other" + File.separator, "s05"));
+    }
+
+    @Test
+    public void literalsAreSharedThroughTheConstantPool() throws Exception {
+        add("program", parent, PROGRAM);
+        Script copy = ScriptImage.load(write(parent), loaded).getScript(directory, "program");
+        Script.ExtendedData line = copy.getCompiledLine(1);
+        for (int i = 0; i < line.size(); i++) {
+            assertSame(loaded.getConstants().intern(new String(line.get(i))), line.get(i));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Damaged images
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void otherVersionsAreRejected() throws Exception {
+        add("program", parent, PROGRAM);
+        Path file = write(parent);
+        patchInt(file, 4, ScriptImage.VERSION + 1);
+        assertRejected(file, "Unsupported script image version " + (ScriptImage.VERSION + 1) + ", expected "
+                + ScriptImage.VERSION);
+    }
+
+    @Test
+    public void otherFilesAreRejected() throws Exception {
+        add("program", parent, PROGRAM);
+        Path file = write(parent);
+        patchInt(file, 0, 0x12345678);
+        assertRejected(file, "Not a script image");
+
+        Path empty = folder.newFile().toPath();
+        assertRejected(empty, "Not a script image");
+    }
+
+    @Test
+    public void corruptHeadersAreRejected() throws Exception {
+        add("program", parent, PROGRAM);
+        Path file = write(parent);
+        byte[] bytes = Files.readAllBytes(file);
+
+        // The index would run past the end of the file.
+        patchInt(file, 28, bytes.length);
+        assertRejected(file, "Corrupt script image");
+
+        Files.write(file, bytes);
+        patchInt(file, 8, -1);
+        assertRejected(file, "Corrupt script image");
+
+        Files.write(file, Arrays.copyOf(bytes, 40));
+        assertRejected(file, "Corrupt script image");
+    }
+
+    // ------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------
+
+    private Script add(String name, ScriptGroup group, String... source) throws Exception {
+        return add(name, group, false, source);
+    }
+
+    private Script add(String name, ScriptGroup group, boolean lazy, String... source) throws Exception {
+        File file = new File(folder.getRoot(), name + ".slt");
+        Files.write(file.toPath(), Arrays.asList(source), StandardCharsets.UTF_8);
+        ScriptCompiler compiler = runtime.newCompiler();
+        compiler.setLazy(lazy);
+        Script script = compiler.compile(file, group);
+        group.replaceScript(null, script);
+        return script;
+    }
+
+    private Path write(ScriptGroup... groups) throws IOException {
+        Path file = folder.getRoot().toPath().resolve("image.sli");
+        ScriptImage.write(file, Arrays.asList(groups));
+        return file;
+    }
+
+    private void assertRejected(Path file, String message) {
+        try {
+            ScriptImage.load(file, new ScriptRuntime());
+            fail("Expected \"" + message + "\"");
+        }
+        catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void assertSameLines(Script expected, Script actual) {
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.getRawLineCount(), actual.getRawLineCount());
+        for (int i = 1; i <= expected.getRawLineCount(); i++) {
+            assertEquals(expected.getRawLine(i), actual.getRawLine(i));
+        }
+        assertEquals(expected.getLineCount(), actual.getLineCount());
+        for (int i = 1; i <= expected.getLineCount(); i++) {
+            Script.ExtendedData a = expected.getCompiledLine(i);
+            Script.ExtendedData b = actual.getCompiledLine(i);
+            assertEquals(expected.getSourceLine(i), actual.getSourceLine(i));
+            if (a == null) {
+                assertNull(b);
+                continue;
+            }
+            assertArrayEquals(a.getData(), b.getData());
+            assertEquals(a.lineToJumpTo(), b.lineToJumpTo());
+            assertArrayEquals(a.getJumpTable(), b.getJumpTable());
+        }
+    }
+
+    private static void patchInt(Path file, int offset, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(offset, value);
+        Files.write(file, bytes);
+    }
+
+    // Runs a script to completion and returns what it printed.
+    private static String run(ScriptRuntime runtime, Script script) {
+        MemoryOutputSink output = new MemoryOutputSink();
+        runtime.setOutput(output);
+        try (ScriptExecutor executor = new ScriptExecutor(new ScriptInterpreter(), 1, ScriptExecutor.DEFAULT_BUDGET)) {
+            executor.submit(script, new ScriptContext(script)).completion().join();
+        }
+        return output.getOutput();
+    }
+}